@@ -0,0 +1,185 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.FileUtils;
+import picocli.CommandLine;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Packs a container directory with every {@link ArchiveCodec} and compares compression ratio with pack and unpack speed
+ */
+@CommandLine.Command(name = "benchmark",
+					 description = "Compare the archive codecs on an existing container directory (compression ratio vs. pack/unpack speed)",
+					 mixinStandardHelpOptions = true,
+					 showDefaultValues = true)
+public class ArchiveBenchmark implements Callable<Boolean> {
+
+	@CommandLine.Parameters(index = "0",
+							paramLabel = "DIR",
+							description = "Container directory to pack, e.g. deploy/containers/MineTile.0.0")
+	private File container;
+
+	@CommandLine.Option(names = { "--codecs" },
+						split = ",",
+						description = "Codecs to benchmark [TAR, GZIP, ZSTD, LZ4]")
+	private ArchiveCodec[] codecs = ArchiveCodec.values();
+
+	@CommandLine.Option(names = { "--gzipLevels" },
+						split = ",",
+						description = "gzip levels to try")
+	private int[] gzipLevels = { 1, 6 };
+
+	@CommandLine.Option(names = { "--zstdLevels" },
+						split = ",",
+						description = "zstd levels to try")
+	private int[] zstdLevels = { 1, 3, 9, 19 };
+
+	@CommandLine.Option(names = { "--zstdLong" },
+						description = "Also benchmark each zstd level in long-window mode")
+	private boolean zstdLong = false;
+
+	@CommandLine.Option(names = { "--extract" },
+						description = "Write the unpacked files to disk instead of only decompressing, to include file creation in the unpack time")
+	private boolean extract = false;
+
+	@CommandLine.Option(names = { "--runs" },
+						description = "Number of timed runs per codec (the fastest run is reported)")
+	private int runs = 3;
+
+	@Override
+	public Boolean call() throws Exception {
+		if (container == null || !container.isDirectory()) {
+			Log.error("Container directory {} not found", container);
+			return false;
+		}
+		try {
+			for (int level : gzipLevels) {
+				ArchiveCodec.GZIP.checkLevel(level);
+			}
+			for (int level : zstdLevels) {
+				ArchiveCodec.ZSTD.checkLevel(level);
+			}
+		} catch (IllegalArgumentException e) {
+			Log.error(e.getMessage());
+			return false;
+		}
+		long rawSize = FileUtils.sizeOfDirectory(container);
+		Log.info("Benchmarking {} ({}, best of {} runs)", container, humanBytes(rawSize), runs);
+		Log.info("");
+
+		File tempDir = Files.createTempDirectory("minetile-benchmark").toFile();
+		try {
+			List<Result> results = new ArrayList<>();
+			for (ArchiveCodec codec : codecs) {
+				switch (codec) {
+					case GZIP:
+						for (int level : gzipLevels) {
+							results.add(run(codec, level, false, rawSize, tempDir));
+						}
+						break;
+					case ZSTD:
+						for (int level : zstdLevels) {
+							results.add(run(codec, level, false, rawSize, tempDir));
+							if (zstdLong) {
+								results.add(run(codec, level, true, rawSize, tempDir));
+							}
+						}
+						break;
+					default:
+						results.add(run(codec, -1, false, rawSize, tempDir));
+				}
+			}
+
+			Log.info("");
+			Log.info(String.format("%-16s %12s %8s %12s %12s", "Codec", "Size", "Ratio", "Pack MB/s", "Unpack MB/s"));
+			for (Result result : results) {
+				Log.info(String.format("%-16s %12s %7.2fx %12.1f %12.1f",
+						result.label,
+						humanBytes(result.size),
+						rawSize / (double) result.size,
+						rawSize / 1048576.0D / (result.packNanos / 1.0E9D),
+						rawSize / 1048576.0D / (result.unpackNanos / 1.0E9D)));
+			}
+		} finally {
+			FileUtils.deleteDirectory(tempDir);
+		}
+		return true;
+	}
+
+	Result run(ArchiveCodec codec, int level, boolean longWindow, long rawSize, File tempDir) throws IOException {
+		String label = codec.name() + (level >= 0 ? "-" + level : "") + (longWindow ? "-long" : "");
+		Log.info("Running {}...", label);
+		File archive = new File(tempDir, "benchmark" + codec.extension);
+
+		Result result = new Result(label);
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			try (TarballMaker tarballMaker = new TarballMaker(archive, codec, level, longWindow)) {
+				tarballMaker.addRecursive(container, "");
+			}
+			result.packNanos = Math.min(result.packNanos, System.nanoTime() - start);
+			result.size = archive.length();
+
+			File extractDir = new File(tempDir, "extract");
+			start = System.nanoTime();
+			unpack(codec, archive, extract ? extractDir : null);
+			result.unpackNanos = Math.min(result.unpackNanos, System.nanoTime() - start);
+			if (extract) {
+				FileUtils.deleteDirectory(extractDir);
+			}
+		}
+		archive.delete();
+		return result;
+	}
+
+	void unpack(ArchiveCodec codec, File archive, File targetDir) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		try (TarArchiveInputStream tarIn = new TarArchiveInputStream(codec.decompress(new BufferedInputStream(new FileInputStream(archive), 64 * 1024)))) {
+			TarArchiveEntry entry;
+			while ((entry = tarIn.getNextTarEntry()) != null) {
+				if (targetDir == null) {
+					while (tarIn.read(buffer) != -1) {
+						// just decompress
+					}
+					continue;
+				}
+				File file = new File(targetDir, entry.getName());
+				if (entry.isDirectory()) {
+					file.mkdirs();
+				} else {
+					file.getParentFile().mkdirs();
+					try (OutputStream out = new FileOutputStream(file)) {
+						int n;
+						while ((n = tarIn.read(buffer)) != -1) {
+							out.write(buffer, 0, n);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	static String humanBytes(long bytes) {
+		if (bytes < 1024) { return bytes + "B"; }
+		int exp = (int) (Math.log(bytes) / Math.log(1024));
+		return String.format("%.1f%sB", bytes / Math.pow(1024, exp), "KMGTPE".charAt(exp - 1));
+	}
+
+	static class Result {
+		final String label;
+		long size;
+		long packNanos   = Long.MAX_VALUE;
+		long unpackNanos = Long.MAX_VALUE;
+
+		Result(String label) {
+			this.label = label;
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package org.inventivetalent.minetile.deployer;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public enum ArchiveCodec {
+
+	/**
+	 * Plain uncompressed tar
+	 */
+	TAR(".tar"),
+
+	/**
+	 * gzip compressed tar (the old --gzip output)
+	 */
+	GZIP(".tar.gz"),
+
+	/**
+	 * Zstandard compressed tar, supports levels 1-22 and long-window mode
+	 */
+	ZSTD(".tar.zst"),
+
+	/**
+	 * LZ4 (frame format) compressed tar, fastest to pack and unpack
+	 */
+	LZ4(".tar.lz4");
+
+	/**
+	 * Window log used for zstd's long mode. 27 (128MB) is the largest window the zstd CLI (and zstd-jni) decompress without extra flags, so archives stay extractable with a plain <code>tar --zstd -xf</code>
+	 */
+	static final int ZSTD_LONG_WINDOW_LOG = 27;
+
+	public final String extension;
+
+	ArchiveCodec(String extension) {
+		this.extension = extension;
+	}
+
+	/**
+	 * Checks a compression level before anything is packed, the compressors only reject it once the first archive is created
+	 *
+	 * @param level compression level, negative values stand for the codec's default
+	 * @throws IllegalArgumentException if the codec has levels and the level is outside of their range
+	 */
+	public void checkLevel(int level) {
+		if (level < 0) {
+			return;
+		}
+		switch (this) {
+			case GZIP:
+				if (level < 1 || level > 9) {
+					throw new IllegalArgumentException("GZIP compression level must be between 1 and 9, got " + level);
+				}
+				break;
+			case ZSTD:
+				if (level < 1 || level > 22) {
+					throw new IllegalArgumentException("ZSTD compression level must be between 1 and 22, got " + level);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * @param out        stream to write the compressed data to
+	 * @param level      compression level, or a negative value to use the codec's default (ignored by TAR and LZ4)
+	 * @param longWindow whether to enable zstd's long distance matching (ignored by other codecs)
+	 */
+	public OutputStream compress(OutputStream out, int level, boolean longWindow) throws IOException {
+		switch (this) {
+			case GZIP:
+				GzipParameters parameters = new GzipParameters();
+				if (level >= 0) {
+					parameters.setCompressionLevel(level);
+				}
+				return new GzipCompressorOutputStream(out, parameters);
+			case ZSTD:
+				ZstdOutputStream zstdOut = level >= 0 ? new ZstdOutputStream(out, level) : new ZstdOutputStream(out);
+				if (longWindow) {
+					zstdOut.setLong(ZSTD_LONG_WINDOW_LOG);
+				}
+				return zstdOut;
+			case LZ4:
+				return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB);
+			case TAR:
+			default:
+				return out;
+		}
+	}
+
+	/**
+	 * @return rough amount of memory the compressor needs while writing an archive
+	 */
+	public long estimateMemory(int level, boolean longWindow) {
+		switch (this) {
+			case GZIP:
+				return 1024L * 1024;
+			case ZSTD:
+				if (longWindow) {
+					return (3L << ZSTD_LONG_WINDOW_LOG) / 2;
+				}
+				return level >= 10 ? 64L * 1024 * 1024 : 16L * 1024 * 1024;
+			case LZ4:
+				return 16L * 1024 * 1024;
+			case TAR:
+			default:
+				return 256L * 1024;
+		}
+	}
+
+	public InputStream decompress(InputStream in) throws IOException {
+		switch (this) {
+			case GZIP:
+				return new GzipCompressorInputStream(in);
+			case ZSTD:
+				return new ZstdInputStream(in);
+			case LZ4:
+				return new LZ4FrameInputStream(in);
+			case TAR:
+			default:
+				return in;
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.inventivetalent.minetile.deployer;
+
+/**
+ * Position of a chunk that is being copied, passed to every {@link ChunkTransformer}
+ */
+public class ChunkContext {
+
+	private final RegionKind kind;
+	private final int        tileX;
+	private final int        tileZ;
+	private final int        sourceChunkX;
+	private final int        sourceChunkZ;
+	private final int        chunkX;
+	private final int        chunkZ;
+	private final boolean    halo;
+	private final String     dimension;
+
+	public ChunkContext(RegionKind kind, int tileX, int tileZ, int sourceChunkX, int sourceChunkZ, int chunkX, int chunkZ, boolean halo) {
+		this(kind, "", tileX, tileZ, sourceChunkX, sourceChunkZ, chunkX, chunkZ, halo);
+	}
+
+	public ChunkContext(RegionKind kind, String dimension, int tileX, int tileZ, int sourceChunkX, int sourceChunkZ, int chunkX, int chunkZ, boolean halo) {
+		this.kind = kind;
+		this.dimension = dimension;
+		this.tileX = tileX;
+		this.tileZ = tileZ;
+		this.sourceChunkX = sourceChunkX;
+		this.sourceChunkZ = sourceChunkZ;
+		this.chunkX = chunkX;
+		this.chunkZ = chunkZ;
+		this.halo = halo;
+	}
+
+	/* kind of region folder the chunk is stored in */
+	public RegionKind getKind() {
+		return kind;
+	}
+
+	/* directory of the chunk's dimension relative to the world, see RegionFolder#getDimension() */
+	public String getDimension() {
+		return dimension;
+	}
+
+	/* X-coordinate of the tile this chunk is copied into */
+	public int getTileX() {
+		return tileX;
+	}
+
+	/* Z-coordinate of the tile this chunk is copied into */
+	public int getTileZ() {
+		return tileZ;
+	}
+
+	/* chunk X-coordinate in the source world */
+	public int getSourceChunkX() {
+		return sourceChunkX;
+	}
+
+	/* chunk Z-coordinate in the source world */
+	public int getSourceChunkZ() {
+		return sourceChunkZ;
+	}
+
+	/* chunk X-coordinate in the container world */
+	public int getChunkX() {
+		return chunkX;
+	}
+
+	/* chunk Z-coordinate in the container world */
+	public int getChunkZ() {
+		return chunkZ;
+	}
+
+	/* whether the chunk lies in the halo around the tile, i.e. is only loaded for view distance and not played in */
+	public boolean isHalo() {
+		return halo;
+	}
+
+	/* amount of blocks to add to X-coordinates when moving from the source world into the container */
+	public int getBlockShiftX() {
+		return (chunkX - sourceChunkX) * 16;
+	}
+
+	/* amount of blocks to add to Z-coordinates when moving from the source world into the container */
+	public int getBlockShiftZ() {
+		return (chunkZ - sourceChunkZ) * 16;
+	}
+
+}
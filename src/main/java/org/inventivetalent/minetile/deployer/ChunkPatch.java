@@ -0,0 +1,183 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Changes between two deployments of a single container, created by {@link DeployDiff} and applied with {@link PatchApplier}.
+ * <p>
+ * Region files are patched per chunk: changed chunks are stored as their compressed region record, so applying a patch never re-compresses anything.
+ * Other files of the container are replaced as a whole. Every operation carries the CRC32 of the data it expects to replace, a patch is only applied if all of them match.
+ * <p>
+ * File layout: <code>MTPATCH</code>, version byte, container name, operations, {@link #OP_END}.
+ */
+public class ChunkPatch {
+
+	static final String EXTENSION = ".mtpatch";
+
+	private static final byte[] MAGIC   = { 'M', 'T', 'P', 'A', 'T', 'C', 'H' };
+	private static final int    VERSION = 1;
+
+	static final int OP_END          = 0;
+	static final int OP_PUT_CHUNK    = 1;
+	static final int OP_DELETE_CHUNK = 2;
+	static final int OP_PUT_FILE     = 3;
+	static final int OP_DELETE_FILE  = 4;
+
+	private static final int MAX_CHUNK_BYTES = 255 * 4096;// a chunk can't span more sectors than a region file allows
+
+	private final String          container;
+	private final List<Operation> operations = new ArrayList<>();
+
+	public ChunkPatch(String container) {
+		this.container = container;
+	}
+
+	public String getContainer() {
+		return container;
+	}
+
+	public List<Operation> getOperations() {
+		return operations;
+	}
+
+	public boolean isEmpty() {
+		return operations.isEmpty();
+	}
+
+	/**
+	 * @param path      region file, relative to the container directory
+	 * @param slot      chunk slot (x + z * 32)
+	 * @param base      raw record the chunk currently has, or <code>null</code> if it doesn't exist yet
+	 * @param raw       new raw record (compression byte followed by the compressed data)
+	 * @param timestamp new chunk timestamp
+	 */
+	public void putChunk(String path, int slot, byte[] base, byte[] raw, int timestamp) {
+		operations.add(new Operation(OP_PUT_CHUNK, path, slot, base != null, crc(base), raw, timestamp));
+	}
+
+	public void deleteChunk(String path, int slot, byte[] base) {
+		operations.add(new Operation(OP_DELETE_CHUNK, path, slot, true, crc(base), null, 0));
+	}
+
+	public void putFile(String path, byte[] base, byte[] content) {
+		operations.add(new Operation(OP_PUT_FILE, path, 0, base != null, crc(base), content, 0));
+	}
+
+	public void deleteFile(String path, byte[] base) {
+		operations.add(new Operation(OP_DELETE_FILE, path, 0, true, crc(base), null, 0));
+	}
+
+	/* total size of the chunk and file data in this patch */
+	public long getDataSize() {
+		long size = 0;
+		for (Operation operation : operations) {
+			if (operation.data != null) {
+				size += operation.data.length;
+			}
+		}
+		return size;
+	}
+
+	public void write(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			out.writeUTF(container);
+			for (Operation operation : operations) {
+				out.writeByte(operation.type);
+				out.writeUTF(operation.path);
+				if (operation.type == OP_PUT_CHUNK || operation.type == OP_DELETE_CHUNK) {
+					out.writeShort(operation.slot);
+				}
+				out.writeBoolean(operation.hasBase);
+				out.writeInt(operation.baseCrc);
+				if (operation.type == OP_PUT_CHUNK) {
+					out.writeInt(operation.timestamp);
+				}
+				if (operation.type == OP_PUT_CHUNK || operation.type == OP_PUT_FILE) {
+					out.writeInt(operation.data.length);
+					out.write(operation.data);
+				}
+			}
+			out.writeByte(OP_END);
+		}
+	}
+
+	public static ChunkPatch read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i]) {
+					throw new IOException(file + " is not a chunk patch");
+				}
+			}
+			int version = in.readUnsignedByte();
+			if (version != VERSION) {
+				throw new IOException("Unsupported patch version " + version + " in " + file);
+			}
+
+			ChunkPatch patch = new ChunkPatch(in.readUTF());
+			int type;
+			while ((type = in.readUnsignedByte()) != OP_END) {
+				if (type > OP_DELETE_FILE) {
+					throw new IOException("Unknown patch operation " + type + " in " + file);
+				}
+				String path = in.readUTF();
+				int slot = type == OP_PUT_CHUNK || type == OP_DELETE_CHUNK ? in.readUnsignedShort() : 0;
+				boolean hasBase = in.readBoolean();
+				int baseCrc = in.readInt();
+				int timestamp = type == OP_PUT_CHUNK ? in.readInt() : 0;
+				byte[] data = null;
+				if (type == OP_PUT_CHUNK || type == OP_PUT_FILE) {
+					// checked before allocating, a corrupt or truncated patch shouldn't take the whole heap
+					int length = in.readInt();
+					if (type == OP_PUT_CHUNK ? length < 1 || length > MAX_CHUNK_BYTES : length < 0 || length > file.length()) {
+						throw new IOException("Invalid data length " + length + " for " + path + " in " + file);
+					}
+					data = new byte[length];
+					in.readFully(data);
+				}
+				patch.operations.add(new Operation(type, path, slot, hasBase, baseCrc, data, timestamp));
+			}
+			return patch;
+		}
+	}
+
+	static int crc(byte[] data) {
+		if (data == null) {
+			return 0;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+
+	public static class Operation {
+		final int     type;
+		final String  path;
+		final int     slot;
+		final boolean hasBase;// false: the chunk/file must not exist yet
+		final int     baseCrc;
+		final byte[]  data;
+		final int     timestamp;
+
+		Operation(int type, String path, int slot, boolean hasBase, int baseCrc, byte[] data, int timestamp) {
+			this.type = type;
+			this.path = path;
+			this.slot = slot;
+			this.hasBase = hasBase;
+			this.baseCrc = baseCrc;
+			this.data = data;
+			this.timestamp = timestamp;
+		}
+
+		public boolean isChunk() {
+			return type == OP_PUT_CHUNK || type == OP_DELETE_CHUNK;
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Content-addressed store for the chunks of a deployment, so chunks that are the same in several containers or deployments are only written and transferred once.
+ * <p>
+ * Every object is named by the SHA-256 of its content and is already laid out the way it appears in a region file: a chunk is its length, compression type and data padded to whole sectors,
+ * a region header is the offset and timestamp tables for chunks placed one after another from sector 2 on.
+ * So a region file is just its header object followed by its chunk objects, and a container only needs a {@link #MANIFEST_NAME} listing them, one region per line:
+ * <code>path header chunk chunk ...</code> with objects given as <code>ab/abcdef...</code> relative to the store.
+ * The init script of the container assembles the region files with <code>cat</code>.
+ * <p>
+ * Chunks keep the timestamps of the source world, so an unchanged region gives the same objects in the next deployment.
+ * Chunks are relocated for every tile, so a halo chunk is usually a different object in each neighbour.
+ */
+public class ChunkStore {
+
+	static final String DIRECTORY_NAME = "chunks";
+	static final String MANIFEST_NAME  = "chunks.manifest";
+
+	private static final int SECTOR_BYTES      = 4096;
+	private static final int VERSION_DEFLATE   = 2;
+	private static final int MAX_CHUNK_SECTORS = 255;
+
+	private final File        directory;
+	private final Set<String> known = ConcurrentHashMap.newKeySet();// objects that are known to exist
+
+	final AtomicLong chunks       = new AtomicLong();// chunks referenced by the manifests
+	final AtomicLong written      = new AtomicLong();// new objects
+	final AtomicLong writtenBytes = new AtomicLong();
+	final AtomicLong reused       = new AtomicLong();// objects that already existed
+
+	/* called for every new object file, e.g. to upload it */
+	private volatile ObjectListener listener;
+
+	public ChunkStore(File directory) {
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	void setListener(ObjectListener listener) {
+		this.listener = listener;
+	}
+
+	/* object path relative to the store */
+	static String objectPath(String hash) {
+		return hash.substring(0, 2) + "/" + hash;
+	}
+
+	File getObjectFile(String hash) {
+		return new File(directory, objectPath(hash));
+	}
+
+	/**
+	 * Stores an object unless it exists already
+	 *
+	 * @return the hash of the data
+	 */
+	String put(byte[] data) throws IOException {
+		String hash = S3Client.hex(S3Client.sha256(data, -1));
+		if (known.contains(hash)) {
+			reused.incrementAndGet();
+			return hash;
+		}
+		File file = getObjectFile(hash);
+		if (file.exists()) {
+			known.add(hash);
+			reused.incrementAndGet();
+			return hash;
+		}
+		File parent = file.getParentFile();
+		parent.mkdirs();
+		// several tiles can write the same object at the same time, each uses its own partial file
+		File partial = new File(parent, hash + "." + Thread.currentThread().getId() + Deployer.PARTIAL_SUFFIX);
+		IoThrottle.operation();
+		IoThrottle.write(data.length);
+		try (OutputStream out = new FileOutputStream(partial)) {
+			out.write(data);
+		}
+		Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		known.add(hash);
+		written.incrementAndGet();
+		writtenBytes.addAndGet(data.length);
+		ObjectListener listener = this.listener;
+		if (listener != null) {
+			listener.stored(file, DIRECTORY_NAME + "/" + objectPath(hash));
+		}
+		return hash;
+	}
+
+	Region region() {
+		return new Region();
+	}
+
+	/**
+	 * Assembles a region file from a manifest line the same way the init script does
+	 *
+	 * @return the region path of the line
+	 */
+	String assemble(String manifestLine, File target) throws IOException {
+		String[] parts = manifestLine.trim().split(" ");
+		try (OutputStream out = new FileOutputStream(target)) {
+			for (int i = 1; i < parts.length; i++) {
+				Files.copy(new File(directory, parts[i]).toPath(), out);
+			}
+		}
+		return parts[0];
+	}
+
+	static List<String> readManifest(File file) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					lines.add(line);
+				}
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * The chunks of one region file, in the order they are added
+	 */
+	class Region {
+		private final int[]        slots      = new int[1024];
+		private final int[]        sectors    = new int[1024];
+		private final int[]        timestamps = new int[1024];
+		private final List<String> hashes     = new ArrayList<>();
+
+		private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(64 * 1024);
+
+		/**
+		 * Compresses and stores a chunk
+		 *
+		 * @param slot      x + z * 32
+		 * @param nbt       uncompressed chunk data
+		 * @param timestamp timestamp for the region header
+		 * @return whether the chunk was stored, <code>false</code> if it's larger than a region file allows
+		 */
+		boolean add(int slot, ByteArrayOutputStream nbt, int timestamp) throws IOException {
+			compressed.reset();
+			try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+				nbt.writeTo(out);
+			}
+			int length = compressed.size() + RegionFile.CHUNK_HEADER_SIZE;
+			int sectorCount = (length + SECTOR_BYTES - 1) / SECTOR_BYTES;
+			if (sectorCount > MAX_CHUNK_SECTORS) {
+				Log.warn("Chunk in slot {} is too large ({} bytes), it will be missing from the region", slot, length);
+				return false;
+			}
+			ByteBuffer object = ByteBuffer.allocate(sectorCount * SECTOR_BYTES);
+			object.putInt(compressed.size() + 1);
+			object.put((byte) VERSION_DEFLATE);
+			object.put(compressed.toByteArray());
+
+			int index = hashes.size();
+			slots[index] = slot;
+			sectors[index] = sectorCount;
+			timestamps[index] = timestamp;
+			hashes.add(put(object.array()));
+			chunks.incrementAndGet();
+			return true;
+		}
+
+		/**
+		 * Stores the header for the chunks added so far
+		 *
+		 * @param path path of the region file in the container
+		 * @return the manifest line, <code>null</code> if no chunks were added, since an empty region doesn't need a file
+		 */
+		String finish(String path) throws IOException {
+			if (hashes.isEmpty()) {
+				return null;
+			}
+			ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES * 2);
+			int sector = 2;
+			for (int i = 0; i < hashes.size(); i++) {
+				header.putInt(slots[i] * 4, sector << 8 | sectors[i]);
+				header.putInt(SECTOR_BYTES + slots[i] * 4, timestamps[i]);
+				sector += sectors[i];
+			}
+			StringBuilder line = new StringBuilder(path).append(' ').append(objectPath(put(header.array())));
+			for (String hash : hashes) {
+				line.append(' ').append(objectPath(hash));
+			}
+			return line.toString();
+		}
+	}
+
+	interface ObjectListener {
+		void stored(File file, String key);
+	}
+
+}
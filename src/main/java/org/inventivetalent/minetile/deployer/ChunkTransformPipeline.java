@@ -0,0 +1,173 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.inventivetalent.nbt.CompoundTag;
+import org.inventivetalent.nbt.NBTTag;
+import org.inventivetalent.nbt.stream.NBTInputStream;
+import org.inventivetalent.nbt.stream.NBTOutputStream;
+
+import java.io.*;
+import java.util.*;
+
+import static org.inventivetalent.minetile.deployer.NBTStreams.*;
+
+/**
+ * Runs a list of {@link ChunkTransformer}s over a chunk in a single pass.
+ * <p>
+ * The uncompressed chunk NBT is streamed from input to output. Only the tags any transformer declared in {@link ChunkTransformer#getTouchedTags(RegionKind)} are decoded into tag objects, all other subtrees (usually the large <code>Sections</code>) are copied through byte by byte.
+ */
+public class ChunkTransformPipeline {
+
+	private final RegionKind             kind;
+	private final List<ChunkTransformer> transformers;
+	private final Set<String>            touchedTags;// null = decode everything
+
+	/**
+	 * @param kind         kind of region folder the chunks come from, transformers that don't apply to it are left out
+	 * @param transformers all enabled transformers, in the order they run
+	 */
+	public ChunkTransformPipeline(RegionKind kind, List<ChunkTransformer> transformers) {
+		this.kind = kind;
+		this.transformers = new ArrayList<>();
+		for (ChunkTransformer transformer : transformers) {
+			if (transformer.appliesTo(kind)) {
+				this.transformers.add(transformer);
+			}
+		}
+
+		this.touchedTags = collectTouchedTags(kind, this.transformers);
+	}
+
+	static Set<String> collectTouchedTags(RegionKind kind, List<ChunkTransformer> transformers) {
+		Set<String> touched = new HashSet<>();
+		for (ChunkTransformer transformer : transformers) {
+			Set<String> tags = transformer.getTouchedTags(kind);
+			if (tags == null) {
+				return null;
+			}
+			touched.addAll(tags);
+		}
+		return touched;
+	}
+
+	public RegionKind getKind() {
+		return kind;
+	}
+
+	public List<ChunkTransformer> getTransformers() {
+		return Collections.unmodifiableList(transformers);
+	}
+
+	/**
+	 * @param context chunk position passed to the transformers
+	 * @param in      uncompressed chunk NBT
+	 * @param out     destination for the transformed, uncompressed chunk NBT
+	 */
+	public void transform(ChunkContext context, DataInputStream in, DataOutputStream out) throws Exception {
+		byte[] buffer = new byte[8192];
+
+		// usually all transformers run, otherwise only decode what the ones running on this chunk need
+		List<ChunkTransformer> active = transformers;
+		Set<String> touched = touchedTags;
+		for (ChunkTransformer transformer : transformers) {
+			if (!transformer.appliesTo(context)) {
+				active = new ArrayList<>();
+				for (ChunkTransformer t : transformers) {
+					if (t.appliesTo(context)) {
+						active.add(t);
+					}
+				}
+				touched = collectTouchedTags(kind, active);
+				break;
+			}
+		}
+
+		int rootType = in.readUnsignedByte();
+		if (rootType != TAG_COMPOUND) {
+			throw new IOException("Chunk root tag is not a compound (type " + rootType + ")");
+		}
+		out.writeByte(rootType);
+		out.writeUTF(in.readUTF());
+
+		CompoundTag rootData = new CompoundTag();
+		boolean hasLevel = false;
+
+		int type;
+		while ((type = in.readUnsignedByte()) != TAG_END) {
+			String name = in.readUTF();
+			if (type == TAG_COMPOUND && "Level".equals(name) && !hasLevel) {
+				// pre-1.18 chunk, the data lives inside the Level compound
+				hasLevel = true;
+				out.writeByte(type);
+				out.writeUTF(name);
+				CompoundTag levelData = new CompoundTag("Level");
+				streamCompound(in, out, levelData, touched, buffer);
+				applyTransformers(active, context, levelData);
+				writeChildren(out, levelData);
+				out.writeByte(TAG_END);
+			} else if (isTouched(touched, name)) {
+				rootData.set(name, readTag(type, name, in, buffer));
+			} else {
+				out.writeByte(type);
+				out.writeUTF(name);
+				copyPayload(type, in, out, buffer);
+			}
+		}
+
+		if (!hasLevel) {
+			applyTransformers(active, context, rootData);
+		}
+		writeChildren(out, rootData);
+		out.writeByte(TAG_END);
+	}
+
+	/* copy untouched children of the compound currently being read, collect the touched ones in target */
+	static void streamCompound(DataInputStream in, DataOutputStream out, CompoundTag target, Set<String> touched, byte[] buffer) throws IOException {
+		int type;
+		while ((type = in.readUnsignedByte()) != TAG_END) {
+			String name = in.readUTF();
+			if (isTouched(touched, name)) {
+				target.set(name, readTag(type, name, in, buffer));
+			} else {
+				out.writeByte(type);
+				out.writeUTF(name);
+				copyPayload(type, in, out, buffer);
+			}
+		}
+	}
+
+	static void applyTransformers(List<ChunkTransformer> transformers, ChunkContext context, CompoundTag data) throws Exception {
+		for (ChunkTransformer transformer : transformers) {
+			transformer.transform(context, data);
+		}
+	}
+
+	static boolean isTouched(Set<String> touched, String name) {
+		return touched == null || touched.contains(name);
+	}
+
+	/* decode a single tag whose type and name were already read */
+	static NBTTag<?> readTag(int type, String name, DataInputStream in, byte[] buffer) throws IOException {
+		ByteArrayOutputStream tagBytes = new ByteArrayOutputStream();
+		DataOutputStream tagOut = new DataOutputStream(tagBytes);
+		tagOut.writeByte(type);
+		tagOut.writeUTF(name);
+		copyPayload(type, in, tagOut, buffer);
+		try (NBTInputStream nbtIn = new NBTInputStream(new ByteArrayInputStream(tagBytes.toByteArray()))) {
+			return nbtIn.readNBTTag();
+		}
+	}
+
+	static void writeChildren(DataOutputStream out, CompoundTag compound) throws IOException {
+		if (compound.getValue().isEmpty()) {
+			return;
+		}
+		ByteArrayOutputStream tagBytes = new ByteArrayOutputStream();
+		try (NBTOutputStream nbtOut = new NBTOutputStream(tagBytes)) {
+			for (NBTTag<?> tag : compound.getValue().values()) {
+				nbtOut.writeTag(tag);
+			}
+		}
+		tagBytes.writeTo(out);
+	}
+
+}
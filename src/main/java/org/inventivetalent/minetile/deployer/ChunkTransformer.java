@@ -0,0 +1,54 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.inventivetalent.nbt.CompoundTag;
+
+import java.util.Set;
+
+/**
+ * Modifies chunk data while it is being copied into a container.
+ * <p>
+ * All transformers of a deployment run in a single pass over each chunk (see {@link ChunkTransformPipeline}). Implementations are discovered through {@link java.util.ServiceLoader} (<code>META-INF/services/org.inventivetalent.minetile.deployer.ChunkTransformer</code>) and enabled by name with <code>--transformers</code>.
+ */
+public interface ChunkTransformer {
+
+	/**
+	 * @return name used to enable this transformer on the command line
+	 */
+	String getName();
+
+	/**
+	 * Names of the tags this transformer reads or writes, relative to the chunk's data compound (<code>Level</code> for pre-1.18 chunks, the root compound otherwise).
+	 * Only these tags are decoded and handed to {@link #transform(ChunkContext, CompoundTag)}, everything else is copied through without being parsed.
+	 *
+	 * @return the touched tag names, or <code>null</code> if the transformer needs the whole compound
+	 */
+	Set<String> getTouchedTags();
+
+	/**
+	 * Touched tags for chunks of the given kind of region folder, see {@link #getTouchedTags()}
+	 */
+	default Set<String> getTouchedTags(RegionKind kind) {
+		return getTouchedTags();
+	}
+
+	/**
+	 * @return whether this transformer runs on chunks from region folders of the given kind, by default only terrain chunks are transformed
+	 */
+	default boolean appliesTo(RegionKind kind) {
+		return kind == RegionKind.TERRAIN;
+	}
+
+	/**
+	 * Whether to run on a particular chunk. The touched tags of transformers that skip a chunk are not decoded for it
+	 */
+	default boolean appliesTo(ChunkContext context) {
+		return true;
+	}
+
+	/**
+	 * @param context kind and position of the chunk in the source world and in the container
+	 * @param data    compound containing the decoded touched tags (as far as they exist in the chunk). Tags can be modified, added or removed, the compound's contents are written back after all transformers ran
+	 */
+	void transform(ChunkContext context, CompoundTag data) throws Exception;
+
+}
@@ -0,0 +1,218 @@
+package org.inventivetalent.minetile.deployer;
+
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares a new deployment with a previous one and writes a {@link ChunkPatch} per changed container, so updates can be shipped without sending whole worlds again
+ */
+@CommandLine.Command(name = "diff",
+					 description = "Create chunk-level patches between a previous and a new deployment",
+					 mixinStandardHelpOptions = true,
+					 showDefaultValues = true)
+public class DeployDiff implements Callable<Boolean> {
+
+	private static final int SECTOR_BYTES = 4096;
+
+	@CommandLine.Option(names = { "--old" },
+						paramLabel = "FILE",
+						required = true,
+						description = "Output Directory of the previous deployment")
+	private File oldOutput;
+
+	@CommandLine.Option(names = { "--new" },
+						paramLabel = "FILE",
+						description = "Output Directory of the new deployment")
+	private File newOutput = new File("./deploy");
+
+	@CommandLine.Option(names = { "-p", "--patches" },
+						paramLabel = "FILE",
+						description = "Directory to write the patch files to")
+	private File patchDir = new File("./patches");
+
+	@CommandLine.Option(names = { "--threads" },
+						description = "Number of containers to compare at the same time")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@Override
+	public Boolean call() throws Exception {
+		File oldContainers = new File(oldOutput, "containers");
+		File newContainers = new File(newOutput, "containers");
+		if (!oldContainers.isDirectory() || !newContainers.isDirectory()) {
+			Log.error("Both deployments need a containers directory (archived containers have to be unpacked first)");
+			return false;
+		}
+		patchDir.mkdirs();
+
+		Map<String, File> oldDirs = new TreeMap<>();
+		Map<String, File> newDirs = new TreeMap<>();
+		findContainers(oldContainers, "", oldDirs, 0);
+		findContainers(newContainers, "", newDirs, 0);
+
+		long start = System.nanoTime();
+		AtomicLong patchBytes = new AtomicLong();
+		AtomicLong changedChunks = new AtomicLong();
+		Map<String, String> results = new ConcurrentSkipListMap<>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Map.Entry<String, File> entry : newDirs.entrySet()) {
+				String name = entry.getKey();
+				File oldDir = oldDirs.get(name);// null: new container, the patch contains everything
+				futures.add(executor.submit(() -> {
+					try {
+						ChunkPatch patch = diffContainer(name, oldDir, entry.getValue());
+						if (patch.isEmpty()) {
+							results.put(name, "unchanged");
+							return;
+						}
+						File patchFile = new File(patchDir, name.replace('/', '_') + ChunkPatch.EXTENSION);
+						patch.write(patchFile);
+						patchBytes.addAndGet(patchFile.length());
+						long chunks = patch.getOperations().stream().filter(ChunkPatch.Operation::isChunk).count();
+						changedChunks.addAndGet(chunks);
+						results.put(name, (oldDir == null ? "new, " : "") + chunks + " chunks, " + (patch.getOperations().size() - chunks) + " files, " + ArchiveBenchmark.humanBytes(patchFile.length()));
+					} catch (IOException e) {
+						results.put(name, "FAILED: " + e);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		boolean failed = false;
+		for (Map.Entry<String, String> result : results.entrySet()) {
+			Log.info("{}: {}", result.getKey(), result.getValue());
+			failed |= result.getValue().startsWith("FAILED");
+		}
+		for (String name : oldDirs.keySet()) {
+			if (!newDirs.containsKey(name)) {
+				Log.info("{}: removed in the new deployment", name);
+			}
+		}
+		Log.info("");
+		Log.info("{} changed chunks in {} of patches, written to {} in {}ms", changedChunks.get(), ArchiveBenchmark.humanBytes(patchBytes.get()), patchDir,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return !failed;
+	}
+
+	static void findContainers(File dir, String prefix, Map<String, File> containers, int depth) {
+		File[] children = dir.listFiles(File::isDirectory);
+		if (children == null) { return; }
+		for (File child : children) {
+			if (child.getName().endsWith(Deployer.PARTIAL_SUFFIX)) {
+				continue;
+			}
+			if (new File(child, "plugins/MineTileContainer/config.yml").exists()) {
+				containers.put(prefix + child.getName(), child);
+			} else if (depth == 0) {
+				// --perHostDirectories
+				findContainers(child, prefix + child.getName() + "/", containers, depth + 1);
+			}
+		}
+	}
+
+	ChunkPatch diffContainer(String name, File oldDir, File newDir) throws IOException {
+		ChunkPatch patch = new ChunkPatch(name);
+
+		Set<String> oldFiles = new TreeSet<>();
+		Set<String> newFiles = new TreeSet<>();
+		if (oldDir != null) {
+			listFiles(oldDir, "", oldFiles);
+		}
+		listFiles(newDir, "", newFiles);
+
+		for (String path : newFiles) {
+			File newFile = new File(newDir, path);
+			File oldFile = oldFiles.contains(path) ? new File(oldDir, path) : null;
+			if (isRegionFile(path)) {
+				diffRegion(patch, path, oldFile, newFile);
+			} else {
+				byte[] content = Files.readAllBytes(newFile.toPath());
+				byte[] base = oldFile != null ? Files.readAllBytes(oldFile.toPath()) : null;
+				if (base == null || !Arrays.equals(base, content)) {
+					patch.putFile(path, base, content);
+				}
+			}
+		}
+		for (String path : oldFiles) {
+			if (!newFiles.contains(path)) {
+				patch.deleteFile(path, Files.readAllBytes(new File(oldDir, path).toPath()));
+			}
+		}
+		return patch;
+	}
+
+	void diffRegion(ChunkPatch patch, String path, File oldFile, File newFile) throws IOException {
+		int[] newTimestamps = new int[1024];
+		byte[][] newChunks = readRawChunks(newFile, newTimestamps);
+		byte[][] oldChunks = oldFile != null ? readRawChunks(oldFile, null) : new byte[1024][];
+		for (int slot = 0; slot < 1024; slot++) {
+			if (newChunks[slot] != null) {
+				if (oldChunks[slot] == null || !Arrays.equals(oldChunks[slot], newChunks[slot])) {
+					patch.putChunk(path, slot, oldChunks[slot], newChunks[slot], newTimestamps[slot]);
+				}
+			} else if (oldChunks[slot] != null) {
+				patch.deleteChunk(path, slot, oldChunks[slot]);
+			}
+		}
+	}
+
+	static boolean isRegionFile(String path) {
+		int slash = path.lastIndexOf('/');
+		return DeployVerifier.REGION_NAME.matcher(path.substring(slash + 1)).matches();
+	}
+
+	static void listFiles(File dir, String prefix, Set<String> files) {
+		File[] children = dir.listFiles();
+		if (children == null) { return; }
+		for (File child : children) {
+			if (child.isDirectory()) {
+				listFiles(child, prefix + child.getName() + "/", files);
+			} else {
+				files.add(prefix + child.getName());
+			}
+		}
+	}
+
+	/**
+	 * Reads the raw records (compression byte followed by the compressed data) of all chunks of a region file without modifying it
+	 *
+	 * @param timestamps receives the chunk timestamps, may be <code>null</code>
+	 * @return records indexed by slot (x + z * 32), <code>null</code> for missing or invalid chunks
+	 */
+	static byte[][] readRawChunks(File regionFile, int[] timestamps) throws IOException {
+		byte[][] chunks = new byte[1024][];
+		byte[] bytes = Files.readAllBytes(regionFile.toPath());
+		if (bytes.length < SECTOR_BYTES * 2) {
+			return chunks;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		for (int slot = 0; slot < 1024; slot++) {
+			if (timestamps != null) {
+				timestamps[slot] = buffer.getInt(SECTOR_BYTES + slot * 4);
+			}
+			int offset = buffer.getInt(slot * 4);
+			if (offset == 0) { continue; }
+			long position = (long) (offset >>> 8) * SECTOR_BYTES;
+			if ((offset >>> 8) < 2 || position + 5 > bytes.length) { continue; }
+			int length = buffer.getInt((int) position);
+			if (length <= 1 || length + 4 > (offset & 0xFF) * SECTOR_BYTES || position + 4 + length > bytes.length) { continue; }
+			chunks[slot] = Arrays.copyOfRange(bytes, (int) position + 4, (int) position + 4 + length);
+		}
+		return chunks;
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Append-only record of started and committed tiles in the output directory, used to resume interrupted deployments.
+ * <p>
+ * Each line is <code>START|COMMIT|EMPTY|UPLOADED &lt;x&gt; &lt;z&gt; &lt;name&gt; [servers.csv entry]</code> (tab separated). Commits are forced to disk before they count, a torn last line (no trailing newline) is ignored when loading.
+ * <code>UPLOADED</code> follows the commit once the container is in the object store (--upload), committed containers without it are uploaded again when resuming.
+ */
+public class DeployJournal implements Closeable {
+
+	static final String FILE_NAME = "deploy.journal";
+
+	private static final String START    = "START";
+	private static final String COMMIT   = "COMMIT";
+	private static final String EMPTY    = "EMPTY";
+	private static final String UPLOADED = "UPLOADED";
+
+	private final File             file;
+	private final FileOutputStream out;
+
+	// commit order is kept so servers.csv is rebuilt in the same order
+	private final Map<String, String[]> committed   = new LinkedHashMap<>();
+	// committed containers that aren't known to be uploaded, as x, z and name
+	private final Map<String, String[]> notUploaded = new LinkedHashMap<>();
+
+	public DeployJournal(File outputDir, boolean resume) throws IOException {
+		this.file = new File(outputDir, FILE_NAME);
+		if (resume) {
+			load();
+		} else if (file.exists()) {
+			file.delete();
+		}
+		this.out = new FileOutputStream(file, true);
+	}
+
+	void load() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		String content = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+		String[] lines = content.split("\n", -1);
+		// the last element is either empty (complete file) or a torn write
+		for (int i = 0; i < lines.length - 1; i++) {
+			String[] parts = lines[i].split("\t");
+			if (parts.length < 4) {
+				continue;
+			}
+			String key = key(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+			if (COMMIT.equals(parts[0]) && parts.length >= 5) {
+				committed.put(key, parts[4].split(",", -1));
+				notUploaded.put(key, Arrays.copyOfRange(parts, 1, 4));
+			} else if (EMPTY.equals(parts[0])) {
+				committed.put(key, null);
+			} else if (UPLOADED.equals(parts[0])) {
+				notUploaded.remove(key);
+			}
+		}
+	}
+
+	public synchronized boolean isCommitted(int x, int z) {
+		return committed.containsKey(key(x, z));
+	}
+
+	public synchronized int getCommittedCount() {
+		return committed.size();
+	}
+
+	/**
+	 * @return servers.csv entries of the committed (non-empty) tiles, in commit order
+	 */
+	public synchronized List<String[]> getCommittedEntries() {
+		List<String[]> entries = new ArrayList<>();
+		for (String[] entry : committed.values()) {
+			if (entry != null) {
+				entries.add(entry);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * @return x, z and name of the committed containers that weren't confirmed as uploaded, in commit order
+	 */
+	public synchronized List<String[]> getNotUploaded() {
+		return new ArrayList<>(notUploaded.values());
+	}
+
+	public synchronized void start(int x, int z, String name) throws IOException {
+		append(START + "\t" + x + "\t" + z + "\t" + name, false);
+	}
+
+	/**
+	 * @param serverEntry servers.csv entry of the tile, or <code>null</code> if the tile was empty and no container was created
+	 */
+	public synchronized void commit(int x, int z, String name, String[] serverEntry) throws IOException {
+		if (serverEntry != null) {
+			append(COMMIT + "\t" + x + "\t" + z + "\t" + name + "\t" + String.join(",", serverEntry), true);
+			notUploaded.put(key(x, z), new String[] { String.valueOf(x), String.valueOf(z), name });
+		} else {
+			append(EMPTY + "\t" + x + "\t" + z + "\t" + name, true);
+		}
+		committed.put(key(x, z), serverEntry);
+	}
+
+	/* the committed container is completely in the object store */
+	public synchronized void uploaded(int x, int z, String name) throws IOException {
+		// not forced, a lost line only means the container is uploaded once more
+		append(UPLOADED + "\t" + x + "\t" + z + "\t" + name, false);
+		notUploaded.remove(key(x, z));
+	}
+
+	void append(String line, boolean sync) throws IOException {
+		out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+		if (sync) {
+			out.getChannel().force(false);
+		}
+	}
+
+	static String key(int x, int z) {
+		return x + "," + z;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+}
@@ -0,0 +1,58 @@
+package org.inventivetalent.minetile.deployer;
+
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Deploys again from the containers of an existing deployment instead of the source world, e.g. to change the tile size or the number of tiles without losing what players changed in the containers.
+ * <p>
+ * Chunks are streamed from the old container regions directly into the new ones and their coordinates are rewritten once, from the old container to the new one.
+ * All deploy options (<code>-o</code>, <code>--tileSize</code>, <code>-r</code>, ...) apply to the new deployment and go before <code>reshard</code>.
+ */
+@CommandLine.Command(name = "reshard",
+					 description = "Deploy again from the containers of an existing deployment instead of the source world (deploy options go before 'reshard')",
+					 mixinStandardHelpOptions = true,
+					 showDefaultValues = true)
+public class DeployResharder implements Callable<Boolean> {
+
+	@CommandLine.ParentCommand
+	private Deployer deployer;
+
+	@CommandLine.Option(names = { "--from" },
+						paramLabel = "FILE",
+						required = true,
+						description = "Output Directory of the existing deployment")
+	private File from;
+
+	@CommandLine.Option(names = { "--fromTileSize" },
+						description = "Tile size the existing deployment was created with (default: read from its router config)")
+	private int fromTileSize = 0;
+
+	@CommandLine.Option(names = { "--fromWorldName" },
+						paramLabel = "NAME",
+						description = "Name of the world directory in the existing containers (default: same as --worldName)")
+	private String fromWorldName;
+
+	@Override
+	public Boolean call() throws Exception {
+		if (from.getCanonicalFile().equals(deployer.getOutput().getCanonicalFile())) {
+			Log.error("The new deployment needs a different output directory than {}", from);
+			return false;
+		}
+		if (fromTileSize <= 0) {
+			fromTileSize = DeployVerifier.readRouterTileSize(new File(from, "bungee/plugins/MineTileRouter/config.yml"));
+		}
+		try {
+			deployer.shardedSource = ShardedWorld.load(from, fromWorldName != null ? fromWorldName : deployer.getWorldName(), fromTileSize);
+		} catch (IOException e) {
+			Log.error(e.getMessage());
+			return false;
+		}
+		Log.info("Resharding {} containers (tileSize {}) from {}", deployer.shardedSource.getContainers().size(), fromTileSize, from);
+		return deployer.call();
+	}
+
+}
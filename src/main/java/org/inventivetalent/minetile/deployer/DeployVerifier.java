@@ -0,0 +1,652 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.apache.commons.io.FileUtils;
+import org.yaml.snakeyaml.Yaml;
+import picocli.CommandLine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static org.inventivetalent.minetile.deployer.NBTStreams.*;
+
+/**
+ * Checks the region files (terrain, entities and POI of all dimensions) of a finished deployment: header/sector consistency, chunk decompression, chunk coordinates and chunk counts compared to the source world.
+ * Only container directories are checked, archived containers have to be unpacked first.
+ */
+@CommandLine.Command(name = "verify",
+					 description = "Verify the region files of a finished deployment (container directories only, archived containers are not checked)",
+					 mixinStandardHelpOptions = true,
+					 showDefaultValues = true)
+public class DeployVerifier implements Callable<Boolean> {
+
+	static final Pattern REGION_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+
+	private static final int SECTOR_BYTES = 4096;
+	private static final int MAX_PROBLEMS = 10;
+
+	@CommandLine.Option(names = { "-o", "--output" },
+						paramLabel = "FILE",
+						description = "Output Directory of the deployment to verify")
+	private File output = new File("./deploy");
+
+	@CommandLine.Option(names = { "-i", "--input" },
+						paramLabel = "FILE",
+						description = "Source world to compare chunk counts with (skipped if it doesn't exist)")
+	private File input = new File("./world");
+
+	@CommandLine.Option(names = { "--worldName" },
+						paramLabel = "NAME",
+						description = "Name of the world directory in the containers")
+	private String worldName = "world";
+
+	@CommandLine.Option(names = { "--tileSize" },
+						description = "Tile size the deployment was created with (default: read from the router config)")
+	private int tileSize = 0;
+
+	@CommandLine.Option(names = { "--haloChunks" },
+						description = "Halo width (in chunks) the deployment was created with (default: read from the router config)")
+	private int haloChunks = -1;
+
+	@CommandLine.Option(names = { "--chunkStore" },
+						paramLabel = "DIR",
+						description = "Chunk store to assemble the region files of --chunkStore containers from (default: the store set in each container's init.sh if it exists here, otherwise the one in the output directory)")
+	private File chunkStore;
+
+	@CommandLine.Option(names = { "--threads" },
+						description = "Number of threads to verify region files with")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private final List<File> assembledDirs = new ArrayList<>();// temporary worlds assembled from the chunk store
+
+	@Override
+	public Boolean call() throws Exception {
+		File containersDir = new File(output, "containers");
+		if (!containersDir.isDirectory()) {
+			Log.error("Containers directory {} not found", containersDir);
+			return false;
+		}
+		File routerConfig = new File(output, "bungee/plugins/MineTileRouter/config.yml");
+		if (tileSize <= 0) {
+			tileSize = readRouterTileSize(routerConfig);
+		}
+		if (haloChunks < 0) {
+			haloChunks = readRouterHaloChunks(routerConfig);
+			if (haloChunks < 0) {
+				Log.error("The deployment doesn't record its halo width, set it with --haloChunks");
+				return false;
+			}
+		}
+		List<RegionFolder> sourceFolders = input != null ? RegionFolder.discover(input) : null;
+		if (sourceFolders != null && sourceFolders.isEmpty()) {
+			Log.warn("Source world {} not found, won't compare chunk counts", input);
+			sourceFolders = null;
+		}
+
+		List<TileReport> tiles = new ArrayList<>();
+		findContainers(containersDir, tiles, 0);
+		int archives = countArchives(containersDir, 0);
+		if (archives > 0) {
+			Log.warn("{} archived containers are not checked, they have to be unpacked first", archives);
+		}
+		if (tiles.isEmpty()) {
+			Log.error("No container directories found in {}", containersDir);
+			return false;
+		}
+		Log.info("Verifying {} containers (tileSize {}, {} halo chunks) with {} threads...", tiles.size(), tileSize, haloChunks, threads);
+
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (TileReport tile : tiles) {
+				scheduleTile(tile, sourceFolders, executor, futures);
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+			assembledDirs.forEach(FileUtils::deleteQuietly);
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		boolean tableValid = true;
+		File tableFile = new File(output, "bungee/plugins/MineTileRouter/" + RouterTable.FILE_NAME);
+		if (tableFile.exists()) {
+			tableValid = checkRouterTable(tableFile, tiles);
+		}
+
+		int failed = 0;
+		long chunks = 0;
+		tiles.sort(Comparator.comparing(t -> t.name));
+		for (TileReport tile : tiles) {
+			chunks += tile.chunks.get();
+			if (tile.problems.isEmpty()) {
+				Log.info("PASS {} [{},{}] {} regions, {} chunks", tile.name, tile.x, tile.z, tile.regions.get(), tile.chunks.get());
+			} else {
+				failed++;
+				Log.info("FAIL {} [{},{}] {} regions, {} chunks, {} problems", tile.name, tile.x, tile.z, tile.regions.get(), tile.chunks.get(), tile.problems.size());
+				int shown = 0;
+				for (String problem : tile.problems) {
+					if (shown++ >= MAX_PROBLEMS) {
+						Log.info("     ... and {} more", tile.problems.size() - MAX_PROBLEMS);
+						break;
+					}
+					Log.info("     {}", problem);
+				}
+			}
+		}
+		Log.info("");
+		Log.info("{}/{} containers passed, {} chunks checked in {}ms", tiles.size() - failed, tiles.size(), chunks, millis);
+
+		if (failed > 0) {
+			throw new Main.CommandFailedException(failed + " containers failed verification", 2);
+		}
+		if (!tableValid) {
+			throw new Main.CommandFailedException("The router lookup table doesn't match the containers", 2);
+		}
+		return true;
+	}
+
+	/* every container has to be the server of its tile in the router's lookup table */
+	boolean checkRouterTable(File tableFile, List<TileReport> tiles) {
+		RouterTable table;
+		try {
+			table = RouterTable.read(tableFile);
+		} catch (IOException e) {
+			Log.error("Failed to read the router lookup table: {}", e.getMessage());
+			return false;
+		}
+		if (table.tileSize != tileSize) {
+			Log.error("Router lookup table was written for tileSize {}, not {}", table.tileSize, tileSize);
+			return false;
+		}
+		for (TileReport tile : tiles) {
+			int index = table.getServerIndex(tile.x, tile.z);
+			if (index == -1) {
+				tile.problem("tile is missing from the router lookup table");
+			} else if (!table.getServers().get(index).name.equals(tile.name)) {
+				tile.problem("router lookup table maps the tile to " + table.getServers().get(index).name);
+			}
+		}
+		if (table.getServers().size() != tiles.size()) {
+			Log.error("Router lookup table has {} servers for {} containers", table.getServers().size(), tiles.size());
+			return false;
+		}
+		Log.info("Router lookup table has {} servers on a {}x{} grid", table.getServers().size(), table.columns, table.rows);
+		return true;
+	}
+
+	void findContainers(File dir, List<TileReport> tiles, int depth) {
+		File[] children = dir.listFiles(File::isDirectory);
+		if (children == null) { return; }
+		for (File child : children) {
+			if (child.getName().endsWith(Deployer.PARTIAL_SUFFIX)) {
+				continue;
+			}
+			File config = new File(child, "plugins/MineTileContainer/config.yml");
+			if (config.exists()) {
+				tiles.add(new TileReport(child, config));
+			} else if (depth == 0) {
+				// --perHostDirectories
+				findContainers(child, tiles, depth + 1);
+			}
+		}
+	}
+
+	/* archives next to the container directories, which can't be checked without unpacking them */
+	int countArchives(File dir, int depth) {
+		File[] children = dir.listFiles();
+		if (children == null) { return 0; }
+		int count = 0;
+		for (File child : children) {
+			if (child.isDirectory()) {
+				if (depth == 0) {
+					count += countArchives(child, depth + 1);// --perHostDirectories
+				}
+				continue;
+			}
+			for (ArchiveCodec codec : ArchiveCodec.values()) {
+				if (child.getName().endsWith(codec.extension)) {
+					count++;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+	void scheduleTile(TileReport tile, List<RegionFolder> sourceFolders, ExecutorService executor, List<Future<?>> futures) {
+		try {
+			tile.readConfig();
+		} catch (Exception e) {
+			tile.problem("Failed to read container config: " + e);
+			return;
+		}
+
+		int tileSizeMca = (int) Math.ceil(tileSize / 32.0D);
+		int rx = tileSizeMca * 2 * tile.x;
+		int rz = tileSizeMca * 2 * tile.z;
+		TileArea area = new TileArea(tileSizeMca, haloChunks);
+
+		// check every region folder of the container, and every folder the source world has
+		File worldDir = new File(tile.dir, worldName);
+		File manifestFile = new File(tile.dir, ChunkStore.MANIFEST_NAME);
+		if (manifestFile.exists()) {
+			try {
+				worldDir = assembleRegions(manifestFile, findChunkStore(tile.dir));
+			} catch (IOException e) {
+				tile.problem("Failed to assemble the region files from the chunk store: " + e);
+				return;
+			}
+		}
+		Map<String, RegionKind> folders = new TreeMap<>();
+		for (RegionFolder folder : RegionFolder.discover(worldDir)) {
+			folders.put(folder.getPath(), folder.getKind());
+		}
+		if (sourceFolders != null) {
+			for (RegionFolder folder : sourceFolders) {
+				folders.put(folder.getPath(), folder.getKind());
+			}
+		}
+
+		File containerWorldDir = worldDir;
+		folders.forEach((path, kind) -> {
+			File regionDir = new File(containerWorldDir, path);
+			File sourceRegionDir = sourceFolders != null ? new File(input, path) : null;
+
+			Set<String> expected = new HashSet<>();
+			if (sourceRegionDir != null) {
+				for (int sx = area.getMinRegion(); sx <= area.getMaxRegion(); sx++) {
+					for (int sz = area.getMinRegion(); sz <= area.getMaxRegion(); sz++) {
+						if (new File(sourceRegionDir, "r." + (rx + sx) + "." + (rz + sz) + ".mca").exists()) {
+							expected.add("r." + sx + "." + sz + ".mca");
+						}
+					}
+				}
+			}
+
+			File[] regionFiles = regionDir.listFiles((d, n) -> REGION_NAME.matcher(n).matches());
+			if (regionFiles == null) {
+				regionFiles = new File[0];
+			}
+			for (File regionFile : regionFiles) {
+				expected.remove(regionFile.getName());
+				futures.add(executor.submit(() -> {
+					try {
+						verifyRegion(tile, kind, path, regionFile, sourceRegionDir, rx, rz, area);
+					} catch (Exception e) {
+						tile.problem(path + "/" + regionFile.getName() + ": " + e);
+					}
+				}));
+			}
+			for (String missing : expected) {
+				// a region without chunks in the tile's area doesn't get a file
+				Matcher matcher = REGION_NAME.matcher(missing);
+				matcher.matches();
+				int sx = Integer.parseInt(matcher.group(1));
+				int sz = Integer.parseInt(matcher.group(2));
+				try {
+					if (countChunks(new File(sourceRegionDir, "r." + (rx + sx) + "." + (rz + sz) + ".mca"), slot -> area.containsSlot(sx, sz, slot)) == 0) {
+						continue;
+					}
+				} catch (IOException e) {
+					tile.problem(path + "/" + missing + ": failed to read the source region: " + e);
+					continue;
+				}
+				tile.problem(path + "/" + missing + ": region exists in the source world but is missing");
+			}
+		});
+	}
+
+	/* the store a --chunkStore container assembles its regions from: the CHUNK_STORE of its init.sh (--scriptChunkStore), relative to the container */
+	File findChunkStore(File containerDir) {
+		if (chunkStore != null) {
+			return chunkStore;
+		}
+		File initScript = new File(containerDir, "init.sh");
+		if (initScript.exists()) {
+			try {
+				for (String line : Files.readAllLines(initScript.toPath(), StandardCharsets.UTF_8)) {
+					if (line.startsWith("CHUNK_STORE=\"") && line.endsWith("\"") && line.length() > 14) {
+						File store = new File(line.substring(13, line.length() - 1));
+						if (!store.isAbsolute()) {
+							store = new File(containerDir, store.getPath());
+						}
+						if (store.isDirectory()) {
+							return store;
+						}
+						break;
+					}
+				}
+			} catch (IOException e) {
+				Log.warn("Failed to read {}: {}", initScript, e.getMessage());
+			}
+		}
+		return new File(output, ChunkStore.DIRECTORY_NAME);
+	}
+
+	/* builds the region files of a --chunkStore container in a temporary world directory, like its init.sh does */
+	File assembleRegions(File manifestFile, File storeDirectory) throws IOException {
+		ChunkStore store = new ChunkStore(storeDirectory);
+		File worldDir = Files.createTempDirectory("minetile-verify").toFile();
+		assembledDirs.add(worldDir);
+		for (String line : ChunkStore.readManifest(manifestFile)) {
+			String path = line.substring(0, line.indexOf(' '));
+			if (!path.startsWith(worldName + "/")) {
+				continue;
+			}
+			File regionFile = new File(worldDir, path.substring(worldName.length() + 1));
+			regionFile.getParentFile().mkdirs();
+			store.assemble(line, regionFile);
+		}
+		return worldDir;
+	}
+
+	void verifyRegion(TileReport tile, RegionKind kind, String path, File regionFile, File sourceRegionDir, int rx, int rz, TileArea area) throws IOException {
+		Matcher matcher = REGION_NAME.matcher(regionFile.getName());
+		matcher.matches();
+		int sx = Integer.parseInt(matcher.group(1));
+		int sz = Integer.parseInt(matcher.group(2));
+		String prefix = path + "/" + regionFile.getName() + ": ";
+
+		int chunks = 0;
+		try (FileChannel channel = FileChannel.open(regionFile.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < SECTOR_BYTES * 2) {
+				tile.problem(prefix + "file is smaller than the region header (" + length + " bytes)");
+				return;
+			}
+			if (length % SECTOR_BYTES != 0) {
+				tile.problem(prefix + "file size " + length + " is not a multiple of " + SECTOR_BYTES);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			int sectorCount = (int) (length / SECTOR_BYTES);
+			BitSet usedSectors = new BitSet(sectorCount);
+			usedSectors.set(0, 2);
+
+			ChunkChecker checker = new ChunkChecker(kind);
+			for (int i = 0; i < 1024; i++) {
+				int offset = buffer.getInt(i * 4);
+				if (offset == 0) { continue; }
+				int cX = i % 32;
+				int cZ = i / 32;
+				String chunkPrefix = prefix + "chunk " + cX + "," + cZ + ": ";
+				if (!area.containsSlot(sx, sz, i)) {
+					tile.problem(chunkPrefix + "is outside of the tile and its " + area.getHaloChunks() + " chunk halo");
+				}
+
+				int sectorNumber = offset >>> 8;
+				int numSectors = offset & 0xFF;
+				if (numSectors == 0) {
+					tile.problem(chunkPrefix + "allocated 0 sectors");
+					continue;
+				}
+				if (sectorNumber < 2) {
+					tile.problem(chunkPrefix + "overlaps the region header (sector " + sectorNumber + ")");
+					continue;
+				}
+				if (sectorNumber + numSectors > sectorCount) {
+					tile.problem(chunkPrefix + "sectors " + sectorNumber + "+" + numSectors + " are outside of the file (" + sectorCount + " sectors)");
+					continue;
+				}
+				int overlap = usedSectors.nextSetBit(sectorNumber);
+				if (overlap != -1 && overlap < sectorNumber + numSectors) {
+					tile.problem(chunkPrefix + "sectors " + sectorNumber + "+" + numSectors + " overlap another chunk");
+				}
+				usedSectors.set(sectorNumber, sectorNumber + numSectors);
+
+				try {
+					checker.check(buffer, sectorNumber, numSectors);
+				} catch (IOException | DataFormatException e) {
+					tile.problem(chunkPrefix + e.getMessage());
+					continue;
+				}
+				int expectedX = sx * 32 + cX;
+				int expectedZ = sz * 32 + cZ;
+				if (checker.hasPosition && (checker.xPos != expectedX || checker.zPos != expectedZ)) {
+					tile.problem(chunkPrefix + "has position " + checker.xPos + "," + checker.zPos + ", expected " + expectedX + "," + expectedZ);
+				}
+				chunks++;
+			}
+		}
+		tile.regions.incrementAndGet();
+		tile.chunks.addAndGet(chunks);
+
+		if (sourceRegionDir != null) {
+			File sourceFile = new File(sourceRegionDir, "r." + (rx + sx) + "." + (rz + sz) + ".mca");
+			if (!sourceFile.exists()) {
+				tile.problem(prefix + "source region " + sourceFile.getName() + " does not exist");
+			} else {
+				int sourceChunks = countChunks(sourceFile, slot -> area.containsSlot(sx, sz, slot));
+				if (sourceChunks != chunks) {
+					tile.problem(prefix + "contains " + chunks + " chunks, source region " + sourceFile.getName() + " has " + sourceChunks);
+				}
+			}
+		}
+	}
+
+	static int countChunks(File regionFile) throws IOException {
+		return countChunks(regionFile, slot -> true);
+	}
+
+	/* count the chunks in the given slots (x + z * 32) */
+	static int countChunks(File regionFile, IntPredicate slotFilter) throws IOException {
+		try (FileChannel channel = FileChannel.open(regionFile.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < SECTOR_BYTES) { return 0; }
+			ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES);
+			while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+				// read the offset table
+			}
+			header.flip();
+			int count = 0;
+			for (int i = 0; i < 1024; i++) {
+				if (header.getInt(i * 4) != 0 && slotFilter.test(i)) { count++; }
+			}
+			return count;
+		}
+	}
+
+	/* read the tile coordinates [x, z] from a MineTileContainer config.yml */
+	static int[] readTileConfig(File containerConfig) throws IOException {
+		try (Reader reader = new FileReader(containerConfig)) {
+			Map<String, Object> data = new Yaml().load(reader);
+			Map<String, Object> tile = (Map<String, Object>) data.get("tile");
+			if (tile == null || !(tile.get("x") instanceof Number) || !(tile.get("z") instanceof Number)) {
+				throw new IOException("config has no tile section");
+			}
+			return new int[] { ((Number) tile.get("x")).intValue(), ((Number) tile.get("z")).intValue() };
+		}
+	}
+
+	static int readRouterTileSize(File routerConfig) {
+		Number tileSize = readRouterDefault(routerConfig, "tileSize");
+		return tileSize != null ? tileSize.intValue() : 16;
+	}
+
+	/* -1 for deployments from before the halo width was recorded */
+	static int readRouterHaloChunks(File routerConfig) {
+		Number haloChunks = readRouterDefault(routerConfig, "haloChunks");
+		return haloChunks != null ? haloChunks.intValue() : -1;
+	}
+
+	static Number readRouterDefault(File routerConfig, String name) {
+		if (routerConfig.exists()) {
+			try (Reader reader = new FileReader(routerConfig)) {
+				Map<String, Object> config = new Yaml().load(reader);
+				Map<String, Object> defaults = (Map<String, Object>) config.get("defaults");
+				if (defaults != null && defaults.get(name) instanceof Number) {
+					return (Number) defaults.get(name);
+				}
+			} catch (IOException e) {
+				Log.error("Failed to read router config", e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decompresses a chunk into a reused buffer and reads its position, one instance per region file
+	 */
+	static class ChunkChecker {
+
+		private final Inflater inflater   = new Inflater();
+		private       byte[]   compressed = new byte[SECTOR_BYTES * 4];
+		private       byte[]   data       = new byte[SECTOR_BYTES * 16];
+
+		final RegionKind kind;
+
+		boolean hasPosition;
+		int     xPos;
+		int     zPos;
+
+		ChunkChecker(RegionKind kind) {
+			this.kind = kind;
+		}
+
+		void check(ByteBuffer region, int sectorNumber, int numSectors) throws IOException, DataFormatException {
+			int position = sectorNumber * SECTOR_BYTES;
+			int length = region.getInt(position);
+			if (length <= 1 || length + 4 > numSectors * SECTOR_BYTES) {
+				throw new IOException("invalid chunk length " + length + " for " + numSectors + " sectors");
+			}
+			int version = region.get(position + 4);
+			int compressedLength = length - 1;
+			if (compressed.length < compressedLength) {
+				compressed = new byte[compressedLength];
+			}
+			ByteBuffer slice = region.duplicate();
+			slice.position(position + 5);
+			slice.get(compressed, 0, compressedLength);
+
+			int dataLength;
+			if (version == 2) {
+				dataLength = inflate(compressedLength);
+			} else if (version == 1) {
+				dataLength = gunzip(compressedLength);
+			} else if (version == 3) {
+				dataLength = compressedLength;
+				data = compressed.clone();
+			} else {
+				throw new IOException("unknown compression type " + version);
+			}
+			readPosition(new DataInputStream(new ByteArrayInputStream(data, 0, dataLength)));
+		}
+
+		int inflate(int compressedLength) throws DataFormatException {
+			inflater.reset();
+			inflater.setInput(compressed, 0, compressedLength);
+			int total = 0;
+			while (!inflater.finished()) {
+				if (total == data.length) {
+					data = Arrays.copyOf(data, data.length * 2);
+				}
+				int n = inflater.inflate(data, total, data.length - total);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("truncated zlib data");
+				}
+				total += n;
+			}
+			return total;
+		}
+
+		int gunzip(int compressedLength) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+			try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed, 0, compressedLength))) {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+				}
+			}
+			data = out.toByteArray();
+			return data.length;
+		}
+
+		/* find xPos/zPos in the Level compound (or the root compound for 1.18+ chunks), or the Position of entity chunks. POI chunks store no position */
+		void readPosition(DataInputStream in) throws IOException {
+			boolean foundX = false;
+			boolean foundZ = false;
+			hasPosition = kind != RegionKind.POI;
+			if (in.readUnsignedByte() != TAG_COMPOUND) {
+				throw new IOException("root tag is not a compound");
+			}
+			in.readUTF();
+			if (!hasPosition) {
+				skipPayload(TAG_COMPOUND, in);
+				return;
+			}
+			int type;
+			while ((type = in.readUnsignedByte()) != TAG_END) {
+				String name = in.readUTF();
+				if (type == TAG_COMPOUND && "Level".equals(name)) {
+					continue;// descend into Level, its children follow directly
+				}
+				if (type == TAG_INT_ARRAY && "Position".equals(name) && kind == RegionKind.ENTITIES) {
+					if (in.readInt() != 2) {
+						throw new IOException("entity chunk Position is not [x, z]");
+					}
+					xPos = in.readInt();
+					zPos = in.readInt();
+					return;
+				} else if (type == TAG_INT && "xPos".equals(name)) {
+					xPos = in.readInt();
+					foundX = true;
+				} else if (type == TAG_INT && "zPos".equals(name)) {
+					zPos = in.readInt();
+					foundZ = true;
+				} else {
+					skipPayload(type, in);
+				}
+				if (foundX && foundZ) {
+					return;
+				}
+			}
+			throw new IOException(kind == RegionKind.ENTITIES ? "entity chunk has no Position" : "chunk has no xPos/zPos");
+		}
+
+	}
+
+	static class TileReport {
+		final File   dir;
+		final File   config;
+		final String name;
+		int x;
+		int z;
+
+		final AtomicInteger regions  = new AtomicInteger();
+		final AtomicInteger chunks   = new AtomicInteger();
+		final List<String>  problems = Collections.synchronizedList(new ArrayList<>());
+
+		TileReport(File dir, File config) {
+			this.dir = dir;
+			this.config = config;
+			this.name = dir.getName();
+		}
+
+		void readConfig() throws IOException {
+			int[] coordinates = readTileConfig(config);
+			x = coordinates[0];
+			z = coordinates[1];
+		}
+
+		void problem(String problem) {
+			problems.add(problem);
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package org.inventivetalent.minetile.deployer;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.inventivetalent.nbt.*;
 import org.inventivetalent.nbt.stream.NBTInputStream;
 import org.inventivetalent.nbt.stream.NBTOutputStream;
@@ -10,11 +11,23 @@ import picocli.CommandLine;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
 
 @CommandLine.Command(name = "MineTileDeployer",
 					 description = "Utility to split up large worlds into individual MineTile containers for easy deploying",
@@ -25,10 +38,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 					 synopsisHeading = "%n",
 					 descriptionHeading = "%n@|bold,underline Description|@:%n%n",
 					 parameterListHeading = "%n@|bold,underline Parameters|@:%n",
-					 optionListHeading = "%n@|bold,underline Options|@:%n")
+					 optionListHeading = "%n@|bold,underline Options|@:%n",
+					 commandListHeading = "%n@|bold,underline Commands|@:%n",
+					 subcommands = { ArchiveBenchmark.class, DeployVerifier.class, DeployDiff.class, PatchApplier.class, WorldGatherer.class, DeployResharder.class })
 public class Deployer implements Callable<Boolean> {
 
 	static final String DEFAULT_NAME_FORMAT = "MineTile.%x.%z";
+	static final String PRELOAD_FILE_NAME   = "preload.yml";
+	static final String PARTIAL_SUFFIX      = ".partial";
 
 	@CommandLine.Option(names = { "-V", "--version" },
 						versionHelp = true,
@@ -102,6 +119,10 @@ public class Deployer implements Callable<Boolean> {
 						description = "Z-Offset for the center tile in region sections (32x16 blocks)")
 	private int centerZ = 0;
 
+	@CommandLine.Option(names = { "--autoExtent" },
+						description = "Generate exactly the tiles that contain chunks, found from the region files of the world, instead of the square from --radius and --centerX/--centerZ")
+	private boolean autoExtent;
+
 	@CommandLine.Option(names = { "--tileSize" },
 						description = "Radius of the individual tiles in chunks (default: 16 -> 32x32 chunks -> 1 mca file)")
 	private int tileSize = 16;
@@ -128,10 +149,33 @@ public class Deployer implements Callable<Boolean> {
 						description = "Whether to enable protective game rules (e.g. mobGriefing:false, doWeatherCycle:false, etc.) - custom values can be specified in a ./gamerules.yml file")
 	private boolean overwriteGameRules = false;
 
+	@CommandLine.Option(names = { "--sourceSpawn" },
+						description = "Keep the spawn point of the source world in every container, instead of moving it onto the chunk closest to the center of each tile")
+	private boolean sourceSpawn = false;
+
+	@CommandLine.Option(names = { "--spawnChunkRadius" },
+						description = "Set the spawnChunkRadius game rule (1.20.5+) of the containers, 0 keeps no spawn chunks loaded (-1 = leave as in the source world)")
+	private int spawnChunkRadius = -1;
+
 	@CommandLine.Option(names = { "--gzip", "--zip" },
-						description = "Whether to create a .tar.gz archive of the individual containers instead of regular directories")
+						description = "Whether to create a .tar.gz archive of the individual containers instead of regular directories (same as --archive GZIP)")
 	private boolean gzip = false;
 
+	@CommandLine.Option(names = { "--archive" },
+						paramLabel = "CODEC",
+						description = "Create an archive of the individual containers instead of regular directories [TAR, GZIP, ZSTD, LZ4]\n"
+								+ "Use the 'benchmark' command to compare them on one of your containers")
+	private ArchiveCodec archiveCodec;
+
+	@CommandLine.Option(names = { "--archiveLevel" },
+						paramLabel = "LEVEL",
+						description = "Compression level for GZIP (1-9) and ZSTD (1-22) archives, -1 to use the codec's default")
+	private int archiveLevel = -1;
+
+	@CommandLine.Option(names = { "--zstdLong" },
+						description = "Enable long-window mode for ZSTD archives (better ratio on large containers, same unpack speed)")
+	private boolean zstdLong = false;
+
 	@CommandLine.Option(names = { "--perHostDirectories", "--perHostDirs" },
 						description = "Whether to move containers with the same host address into the same directory")
 	private boolean perHostDirectories = false;
@@ -140,6 +184,14 @@ public class Deployer implements Callable<Boolean> {
 						description = "Directory for the init.sh script to copy server files from when running in SCRIPT mode")
 	private String scriptServerBase = "";
 
+	@CommandLine.Option(names = { "--chunkStore" },
+						description = "Store the chunks once in a content-addressed store (" + ChunkStore.DIRECTORY_NAME + " in the output directory) instead of writing region files into the containers, init.sh assembles them on the host (SCRIPT mode only)")
+	private boolean chunkStore = false;
+
+	@CommandLine.Option(names = { "--scriptChunkStore" },
+						description = "Directory for the init.sh script to assemble the region files from when using --chunkStore (default: the store of the output directory, relative to the container)")
+	private String scriptChunkStore;
+
 	@CommandLine.Option(names = { "--acceptEula" },
 						description = "Accept the eula.txt automatically for all containers\n"
 								+ "By using this option you are indicating your agreement to Mojang's EULA (https://account.mojang.com/documents/minecraft_eula)")
@@ -150,8 +202,134 @@ public class Deployer implements Callable<Boolean> {
 	private String scriptServerDownload = "https://papermc.io/ci/job/Paper-1.13/lastSuccessfulBuild/artifact/paperclip.jar";
 
 	@CommandLine.Option(names = { "--threads" },
-						description = "Number of threads to use for creating and copying tile data")
-	private int threads = 4;
+						description = "Number of threads to use for creating and copying tile data (0 = choose from the available CPUs and memory)")
+	private int threads = 0;
+
+	@CommandLine.Option(names = { "--memoryBudget" },
+						paramLabel = "SIZE",
+						description = "Maximum amount of chunk and archive data held in memory by all threads together, e.g. 512M or 2G (default: half of the max heap / container memory limit)")
+	private String memoryBudget;
+
+	@CommandLine.Option(names = { "--readRate" },
+						paramLabel = "SIZE",
+						description = "Limit reads from disk to this many bytes per second, e.g. 50M, to leave I/O for servers running on the same host")
+	private String readRate;
+
+	@CommandLine.Option(names = { "--writeRate" },
+						paramLabel = "SIZE",
+						description = "Limit writes to disk to this many bytes per second, e.g. 20M")
+	private String writeRate;
+
+	@CommandLine.Option(names = { "--fileOpsRate" },
+						description = "Limit opening, creating and copying files to this many per second (0 = unlimited)")
+	private int fileOpsRate = 0;
+
+	@CommandLine.Option(names = { "--ioControl" },
+						paramLabel = "FILE",
+						description = "Properties file with read, write and ops limits that is re-read while deploying, to change the limits at runtime (created with the current limits if it doesn't exist)")
+	private File ioControlFile;
+
+	@CommandLine.Option(names = { "--upload" },
+						paramLabel = "s3://BUCKET/PREFIX",
+						description = "Upload finished containers (archives or region files), the bungee directory and servers.csv to an S3-compatible object store while deploying. "
+								+ "Credentials are read from AWS_ACCESS_KEY_ID, AWS_SECRET_ACCESS_KEY and AWS_SESSION_TOKEN")
+	private String upload;
+
+	@CommandLine.Option(names = { "--uploadEndpoint" },
+						paramLabel = "URL",
+						description = "Endpoint of the object store, e.g. http://localhost:9000 for a local MinIO (default: AWS S3 in the upload region)")
+	private String uploadEndpoint;
+
+	@CommandLine.Option(names = { "--uploadRegion" },
+						description = "Region to sign upload requests for (default: AWS_REGION or us-east-1)")
+	private String uploadRegion;
+
+	@CommandLine.Option(names = { "--uploadPartSize" },
+						paramLabel = "SIZE",
+						description = "Size of the parts of multipart uploads, at least 5M and at most 1G. Files up to this size are uploaded in one request")
+	private String uploadPartSize = "16M";
+
+	@CommandLine.Option(names = { "--uploadThreads" },
+						description = "Number of parts uploaded at the same time")
+	private int uploadThreads = 4;
+
+	@CommandLine.Option(names = { "--schedule" },
+						description = "Order in which tiles are handed to the threads (${COMPLETION-CANDIDATES}): LPT starts the largest tiles (estimated from the source region sizes) first to avoid a long tail, "
+								+ "ZORDER and HILBERT follow a space-filling curve to keep shared halo regions in the cache, ORDER is row by row")
+	private TileSchedule schedule = TileSchedule.LPT;
+
+	@CommandLine.Option(names = { "--transformers" },
+						split = ",",
+						paramLabel = "NAME",
+						description = "Additional chunk transformers to apply while copying world data, by name (see META-INF/services) or class name. Coordinate relocation is always applied first")
+	private String[] transformerNames = new String[0];
+
+	@CommandLine.Option(names = { "--haloChunks" },
+						description = "Width of the ring of border chunks copied around each tile, so the world doesn't end at the tile border (in chunks, 32 = one region)")
+	private int haloChunks = TileArea.DEFAULT_HALO_CHUNKS;
+
+	@CommandLine.Option(names = { "--stripHalo" },
+						description = "Write the halo chunks without entities, tile entities, scheduled ticks and light data")
+	private boolean stripHalo = false;
+
+	@CommandLine.Option(names = { "--slim" },
+						description = "Drop empty chunk sections while copying world data")
+	private boolean slim = false;
+
+	@CommandLine.Option(names = { "--slimLight" },
+						description = "Also drop block and sky light, the server recalculates it (implies --slim)")
+	private boolean slimLight = false;
+
+	@CommandLine.Option(names = { "--slimHeightmaps" },
+						description = "Also drop heightmaps (1.13+), the server recalculates them (implies --slim)")
+	private boolean slimHeightmaps = false;
+
+	@CommandLine.Option(names = { "--preloadChunks" },
+						paramLabel = "N",
+						description = "Write a list of up to N chunks per container that players spent the most time in (by InhabitedTime, then entity count) to plugins/MineTileContainer/preload.yml, for the container to load at startup (0 = none)")
+	private int preloadChunks = 0;
+
+	@CommandLine.Option(names = { "--readAhead" },
+						description = "Read the next source region of a tile in the background while the current one is being copied (helps on spinning disks and network storage)")
+	private boolean readAhead = false;
+
+	@CommandLine.Option(names = { "--resume" },
+						description = "Resume an interrupted deployment: skip tiles that were completed according to the deploy.journal in the output directory and clean up the unfinished ones")
+	private boolean resume = false;
+
+	@CommandLine.Option(names = { "--worldIndex" },
+						paramLabel = "FILE",
+						description = "Index of the source world's region files, built on the first run and updated from file modification times afterwards (default: world.index in the output directory)")
+	private File worldIndexFile;
+
+	@CommandLine.Option(names = { "--noWorldIndex" },
+						description = "Look up source regions directly on disk instead of using the world index")
+	private boolean noWorldIndex = false;
+
+	@CommandLine.Option(names = { "--logLevel" },
+						paramLabel = "LEVEL",
+						description = "Minimum level of messages printed to the console (${COMPLETION-CANDIDATES}). Per-region details are logged as DEBUG")
+	private Log.Level logLevel = Log.Level.INFO;
+
+	@CommandLine.Option(names = { "--logFile" },
+						paramLabel = "FILE",
+						description = "Write the full log (including DEBUG messages) to this file")
+	private File logFile;
+
+	@CommandLine.Option(names = { "--jfr" },
+						paramLabel = "FILE",
+						description = "Record a Java Flight Recorder file with the bundled settings (MineTile events, GC and I/O), recordings started with jcmd also contain the MineTile events")
+	private File jfrFile;
+
+	@CommandLine.Option(names = { "--noProgress" },
+						description = "Don't show the progress line (tiles, chunks/s, ETA)")
+	private boolean noProgress = false;
+
+	@CommandLine.Option(names = { "--worlds" },
+						paramLabel = "FILE",
+						description = "YAML list of worlds to deploy in one run, sharing the thread pool, memory budget and plugin downloads. "
+								+ "Each entry maps option names (input, output, tileSize, radius, names, hosts, ...) to values added to the command line, 'name' labels the world in the reports")
+	private File worldsFile;
 
 	@CommandLine.Option(names = { "-d", "--dry-run" },
 						description = "Only output information about how the given options will affect the output, without generating any files")
@@ -162,12 +340,13 @@ public class Deployer implements Callable<Boolean> {
 	File routerPluginFile    = new File("./MineTileRouter.jar");
 
 	Map<String, Object> baseConfigData = new HashMap<>();
-	File                regionDirectory;
+	List<RegionFolder>  regionFolders;
 	File                levelFile;
 	File                containersDir;
 	File                bungeeDir;
 	File                serverListFile = new File("./servers.csv");
 	int                 totalCount     = 1;
+	List<int[]>         occupiedTiles;// tiles with terrain found by --autoExtent, null for the whole radius square
 
 	Map<String, String> gameRuleOverrides = new HashMap<String, String>() {{
 		put("doDaylightCycle", "false");
@@ -183,101 +362,387 @@ public class Deployer implements Callable<Boolean> {
 		put("spectatorsGenerateChunks", "false");
 	}};
 
-	Executor      tileExecutor;
-	AtomicInteger tileCounter = new AtomicInteger();
+	Executor               tileExecutor;
+	ExecutorService        readAheadExecutor;
+	AtomicInteger          tileCounter = new AtomicInteger();
+	AtomicInteger          tilesDone   = new AtomicInteger();
+	AtomicLong             totalChunkBytesIn  = new AtomicLong();
+	AtomicLong             totalChunkBytesOut = new AtomicLong();
+	Map<RegionKind, ChunkTransformPipeline> transformPipelines;
+	HotChunkTransformer    hotChunks;// collects the preload lists, if enabled
+	SpawnTransformer       spawns;// finds the spawn of every tile, unless --sourceSpawn
+	ObjectStoreSink        objectStore;// --upload
+	ChunkStore             chunks;// --chunkStore
+	DeployJournal          journal;
+	MemoryGovernor         memoryGovernor;
+	WorldIndex             worldIndex;
+	ShardedWorld           shardedSource;// set by 'reshard', replaces the input world
+	Object                 flightRecording;
+
+	// --worlds: the deployer the command line was parsed into coordinates one deployer per world
+	String[]               arguments     = new String[0];// set by Main
+	Deployer               coordinator   = this;
+	List<Deployer>         worlds;
+	AtomicInteger          pendingWorlds = new AtomicInteger();
+	String                 worldLabel    = "world";
+	long                   submitNanos;
+	long                   finishNanos;
+
+	// schedule statistics of the run, kept by the coordinator
+	AtomicLong             busyNanos        = new AtomicLong();// sum of all tile durations
+	AtomicLong             longestTileNanos = new AtomicLong();
+	Map<Thread, Long>      lastFinishNanos  = new ConcurrentHashMap<>();// per worker thread
 
 	@Override
 	public Boolean call() throws Exception {
-		System.out.println("Use --help argument to show options");
+		try {
+			Log.configure(logLevel, logFile);
+		} catch (IOException e) {
+			Log.error("Failed to open log file {}: {}", logFile, e.getMessage());
+			return false;
+		}
+		Log.info("Use --help argument to show options");
+
+		if (jfrFile != null) {
+			try {
+				flightRecording = Flight.startRecording(jfrFile);
+				Log.info("Recording flight events to {}", jfrFile);
+			} catch (IOException e) {
+				Log.error("Failed to start the flight recording: {}", e.getMessage());
+				return false;
+			}
+		}
 
-		if (input == null || !input.exists()) {
-			System.err.println("Input Directory " + input + " not found");
+		try {
+			IoThrottle.configure(readRate != null ? SystemResources.parseSize(readRate) : 0, writeRate != null ? SystemResources.parseSize(writeRate) : 0, fileOpsRate, ioControlFile);
+		} catch (NumberFormatException e) {
+			Log.error("Invalid I/O rate: {}", e.getMessage());
+			return false;
+		} catch (IOException e) {
+			Log.error("Failed to create I/O control file {}", ioControlFile, e);
 			return false;
 		}
-		regionDirectory = new File(input, "region");
-		if (!regionDirectory.exists()) {
-			System.err.println("World directory does not contain a region directory");
+		if (IoThrottle.isEnabled()) {
+			if (ioControlFile != null) {
+				Log.info("I/O limits: {} (adjustable in {})", IoThrottle.describe(), ioControlFile);
+			} else {
+				Log.info("I/O limits: {}", IoThrottle.describe());
+			}
+		}
+
+		if (worldsFile != null) {
+			if (shardedSource != null) {
+				Log.error("--worlds can't be combined with reshard");
+				return false;
+			}
+			worlds = loadWorlds();
+			if (worlds == null) {
+				return false;
+			}
+		} else {
+			worlds = Collections.singletonList(this);
+		}
+		for (Deployer world : worlds) {
+			if (worlds.size() > 1) {
+				Log.info("");
+				Log.info("==== World {} ({} -> {}) ====", world.worldLabel, world.input, world.output);
+			}
+			if (!world.prepare()) {
+				return false;
+			}
+		}
+
+		long memoryLimit = SystemResources.memoryLimit();
+		long budget;
+		try {
+			budget = memoryBudget != null ? SystemResources.parseSize(memoryBudget) : memoryLimit / 2;
+		} catch (NumberFormatException e) {
+			Log.error("Invalid memory budget: {}", memoryBudget);
+			return false;
+		}
+		memoryGovernor = new MemoryGovernor(budget);
+		if (threads <= 0) {
+			long perWorkerMemory = MemoryGovernor.WORKER_OVERHEAD;
+			threads = MemoryGovernor.chooseThreads(SystemResources.availableCpus(), memoryLimit, budget, perWorkerMemory);
+			Log.info("Using {} threads ({} CPUs, {} memory available)", threads, SystemResources.availableCpus(), ArchiveBenchmark.humanBytes(memoryLimit));
+		} else {
+			Log.info("Using {} threads", threads);
+		}
+		Log.info("Memory budget for in-flight chunk and archive data is {}", ArchiveBenchmark.humanBytes(budget));
+
+		List<TileSchedule.Tile> tiles = new ArrayList<>();
+		for (int i = 0; i < worlds.size(); i++) {
+			tiles.addAll(worlds.get(i).planTiles(i));
+		}
+		schedule.order(tiles);
+		long estimatedCost = 0;
+		for (TileSchedule.Tile tile : tiles) {
+			estimatedCost += tile.cost;
+		}
+		long estimatedMakespan = TileSchedule.estimateMakespan(tiles, threads);
+		if (estimatedMakespan > 0) {
+			Log.info("Scheduling tiles in {} order, estimated to keep the threads {}% busy ({} of source data, largest tile {})", schedule, Math.round(estimatedCost * 100.0D / ((double) estimatedMakespan * threads)),
+					ArchiveBenchmark.humanBytes(estimatedCost), ArchiveBenchmark.humanBytes(tiles.stream().mapToLong(tile -> tile.cost).max().orElse(0)));
+		} else {
+			Log.info("Scheduling tiles in {} order", schedule);
+		}
+		Log.info("");
+
+		///// EXIT if dry-run
+		if (dryRun) {
+			Log.info("Dry-Run - Exiting!");
+			return true;
+		}
+
+		tileExecutor = Executors.newFixedThreadPool(threads);
+		if (readAhead) {
+			readAheadExecutor = Executors.newFixedThreadPool(Math.max(1, threads / 2), runnable -> {
+				Thread thread = new Thread(runnable, "MineTile-ReadAhead");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		if (worlds.stream().anyMatch(world -> world.mode.copyPlugins)) {
+			if (containerPluginFile == null || !containerPluginFile.exists()) {
+				Log.warn("Container Plugin File not found - Downloading...");
+				try {
+					FileUtils.copyURLToFile(new URL("https://github.com/InventivetalentDev/MineTileContainer/releases/download/" + containerVersion + "/container-" + containerVersion + ".jar"), containerPluginFile);
+				} catch (IOException e) {
+					throw new RuntimeException("Failed to download container plugin", e);
+				}
+			}
+			if (routerPluginFile == null || !routerPluginFile.exists()) {
+				Log.warn("Router Plugin File not found - Downloading...");
+				try {
+					FileUtils.copyURLToFile(new URL("https://github.com/InventivetalentDev/MineTileRouter/releases/download/" + routerVersion + "/router-" + routerVersion + ".jar"), routerPluginFile);
+				} catch (IOException e) {
+					throw new RuntimeException("Failed to download router plugin", e);
+				}
+			}
+		}
+
+		for (Deployer world : worlds) {
+			world.coordinator = this;
+			world.tileExecutor = tileExecutor;
+			world.readAheadExecutor = readAheadExecutor;
+			world.memoryGovernor = memoryGovernor;
+			world.createOutputDirectories();
+			if (world.upload != null) {
+				try {
+					world.objectStore = world.createObjectStore();
+				} catch (IllegalArgumentException | IOException e) {// includes NumberFormatException
+					Log.error("Invalid upload options: {}", e.getMessage());
+					return false;
+				}
+				if (world.chunks != null) {
+					// new objects are uploaded right away, the ones from earlier deployments only if the store doesn't have them yet
+					world.chunks.setListener(world.objectStore::upload);
+					world.objectStore.uploadMissing(world.chunks.getDirectory(), world.outputKey(world.chunks.getDirectory()) + "/");
+				}
+			}
+		}
+
+		try {
+			Thread.sleep(500);
+			Log.info("");
+			Log.info("Will begin generation in 5 seconds. Press Ctrl+C to cancel...");
+			Thread.sleep(5000);
+		} catch (InterruptedException e) {
+			Log.error("Sleep interrupted", e);
 			return false;
 		}
-		levelFile = new File(input, "level.dat");
+		Log.info("Starting!");
+		Log.info("");
+
+		int remainingTiles = 0;
+		for (Deployer world : worlds) {
+			if (!world.start()) {
+				return false;
+			}
+			remainingTiles += world.totalCount - world.journal.getCommittedCount();
+		}
+
+		int tileCount = remainingTiles;
+		long startTime = System.nanoTime();
+		if (!noProgress) {
+			Log.progress(() -> progressLine(tileCount, startTime));
+		}
+
+		// all worlds share the tile pool, their tiles are queued in the order of the schedule
+		pendingWorlds.set(worlds.size());
+		submitTiles(tiles);
+
+		return true;
+	}
+
+	/* checks the options of this world and prints what will be generated */
+	boolean prepare() throws IOException {
+		if (shardedSource != null) {
+			regionFolders = shardedSource.getFolders();
+			levelFile = shardedSource.getLevelFile();
+			noWorldIndex = true;// the index only covers plain source worlds
+		} else {
+			if (input == null || !input.exists()) {
+				Log.error("Input Directory {} not found", input);
+				return false;
+			}
+			regionFolders = RegionFolder.discover(input);
+			levelFile = new File(input, "level.dat");
+		}
+		if (regionFolders.isEmpty() || !regionFolders.get(0).getPath().equals(RegionKind.TERRAIN.folderName)) {
+			Log.error("World directory does not contain a region directory");
+			return false;
+		}
+		Log.info("Found region folders: {}", regionFolders);
 		if (output == null) {
-			System.err.println("Output Directory is null!");
+			Log.error("Output Directory is null!");
 			return false;
 		}
 		if (!output.exists()) {
-			System.out.println("Output Directory does not exist, creating a new one");
+			Log.info("Output Directory does not exist, creating a new one");
 			output.mkdir();
 		}
+		if (upload != null) {
+			if (System.getenv("AWS_ACCESS_KEY_ID") == null || System.getenv("AWS_SECRET_ACCESS_KEY") == null) {
+				Log.error("--upload needs the AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY environment variables");
+				return false;
+			}
+			if (uploadEndpoint != null) {
+				Log.info("Finished containers will be uploaded to {} at {}", upload, uploadEndpoint);
+			} else {
+				Log.info("Finished containers will be uploaded to {}", upload);
+			}
+		}
+
+		if (!noWorldIndex) {
+			File indexFile = worldIndexFile != null ? worldIndexFile : new File(output, WorldIndex.FILE_NAME);
+			long indexStart = System.nanoTime();
+			try {
+				worldIndex = WorldIndex.load(indexFile, regionFolders);
+				Log.info("World index {} has {} regions ({} re-read) - {}ms", indexFile, worldIndex.getRegionCount(), worldIndex.getRebuiltRegions(), (System.nanoTime() - indexStart) / 1000000);
+			} catch (IOException e) {
+				Log.warn("Failed to load the world index, looking up regions on disk instead", e);
+			}
+		}
 
 		if (baseConfig == null || !baseConfig.exists()) {
-			System.err.println("Base configuration not found. This is not recommended! Continuing anyway.");
+			Log.warn("Base configuration not found. This is not recommended! Continuing anyway.");
 		} else {
-			System.out.println("Loading base configuration");
+			Log.info("Loading base configuration");
 			try (InputStream configIn = new FileInputStream(baseConfig)) {
 				baseConfigData = new Yaml().load(configIn);
 			} catch (IOException e) {
-				System.err.println("Failed to load base config");
-				e.printStackTrace();
+				Log.error("Failed to load base config", e);
 				return false;
 			}
-			System.out.println(baseConfigData);
+			Log.info("{}", baseConfigData);
 		}
 
 		if (mode == null) {
 			mode = DeployMode.COMPLETE;
 		}
-		System.out.println("Running in " + mode.name() + " mode");
+		Log.info("Running in {} mode", mode.name());
 
-		System.out.println();
+		if (archiveCodec == null && gzip) {
+			archiveCodec = ArchiveCodec.GZIP;
+		}
+		if (archiveCodec != null) {
+			try {
+				archiveCodec.checkLevel(archiveLevel);
+			} catch (IllegalArgumentException e) {
+				Log.error(e.getMessage());
+				return false;
+			}
+			if (archiveLevel >= 0 && (archiveCodec == ArchiveCodec.TAR || archiveCodec == ArchiveCodec.LZ4)) {
+				Log.warn("{} archives don't have a compression level, --archiveLevel is ignored", archiveCodec);
+			}
+			Log.info("Containers will be packed as {} archives", archiveCodec.extension);
+		}
+		if (chunkStore) {
+			if (!mode.createInitScript || !mode.copyWorld) {
+				Log.error("--chunkStore only works in SCRIPT mode, the containers need init.sh to assemble their region files");
+				return false;
+			}
+			chunks = new ChunkStore(new File(output, ChunkStore.DIRECTORY_NAME));
+			Log.info("Chunks will be stored in {}, the containers get a {} instead of region files", chunks.getDirectory(), ChunkStore.MANIFEST_NAME);
+		}
+
+		Log.info("");
 
-		if (radius == 0) {
-			System.err.println("Radius is set to 0");
+		if (tileSize % 16 != 0) {
+			Log.error("tileSize should be a multiple of 16");
 			return false;
 		}
-		System.out.println("Radius is " + radius);
-		for (int i = 0; i <= radius; i++) {
-			totalCount += i * 8;
+		if (autoExtent) {
+			long extentStart = System.nanoTime();
+			occupiedTiles = findOccupiedTiles();
+			if (occupiedTiles.isEmpty()) {
+				Log.error("The world doesn't contain any chunks");
+				return false;
+			}
+			int[] first = occupiedTiles.get(0);
+			int minX = first[0], maxX = first[0], minZ = first[1], maxZ = first[1];
+			for (int[] tile : occupiedTiles) {
+				minX = Math.min(minX, tile[0]);
+				maxX = Math.max(maxX, tile[0]);
+				minZ = Math.min(minZ, tile[1]);
+				maxZ = Math.max(maxZ, tile[1]);
+			}
+			totalCount = occupiedTiles.size();
+			Log.info("World extent is tiles {},{} to {},{}, {} of the {} tiles in it contain chunks - {}ms", minX, minZ, maxX, maxZ, totalCount, (maxX - minX + 1) * (maxZ - minZ + 1), (System.nanoTime() - extentStart) / 1000000);
+			Log.info("Will generate {} containers", totalCount);
+		} else {
+			if (radius == 0) {
+				Log.error("Radius is set to 0");
+				return false;
+			}
+			Log.info("Radius is {}", radius);
+			for (int i = 0; i <= radius; i++) {
+				totalCount += i * 8;
+			}
+			Log.info("Will generate {} containers", totalCount);
 		}
-		System.out.println("Will generate " + totalCount + " containers");
 
-		if (tileSize % 16 != 0) {
-			System.err.println("tileSize should be a multiple of 16");
+		Log.info("Tile Size Radius is {} regions / {} chunks / {} blocks", tileSize / 32, tileSize, tileSize * 16);
+		Log.info("Each tile will contain a {}x{} regions / {}x{} chunks / {}x{} blocks section", tileSize * 2 / 32, tileSize * 2 / 32, tileSize * 2, tileSize * 2, tileSize * 16 * 2, tileSize * 16 * 2);
+		if (haloChunks < 0) {
+			Log.error("Halo width can't be negative");
 			return false;
 		}
-		System.out.println("Tile Size Radius is " + (tileSize / 32) + " regions / " + tileSize + " chunks / " + (tileSize * 16) + " blocks");
-		System.out.println("Each tile will contain a " + (tileSize * 2 / 32) + "x" + (tileSize * 2 / 32) + " regions / " + (tileSize * 2) + "x" + (tileSize * 2) + " chunks / " + (tileSize * 16 * 2) + "x" + (tileSize * 16 * 2) + " blocks section");
+		Log.info("Each tile is surrounded by a {} chunk halo{}", haloChunks, stripHalo ? " (stripped)" : "");
 
-		int totalSize = tileSize * 2 * radius * 2;
-		System.out.println("Total Map Size will be " + totalSize + "x" + totalSize + " chunks / ~" + (totalSize * 16) + "x" + (totalSize * 16) + " blocks");
+		if (!autoExtent) {
+			int totalSize = tileSize * 2 * radius * 2;
+			Log.info("Total Map Size will be {}x{} chunks / ~{}x{} blocks", totalSize, totalSize, totalSize * 16, totalSize * 16);
+		}
 
-		System.out.println();
+		Log.info("");
 
 		if (serverNamesFile != null && serverNamesFile.exists()) {
 			try {
 				serverNames = loadLinesFromFile(serverNamesFile);
 			} catch (IOException e) {
-				System.err.println("Failed to load server names from file");
-				e.printStackTrace();
+				Log.error("Failed to load server names from file", e);
 			}
 		}
 		if (serverNames.length == 0) {
-			System.err.println("There are no server names set. Will use incremental names.");
+			Log.warn("There are no server names set. Will use incremental names.");
 		} else if (serverNames.length < totalCount) {
-			System.err.println("There are less sever names set than the amount of generated containers. Will use incremental names for leftovers.");
+			Log.warn("There are less sever names set than the amount of generated containers. Will use incremental names for leftovers.");
 		}
 
 		if (serverHostsFile != null && serverHostsFile.exists()) {
 			try {
 				serverHosts = loadLinesFromFile(serverHostsFile);
 			} catch (IOException e) {
-				System.err.println("Failed to load hosts from file");
-				e.printStackTrace();
+				Log.error("Failed to load hosts from file", e);
 			}
 		}
 		if (serverHosts.length == 0) {
-			System.err.println("There are no server hosts set. Will use 127.0.0.1");
+			Log.warn("There are no server hosts set. Will use 127.0.0.1");
 		} else if (serverHosts.length < totalCount) {
-			System.err.println("There are less sever names set than the amount of generated containers.");
+			Log.warn("There are less sever names set than the amount of generated containers.");
 		}
 
 		File gameRuleFile = new File("./gamerules.yml");
@@ -289,38 +754,35 @@ public class Deployer implements Callable<Boolean> {
 				}
 			}
 
-			System.out.println("Game Rule Overrides:");
-			gameRuleOverrides.forEach((k, v) -> System.out.println(k + ": " + v));
-			System.out.println();
+			Log.info("Game Rule Overrides:");
+			gameRuleOverrides.forEach((k, v) -> Log.info("{}: {}", k, v));
+			Log.info("");
 		}
 
-		///// EXIT if dry-run
-		if (dryRun) {
-			System.out.println("Dry-Run - Exiting!");
-			return true;
+		try {
+			transformPipelines = createTransformPipelines();
+		} catch (IllegalArgumentException e) {
+			Log.error(e.getMessage());
+			return false;
 		}
-
-		tileExecutor = Executors.newFixedThreadPool(threads);
-
-		if (mode.copyPlugins) {
-			if (containerPluginFile == null || !containerPluginFile.exists()) {
-				System.err.println("Container Plugin File not found - Downloading...");
-				try {
-					FileUtils.copyURLToFile(new URL("https://github.com/InventivetalentDev/MineTileContainer/releases/download/" + containerVersion + "/container-" + containerVersion + ".jar"), containerPluginFile);
-				} catch (IOException e) {
-					throw new RuntimeException("Failed to download container plugin", e);
-				}
-			}
-			if (routerPluginFile == null || !routerPluginFile.exists()) {
-				System.err.println("Router Plugin File not found - Downloading...");
-				try {
-					FileUtils.copyURLToFile(new URL("https://github.com/InventivetalentDev/MineTileRouter/releases/download/" + routerVersion + "/router-" + routerVersion + ".jar"), routerPluginFile);
-				} catch (IOException e) {
-					throw new RuntimeException("Failed to download router plugin", e);
-				}
+		transformPipelines.forEach((kind, pipeline) -> {
+			StringBuilder names = new StringBuilder();
+			pipeline.getTransformers().forEach(t -> names.append(" ").append(t.getName()));
+			Log.info("Chunk transformers for {}:{}", kind, names);
+		});
+		Log.info("");
+
+		if (worldIndex != null) {
+			for (RegionFolder folder : regionFolders) {
+				long[] totals = worldIndex.getTotals(folder);
+				Log.info("Source {}: {} regions, {} chunks", folder.getPath(), totals[0], totals[1]);
 			}
 		}
 
+		return true;
+	}
+
+	void createOutputDirectories() {
 		containersDir = new File(output, "containers");
 		if (!containersDir.exists()) {
 			containersDir.mkdir();
@@ -336,85 +798,526 @@ public class Deployer implements Callable<Boolean> {
 				new File(containersDir, serverHosts[i]).mkdir();
 			}
 		}
+	}
 
+	/* opens the journal and writes the server list and bungee setup, before any tile is submitted */
+	boolean start() throws IOException {
 		try {
-			Thread.sleep(500);
-			System.out.println();
-			System.out.println("Will begin generation in 5 seconds. Press Ctrl+C to cancel...");
-			Thread.sleep(5000);
-		} catch (InterruptedException e) {
-			System.err.println("Sleep interrupted");
-			e.printStackTrace();
+			journal = new DeployJournal(output, resume);
+		} catch (IOException e) {
+			Log.error("Failed to open deploy journal", e);
 			return false;
 		}
-		System.out.println("Starting!");
-		System.out.println();
+		if (resume) {
+			Log.info("Resuming - {} tiles were already completed", journal.getCommittedCount());
+			List<String[]> notUploaded = journal.getNotUploaded();
+			if (objectStore != null && !notUploaded.isEmpty()) {
+				Log.info("Uploading {} completed containers that weren't uploaded yet", notUploaded.size());
+				for (String[] tile : notUploaded) {
+					uploadTile(Integer.parseInt(tile[0]), Integer.parseInt(tile[1]), tile[2]);
+				}
+			}
+		}
 
 		// Header
 		if (serverListFile.exists()) {
 			serverListFile.delete();
 		}
 		writeServerListEntry(new String[] { "ID", "Name", "Host", "Port", "X", "Z", "# Regions", "# Chunks" });
+		for (String[] entry : journal.getCommittedEntries()) {
+			writeServerListEntry(entry);
+		}
 
 		makeBungee();
 
-		for (int x = -radius; x <= radius; x++) {
-			for (int z = -radius; z <= radius; z++) {
-				final int rx = x + centerX;
-				final int rz = z + centerZ;
+		return true;
+	}
 
-				final int c = tileCounter.getAndIncrement();
+	/* the tiles of this world, with the amount of source data they cover as their estimated cost */
+	List<TileSchedule.Tile> planTiles(int group) {
+		int tileSizeMca = (int) Math.ceil(tileSize / 32.0D);
+		TileArea area = new TileArea(tileSizeMca, haloChunks);
+		List<int[]> coordinates = occupiedTiles;
+		if (coordinates == null) {
+			coordinates = new ArrayList<>();
+			for (int x = -radius; x <= radius; x++) {
+				for (int z = -radius; z <= radius; z++) {
+					coordinates.add(new int[] { x + centerX, z + centerZ });
+				}
+			}
+		}
+		List<TileSchedule.Tile> tiles = new ArrayList<>();
+		int index = 0;
+		for (int[] tile : coordinates) {
+			int rx = tile[0];
+			int rz = tile[1];
+			long cost = 0;
+			if (mode.copyWorld) {
+				for (RegionFolder folder : regionFolders) {
+					for (int sx = area.getMinRegion(); sx <= area.getMaxRegion(); sx++) {
+						for (int sz = area.getMinRegion(); sz <= area.getMaxRegion(); sz++) {
+							cost += sourceRegionSize(folder, tileSizeMca * 2 * rx + sx, tileSizeMca * 2 * rz + sz) * area.countChunks(sx, sz) / 1024;
+						}
+					}
+				}
+			}
+			tiles.add(new TileSchedule.Tile(this, group, rx, rz, index++, cost));
+		}
+		return tiles;
+	}
+
+	/**
+	 * Finds the tiles whose core contains chunks of the terrain folder of any dimension, using the world index or the headers of the region files.
+	 * Tiles are aligned to regions, so each region belongs to exactly one tile and halos don't have to be considered.
+	 *
+	 * @return x and z of the tiles, sorted by x and then z
+	 */
+	List<int[]> findOccupiedTiles() throws IOException {
+		int tileSizeMca = (int) Math.ceil(tileSize / 32.0D);
+		Set<Long> occupied = new HashSet<>();
+		for (RegionFolder terrain : regionFolders) {
+			if (terrain.getKind() != RegionKind.TERRAIN) {
+				continue;
+			}
+			if (worldIndex != null) {
+				for (int[] region : worldIndex.getRegions(terrain)) {
+					if (region[2] > 0) {
+						occupied.add(ShardedWorld.key(tileOf(region[0], tileSizeMca), tileOf(region[1], tileSizeMca)));
+					}
+				}
+				continue;
+			}
+			Map<Long, File> regionFiles = new HashMap<>();
+			if (shardedSource != null) {
+				shardedSource.getRegions(terrain).forEach((key, region) -> regionFiles.put(key, region.file));
+			} else {
+				File[] files = terrain.getDirectory().listFiles((dir, name) -> DeployVerifier.REGION_NAME.matcher(name).matches());
+				for (File file : files != null ? files : new File[0]) {
+					Matcher matcher = DeployVerifier.REGION_NAME.matcher(file.getName());
+					matcher.matches();
+					regionFiles.put(ShardedWorld.key(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))), file);
+				}
+			}
+			for (Map.Entry<Long, File> entry : regionFiles.entrySet()) {
+				long tile = ShardedWorld.key(tileOf((int) (entry.getKey() >> 32), tileSizeMca), tileOf(entry.getKey().intValue(), tileSizeMca));
+				// only the first region of a tile with chunks has to be read
+				if (!occupied.contains(tile) && WorldIndex.countChunks(entry.getValue()) > 0) {
+					occupied.add(tile);
+				}
+			}
+		}
+		List<int[]> tiles = new ArrayList<>(occupied.size());
+		for (long key : occupied) {
+			tiles.add(new int[] { (int) (key >> 32), (int) key });
+		}
+		tiles.sort(Comparator.<int[]> comparingInt(tile -> tile[0]).thenComparingInt(tile -> tile[1]));
+		return tiles;
+	}
 
-				tileExecutor.execute(new Runnable() {
-					@Override
-					public void run() {
-						String[] currentServerEntry = new String[8];
-						System.out.println("[C] Working on " + rx + "," + rz + " (" + (c + 1) + "/" + totalCount + ")...");
-						try {
-							int regionCount = handleSection(rx, rz, c, currentServerEntry);
+	/* the tile whose core contains a region coordinate */
+	static int tileOf(int region, int tileSizeMca) {
+		return Math.floorDiv(region + tileSizeMca, tileSizeMca * 2);
+	}
 
-							if (!mode.copyWorld || regionCount > 0) {
-								writeServerListEntry(currentServerEntry);
-							}
-						} catch (Exception e) {
-							System.err.println("Exception on " + rx + "," + rz + "");
-							e.printStackTrace();
-						}
+	long sourceRegionSize(RegionFolder folder, int xx, int zz) {
+		if (worldIndex != null) {
+			return worldIndex.getRegionSize(folder, xx, zz);
+		}
+		SourceRegion region = findSourceRegion(folder, xx, zz, 0, 0);
+		return region != null ? region.file.length() : 0;
+	}
 
-						checkIfDone(tileCounter.decrementAndGet());
+	/* hands the tiles to the pool in the given order, called on the coordinator */
+	void submitTiles(List<TileSchedule.Tile> tiles) {
+		submitNanos = System.nanoTime();
+		for (Deployer world : worlds) {
+			world.submitNanos = submitNanos;
+			// hold one extra count until all tiles are submitted, so fast tiles can't finish the world early
+			world.tileCounter.incrementAndGet();
+		}
+		for (TileSchedule.Tile tile : tiles) {
+			if (tile.world.journal.isCommitted(tile.x, tile.z)) {
+				continue;
+			}
+			tile.world.tileCounter.incrementAndGet();
+			tileExecutor.execute(() -> {
+				long start = System.nanoTime();
+				tile.world.runTile(tile.x, tile.z, tile.c);
+				long duration = System.nanoTime() - start;
+				busyNanos.addAndGet(duration);
+				longestTileNanos.accumulateAndGet(duration, Math::max);
+				lastFinishNanos.put(Thread.currentThread(), start + duration);
+
+				tile.world.checkIfDone(tile.world.tileCounter.decrementAndGet());
+			});
+		}
+		for (Deployer world : worlds) {
+			world.checkIfDone(world.tileCounter.decrementAndGet());
+		}
+	}
 
-					}
-				});
+	void runTile(int rx, int rz, int c) {
+		String[] currentServerEntry = new String[8];
+		Log.info("[C] Working on {},{} ({}/{})...", rx, rz, c + 1, totalCount);
+		CopyStats copyStats = new CopyStats();
+		String name = getContainerName(rx, rz, c);
+		Object tileEvent = Flight.beginTile(rx, rz, name);
+		String outcome = "failed";
+		try {
+			journal.start(rx, rz, name);
 
+			if (handleSection(rx, rz, c, currentServerEntry, copyStats)) {
+				journal.commit(rx, rz, name, currentServerEntry);
+				writeServerListEntry(currentServerEntry);
+				if (objectStore != null) {
+					uploadTile(rx, rz, name);
+				}
+				outcome = "deployed";
+			} else {
+				journal.commit(rx, rz, name, null);
+				outcome = "empty";
+			}
+		} catch (Exception e) {
+			Log.error("Exception on {},{}", rx, rz, e);
+		} finally {
+			if (hotChunks != null) {
+				hotChunks.takeTile(rx, rz, 0);// drop what a failed tile left behind
 			}
+			if (spawns != null) {
+				spawns.takeTile(rx, rz);
+			}
+			Flight.endTile(tileEvent, copyStats.regions, copyStats.chunks, copyStats.bytesRead, copyStats.bytesIn, copyStats.bytesOut, outcome);
 		}
+		tilesDone.incrementAndGet();
+	}
 
-		return true;
+	/**
+	 * Whether the terrain folder of any dimension has a source region in the tile or its halo, otherwise no container is generated for it.
+	 * Only looks up the regions like {@link #findSourceRegion(RegionFolder, int, int, int, int)}, so it's the same with and without the world index.
+	 */
+	boolean tileHasTerrain(int x, int z) {
+		int tileSizeMca = (int) Math.ceil(tileSize / 32.0D);
+		int rx = tileSizeMca * 2 * x;
+		int rz = tileSizeMca * 2 * z;
+		TileArea area = new TileArea(tileSizeMca, haloChunks);
+		for (RegionFolder folder : regionFolders) {
+			if (folder.getKind() != RegionKind.TERRAIN) {
+				continue;
+			}
+			for (int sx = area.getMinRegion(); sx <= area.getMaxRegion(); sx++) {
+				for (int sz = area.getMinRegion(); sz <= area.getMaxRegion(); sz++) {
+					if (findSourceRegion(folder, rx + sx, rz + sz, sx, sz) != null) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	String progressLine(int tiles, long startTime) {
+		int done = 0;
+		long chunks = 0;
+		for (Deployer world : worlds) {
+			done += world.tilesDone.get();
+			for (RegionFolder folder : world.regionFolders) {
+				chunks += folder.chunkCount.get();
+			}
+		}
+		double seconds = Math.max(0.001D, (System.nanoTime() - startTime) / 1.0E9D);
+		String eta = "?";
+		if (done > 0) {
+			long etaSeconds = (long) (seconds / done * (tiles - done));
+			eta = String.format("%d:%02d:%02d", etaSeconds / 3600, etaSeconds / 60 % 60, etaSeconds % 60);
+		}
+		return String.format("[%d/%d tiles] %d chunks, %.0f chunks/s, ETA %s", done, tiles, chunks, chunks / seconds, eta);
 	}
 
 	void checkIfDone(int i) {
 		if (i <= 0) {
+			finishNanos = System.nanoTime();
+			boolean multiple = coordinator.worlds.size() > 1;
+
+			Log.info("");
+			if (multiple) {
+				Log.info("World {} done in {}s", worldLabel, String.format("%.1f", (finishNanos - submitNanos) / 1.0E9D));
+			} else {
+				Log.info("Done!");
+			}
 
-			System.out.println();
-			System.out.println("Done!");
-
-			System.out.println("Bungeecord and router plugin are in      " + bungeeDir);
-			System.out.println("Containers with plugin and world are in  " + containersDir);
+			Log.info("Bungeecord and router plugin are in      {}", bungeeDir);
+			Log.info("Containers with plugin and world are in  {}", containersDir);
 
 			if (mode.createInitScript) {
-				System.out.println();
-				System.out.println("init.sh script has been added to all containers. Make sure to run it before starting the servers!");
+				Log.info("");
+				Log.info("init.sh script has been added to all containers. Make sure to run it before starting the servers!");
 			}
 
-			System.out.println();
-			System.out.println("List of Servers written to " + serverListFile);
+			Log.info("");
+			Log.info("List of Servers written to {}", serverListFile);
 
+			Log.info("");
+			for (RegionFolder folder : regionFolders) {
+				Log.info(String.format("%-24s %6d regions %9d chunks %8.1fs", folder.getPath(), folder.regionCount.get(), folder.chunkCount.get(), folder.nanos.get() / 1.0E9D));
+			}
+			if (isSlimming()) {
+				Log.info("Slimming reduced chunk data from {} to {} (uncompressed)", ArchiveBenchmark.humanBytes(totalChunkBytesIn.get()), ArchiveBenchmark.humanBytes(totalChunkBytesOut.get()));
+			}
+			if (chunks != null) {
+				Log.info("Chunk store has {} chunks of the containers in {} new objects ({}), {} objects were stored already", chunks.chunks.get(), chunks.written.get(),
+						ArchiveBenchmark.humanBytes(chunks.writtenBytes.get()), chunks.reused.get());
+			}
+
+			if (objectStore == null) {
+				// otherwise closed once the uploads are done, they are recorded in the journal
+				closeJournal();
+			}
+
+			writeRouterTable();
+
+			if (objectStore != null) {
+				objectStore.uploadTree(bungeeDir, outputKey(bungeeDir) + "/");
+				objectStore.upload(serverListFile, "servers.csv");
+			}
+
+			coordinator.worldDone();
+		}
+	}
+
+	void closeJournal() {
+		try {
+			journal.close();
+		} catch (IOException e) {
+			Log.warn("Failed to close deploy journal", e);
+		}
+	}
+
+	/* writes the hottest chunks of the tile, per world directory of the container */
+	void writePreloadList(File file, int x, int z) throws IOException {
+		List<HotChunkTransformer.Heat> hottest = hotChunks.takeTile(x, z, preloadChunks);
+		if (hottest.isEmpty()) {
+			return;
+		}
+		Map<String, List<List<Integer>>> worlds = new LinkedHashMap<>();
+		for (HotChunkTransformer.Heat heat : hottest) {
+			String world = heat.dimension.isEmpty() ? worldName : worldName + "/" + heat.dimension;
+			worlds.computeIfAbsent(world, k -> new ArrayList<>()).add(Arrays.asList(heat.chunkX, heat.chunkZ));
+		}
+		Map<String, Object> preload = new LinkedHashMap<>();
+		preload.put("version", 1);
+		preload.put("worlds", worlds);
+
+		file.getParentFile().mkdirs();
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write("# Chunks to load when the server starts, hottest first (by InhabitedTime, then entities and tile entities), as [x, z] chunk coordinates per world directory\n");
+			new Yaml().dump(preload, writer);
+		}
+		Log.debug("Preload list for {},{} has {} chunks", x, z, hottest.size());
+	}
+
+	/* writes the tile lookup table next to the router config, from the finished server list */
+	void writeRouterTable() {
+		File tableFile = new File(bungeeDir, "plugins/MineTileRouter/" + RouterTable.FILE_NAME);
+		try {
+			List<String[]> entries = new ArrayList<>();
+			try (BufferedReader reader = new BufferedReader(new FileReader(serverListFile))) {
+				reader.readLine();// header
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty()) {
+						entries.add(line.split(","));
+					}
+				}
+			}
+			RouterTable table = RouterTable.build(tileSize, entries);
+			table.write(tableFile);
+			Log.info("Router lookup table with {} servers ({}x{} tiles) written to {}", entries.size(), table.columns, table.rows, tableFile);
+		} catch (IOException | RuntimeException e) {
+			Log.error("Failed to write the router lookup table {}", tableFile, e);
+		}
+	}
+
+	/* called by every world when its last tile is done, finishes the run after the last one */
+	void worldDone() {
+		if (pendingWorlds.decrementAndGet() > 0) {
+			return;
+		}
+		Log.progress(null);
+
+		if (worlds.size() > 1) {
+			Log.info("");
+			Log.info("All {} worlds done:", worlds.size());
+			for (Deployer world : worlds) {
+				long chunks = 0;
+				for (RegionFolder folder : world.regionFolders) {
+					chunks += folder.chunkCount.get();
+				}
+				Log.info(String.format("%-16s %5d tiles %9d chunks %8.1fs  %s", world.worldLabel, world.tilesDone.get(), chunks, (world.finishNanos - world.submitNanos) / 1.0E9D, world.output));
+			}
+			Log.info(String.format("Wall time %.1fs", (System.nanoTime() - submitNanos) / 1.0E9D));
+		}
+
+		long wallNanos = System.nanoTime() - submitNanos;
+		if (wallNanos > 0 && busyNanos.get() > 0) {
+			double makespan = wallNanos / 1.0E9D;
+			double idle = Math.max(0, threads * makespan - busyNanos.get() / 1.0E9D);
+			// no schedule can beat the longest tile or the total work spread evenly over the threads
+			double bound = Math.max(longestTileNanos.get(), busyNanos.get() / (double) threads) / 1.0E9D;
+			Log.info("");
+			Log.info(String.format("Makespan %.1fs with %s schedule on %d threads (lower bound %.1fs), %.1fs of %.1fs thread time idle (%.0f%%)", makespan, schedule, threads, bound, idle, threads * makespan, idle * 100 / (threads * makespan)));
+			// the tail: from the first thread running out of tiles until the last one is done
+			long tailNanos = lastFinishNanos.size() < threads ? wallNanos
+					: Collections.max(lastFinishNanos.values()) - Collections.min(lastFinishNanos.values());
+			Log.info(String.format("Longest tile took %.1fs, the first thread ran out of tiles %.1fs before the end", longestTileNanos.get() / 1.0E9D, tailNanos / 1.0E9D));
+		}
+
+		boolean uploadsFailed = false;
+		for (Deployer world : worlds) {
+			if (world.objectStore == null) {
+				continue;
+			}
+			ObjectStoreSink sink = world.objectStore;
+			Log.info("Waiting for the uploads to {}...", sink.getLocation());
 			try {
-				Thread.sleep(1000);
+				sink.awaitAll();
 			} catch (InterruptedException e) {
-				e.printStackTrace();
+				Thread.currentThread().interrupt();
+			}
+			sink.shutdown();
+			world.closeJournal();
+			Log.info("Uploaded {} files ({}) to {}, {} requests retried", sink.files.get(), ArchiveBenchmark.humanBytes(sink.bytes.get()), sink.getLocation(), sink.retries.get());
+			if (sink.failed.get() > 0) {
+				Log.error("{} uploads to {} failed", sink.failed.get(), sink.getLocation());
+				uploadsFailed = true;
+			}
+		}
+
+		if (IoThrottle.isEnabled()) {
+			Log.info("I/O limits held threads back for {}ms on reads, {}ms on writes and {}ms on file operations",
+					TimeUnit.NANOSECONDS.toMillis(IoThrottle.READ.getWaitedNanos()), TimeUnit.NANOSECONDS.toMillis(IoThrottle.WRITE.getWaitedNanos()), TimeUnit.NANOSECONDS.toMillis(IoThrottle.OPS.getWaitedNanos()));
+		}
+
+		Log.info("");
+		Log.info("Peak in-flight chunk/archive data was {} of {}, peak heap usage was {} of {}", ArchiveBenchmark.humanBytes(memoryGovernor.getPeakInFlight()), ArchiveBenchmark.humanBytes(memoryGovernor.getBudget()),
+				ArchiveBenchmark.humanBytes(MemoryGovernor.getPeakHeapUsage()), ArchiveBenchmark.humanBytes(Runtime.getRuntime().maxMemory()));
+
+		if (flightRecording != null) {
+			Flight.stopRecording(flightRecording);
+			Log.info("Flight recording written to {}", jfrFile);
+		}
+
+		try {
+			Thread.sleep(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		Log.shutdown();
+		System.exit(uploadsFailed ? 1 : 0);
+	}
+
+	ObjectStoreSink createObjectStore() throws IOException {
+		String region = uploadRegion != null ? uploadRegion : System.getenv("AWS_REGION") != null ? System.getenv("AWS_REGION") : "us-east-1";
+		String endpoint = uploadEndpoint != null ? uploadEndpoint : "https://s3." + region + ".amazonaws.com";
+		return new ObjectStoreSink(upload, endpoint, region, System.getenv("AWS_ACCESS_KEY_ID"), System.getenv("AWS_SECRET_ACCESS_KEY"), System.getenv("AWS_SESSION_TOKEN"),
+				SystemResources.parseSize(uploadPartSize), uploadThreads, memoryGovernor);
+	}
+
+	/* the chunk store as seen from a container directory, unless it's set explicitly */
+	String getScriptChunkStore() {
+		if (scriptChunkStore != null) {
+			return scriptChunkStore;
+		}
+		return (perHostDirectories ? "../../../" : "../../") + ChunkStore.DIRECTORY_NAME;
+	}
+
+	/* object key of a file in the output directory: its relative path */
+	String outputKey(File file) {
+		return output.getAbsoluteFile().toPath().normalize().relativize(file.getAbsoluteFile().toPath().normalize()).toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Creates a deployer per entry of the --worlds file, from the command line with the entry's options appended
+	 */
+	List<Deployer> loadWorlds() throws IOException {
+		Object data;
+		try (Reader reader = new FileReader(worldsFile)) {
+			data = new Yaml().load(reader);
+		} catch (IOException e) {
+			Log.error("Failed to read {}", worldsFile, e);
+			return null;
+		}
+		if (data instanceof Map && ((Map<?, ?>) data).get("worlds") instanceof List) {
+			data = ((Map<?, ?>) data).get("worlds");
+		}
+		if (!(data instanceof List) || ((List<?>) data).isEmpty()) {
+			Log.error("{} should contain a list of worlds", worldsFile);
+			return null;
+		}
+
+		List<String> baseArguments = new ArrayList<>();
+		for (int i = 0; i < arguments.length; i++) {
+			if (arguments[i].equals("--worlds")) {
+				i++;
+			} else if (!arguments[i].startsWith("--worlds=")) {
+				baseArguments.add(arguments[i]);
+			}
+		}
+
+		List<Deployer> result = new ArrayList<>();
+		Set<File> outputs = new HashSet<>();
+		int n = 0;
+		for (Object entry : (List<?>) data) {
+			n++;
+			if (!(entry instanceof Map)) {
+				Log.error("World #{} in {} is not a map of options", n, worldsFile);
+				return null;
+			}
+			Map<String, Object> spec = new LinkedHashMap<>((Map<String, Object>) entry);
+			Object name = spec.remove("name");
+			List<String> worldArguments = new ArrayList<>(baseArguments);
+			spec.forEach((key, value) -> appendOption(worldArguments, key, value));
+
+			Deployer world = new Deployer();
+			try {
+				CommandLine commandLine = new CommandLine(world);
+				commandLine.setOverwrittenOptionsAllowed(true);
+				commandLine.parse(worldArguments.toArray(new String[0]));
+			} catch (CommandLine.ParameterException e) {
+				Log.error("World #{} in {}: {}", n, worldsFile, e.getMessage());
+				return null;
+			}
+			world.worldLabel = name != null ? name.toString() : world.output.getName();
+			world.serverListFile = new File(world.output, "servers.csv");// ./servers.csv would be shared by all worlds
+			if (!outputs.add(world.output.getCanonicalFile())) {
+				Log.error("World {} uses the same output directory as another world ({})", world.worldLabel, world.output);
+				return null;
 			}
-			System.exit(0);
+			result.add(world);
+		}
+		return result;
+	}
+
+	/* add a --worlds entry as command line option: flags for true, comma separated values for lists */
+	static void appendOption(List<String> arguments, String key, Object value) {
+		String option = key.startsWith("-") ? key : "--" + key;
+		if (value instanceof Boolean) {
+			if ((Boolean) value) {
+				arguments.add(option);
+			}
+			return;
+		}
+		arguments.add(option);
+		if (value instanceof Collection) {
+			StringBuilder joined = new StringBuilder();
+			for (Object element : (Collection<?>) value) {
+				if (joined.length() > 0) {
+					joined.append(',');
+				}
+				joined.append(element);
+			}
+			arguments.add(joined.toString());
+		} else {
+			arguments.add(String.valueOf(value));
 		}
 	}
 
@@ -425,7 +1328,7 @@ public class Deployer implements Callable<Boolean> {
 		}
 		File destPluginFile = new File(pluginDir, "MineTileRouter.jar");
 		if (!destPluginFile.exists() && mode.copyPlugins) {
-			FileUtils.copyFile(routerPluginFile, destPluginFile);
+			IoThrottle.copyFile(routerPluginFile, destPluginFile);
 		}
 		File pluginDataDir = new File(pluginDir, "MineTileRouter");
 		if (!pluginDataDir.exists()) {
@@ -437,28 +1340,49 @@ public class Deployer implements Callable<Boolean> {
 		}
 	}
 
-	private int handleSection(int x, int z, final int c, String[] currentServerEntry) throws IOException {
-		System.out.println("Section #" + c);
+	File getOutput() {
+		return output;
+	}
+
+	String getWorldName() {
+		return worldName;
+	}
 
+	String getContainerName(int x, int z, int c) {
 		String name = DEFAULT_NAME_FORMAT;
 		if (serverNames.length > 0) {
 			name = serverNames[c % serverNames.length];
 		}
-		name = name
+		return name
 				.replace("%x", "" + x)
 				.replace("%z", "" + z);
+	}
+
+	/**
+	 * @return whether a container was generated, <code>false</code> if the tile has no terrain
+	 */
+	private boolean handleSection(int x, int z, final int c, String[] currentServerEntry, CopyStats copyStats) throws IOException {
+		Log.debug("Section #{}", c);
+
+		String name = getContainerName(x, z, c);
 
 		currentServerEntry[1] = name;
 		currentServerEntry[4] = "" + x;
 		currentServerEntry[5] = "" + z;
 
-		File containerDir = new File(containersDir, name);
+		// Everything is generated in a temporary directory and only moved to its final name once complete
+		deleteTileOutput(name);
+		if (mode.copyWorld && !tileHasTerrain(x, z)) {
+			Log.debug("Tile {},{} has no terrain, skipping", x, z);
+			return false;
+		}
+		File containerDir = new File(containersDir, name + PARTIAL_SUFFIX);
 		containerDir.mkdir();
 
 		if (mode.copyServer) {
 			// Use server base if it exists
 			if (serverBase != null && serverBase.exists()) {
-				FileUtils.copyDirectory(serverBase, containerDir);
+				IoThrottle.copyDirectory(serverBase, containerDir);
 			}
 		}
 
@@ -470,10 +1394,12 @@ public class Deployer implements Callable<Boolean> {
 					l = l.replaceAll("--CONTAINER_VERSION--", containerVersion);
 					l = l.replaceAll("--SERVER_DOWNLOAD--", scriptServerDownload);
 					l = l.replaceAll("--SERVER_BASE--", scriptServerBase);
+					l = l.replaceAll("--CHUNK_STORE--", chunks != null ? getScriptChunkStore() : "");
 					writer.println(l);
 				}
 
-				writer.println("# Container init script, generated by MineTile Deployer on " + new Date().toString() + " #");
+				// no date, so an unchanged container is written the same way by every deployment (see DeployDiff)
+				writer.println("# Container init script, generated by MineTile Deployer #");
 			}
 		}
 
@@ -501,22 +1427,9 @@ public class Deployer implements Callable<Boolean> {
 			if (!worldDir.exists()) {
 				worldDir.mkdir();
 			}
-			File levelFile = new File(worldDir, "level.dat");
-			try {
-				writeLevelFile(levelFile, x, z, c);
-			} catch (Exception e) {
-				System.err.println("Failed to write new level.dat file");
-				e.printStackTrace();
-			}
-
-			File destRegionDir = new File(worldDir, "region");
-			if (!destRegionDir.exists()) {
-				destRegionDir.mkdir();
-			}
-
 			int tileSizeMca = (int) Math.ceil(tileSize / 32.0D);
 			int tileSizeMca2 = tileSizeMca * 2;
-			System.out.println("Copying and shifting " + tileSizeMca2 + "x" + tileSizeMca2 + " (" + (tileSizeMca2 * tileSizeMca2) + ") mca files...");
+			Log.debug("Copying and shifting {}x{} ({}) mca files...", tileSizeMca2, tileSizeMca2, tileSizeMca2 * tileSizeMca2);
 
 			// Surrounding chunks in every direction
 			//		tileSizeMca += 1;
@@ -527,29 +1440,108 @@ public class Deployer implements Callable<Boolean> {
 			int rx = tileSizeMca2 * x;
 			int rz = tileSizeMca2 * z;
 
-			int rC = 0;
-			for (int sx = -tileSizeMca - 1; sx <= tileSizeMca; sx++) {
-				for (int sz = -tileSizeMca - 1; sz <= tileSizeMca; sz++) {
-					int xx = rx + sx;
-					int zz = rz + sz;
-
-					System.out.println("[R]  [" + x + "," + z + "] " + xx + "," + zz + " -> " + sx + "," + sz + " (" + (++rC) + "/" + (tileSizeMca2 * tileSizeMca2) + ")");
-
-					File sourceRegionFile = new File(regionDirectory, "r." + xx + "." + zz + ".mca");
-					if (!sourceRegionFile.exists()) {
-						System.err.println("Region File for " + xx + "," + zz + " not found. Skipping!");
-					} else {
-						int r = copyMCAFile(sourceRegionFile, sx, sz, destRegionDir, rx, rz, c);
-						chunkCounter += r;
-						regionCounter++;
+			TileArea area = new TileArea(tileSizeMca, haloChunks);
+			int areaRegions = area.getMaxRegion() - area.getMinRegion() + 1;
+
+			// collect the source regions of all region folders first, so the next one can be read ahead
+			List<SourceRegion> sourceRegions = new ArrayList<>();
+			for (RegionFolder folder : regionFolders) {
+				int rC = 0;
+				for (int sx = area.getMinRegion(); sx <= area.getMaxRegion(); sx++) {
+					for (int sz = area.getMinRegion(); sz <= area.getMaxRegion(); sz++) {
+						int xx = rx + sx;
+						int zz = rz + sz;
+
+						Log.debug("[R]  [{},{}] {} {},{} -> {},{} ({}/{})", x, z, folder.getPath(), xx, zz, sx, sz, ++rC, areaRegions * areaRegions);
+
+						SourceRegion sourceRegion = findSourceRegion(folder, xx, zz, sx, sz);
+						if (sourceRegion == null) {
+							Log.debug("Region File for {} {},{} not found. Skipping!", folder.getPath(), xx, zz);
+						} else {
+							sourceRegions.add(sourceRegion);
+						}
 					}
 				}
 			}
 
+			List<String> manifest = chunks != null ? new ArrayList<>() : null;
+			Map<RegionFolder, int[]> folderCounts = new LinkedHashMap<>();
+			Future<?> readAhead = null;
+			for (int i = 0; i < sourceRegions.size(); i++) {
+				SourceRegion sourceRegion = sourceRegions.get(i);
+				if (readAheadExecutor != null) {
+					if (readAhead != null) {
+						readAhead.cancel(true);
+					}
+					if (i + 1 < sourceRegions.size()) {
+						readAhead = readAheadExecutor.submit(new RegionReadAhead(sourceRegions.get(i + 1).file));
+					}
+				}
+
+				RegionFolder folder = sourceRegion.folder;
+				File destRegionDir = new File(worldDir, folder.getPath());
+				if (manifest == null && !destRegionDir.exists()) {
+					destRegionDir.mkdirs();
+				}
+
+				long start = System.nanoTime();
+				long bytesRead = copyStats.bytesRead;
+				Object regionEvent = Flight.beginRegionCopy(folder.getPath(), sourceRegion.sourceX, sourceRegion.sourceZ, x, z);
+				int r;
+				try {
+					r = copyMCAFile(sourceRegion.file, sourceRegion.sx, sourceRegion.sz, destRegionDir, sourceRegion.sourceX, sourceRegion.sourceZ, x, z, folder, area, copyStats, manifest);
+				} catch (IOException | RuntimeException e) {
+					Flight.endRegionCopy(regionEvent, 0, copyStats.bytesRead - bytesRead, "failed");
+					throw e;
+				}
+				Flight.endRegionCopy(regionEvent, r, copyStats.bytesRead - bytesRead, "copied");
+				folder.nanos.addAndGet(System.nanoTime() - start);
+				copyStats.regions++;
+				copyStats.chunks += r;
+				folder.regionCount.incrementAndGet();
+				folder.chunkCount.addAndGet(r);
+
+				int[] counts = folderCounts.computeIfAbsent(folder, f -> new int[2]);
+				counts[0]++;
+				counts[1] += r;
+				if (folder.getKind() == RegionKind.TERRAIN && folder.getPath().equals(RegionKind.TERRAIN.folderName)) {
+					chunkCounter += r;
+					regionCounter++;
+				}
+			}
+
+			// after the regions, the spawn is taken from the copied chunks
+			File levelFile = new File(worldDir, "level.dat");
+			try {
+				writeLevelFile(levelFile, x, z, c);
+			} catch (Exception e) {
+				Log.error("Failed to write new level.dat file", e);
+			}
+
+			if (manifest != null) {
+				try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(containerDir, ChunkStore.MANIFEST_NAME)), StandardCharsets.UTF_8))) {
+					manifest.forEach(writer::println);
+				}
+			}
+
+			StringBuilder folderSummary = new StringBuilder();
+			folderCounts.forEach((folder, counts) -> folderSummary.append(" ").append(folder.getPath()).append("=").append(counts[0]).append("/").append(counts[1]));
+			Log.debug("[M]  [{},{}] regions/chunks per folder:{}", x, z, folderSummary);
+			if (isSlimming()) {
+				Log.info("[S]  [{},{}] slimmed chunk data from {} to {} ({} saved, uncompressed)", x, z,
+						ArchiveBenchmark.humanBytes(copyStats.bytesIn), ArchiveBenchmark.humanBytes(copyStats.bytesOut), ArchiveBenchmark.humanBytes(copyStats.bytesIn - copyStats.bytesOut));
+			}
+			totalChunkBytesIn.addAndGet(copyStats.bytesIn);
+			totalChunkBytesOut.addAndGet(copyStats.bytesOut);
+
 			currentServerEntry[6] = "" + regionCounter;
 			currentServerEntry[7] = "" + chunkCounter;
 		}
 
+		if (hotChunks != null) {
+			writePreloadList(new File(containerDir, "plugins/MineTileContainer/" + PRELOAD_FILE_NAME), x, z);
+		}
+
 		if (mode.updateConfig) {
 			// Plugin jar + container config
 			File pluginDir = new File(containerDir, "plugins");
@@ -558,7 +1550,7 @@ public class Deployer implements Callable<Boolean> {
 			}
 			File destPluginFile = new File(pluginDir, "MineTileContainer.jar");
 			if (!destPluginFile.exists() && mode.copyPlugins) {
-				FileUtils.copyFile(containerPluginFile, destPluginFile);
+				IoThrottle.copyFile(containerPluginFile, destPluginFile);
 			}
 			File pluginDataDir = new File(pluginDir, "MineTileContainer");
 			if (!pluginDataDir.exists()) {
@@ -568,28 +1560,78 @@ public class Deployer implements Callable<Boolean> {
 			writeConfigFor(pluginConfig, x, z, c, false, currentServerEntry);
 		}
 
-		if (mode.copyWorld && regionCounter == 0) {
-			// Delete empty container
-			containerDir.delete();
+		File targetDir = perHostDirectories ? new File(containersDir, currentServerEntry[2]) : containersDir;
+		targetDir.mkdirs();
+		if (archiveCodec != null) {
+			Log.debug("Creating Tarball...");
+			File tarFile = new File(targetDir, name + archiveCodec.extension);
+			File partialTarFile = new File(targetDir, tarFile.getName() + PARTIAL_SUFFIX);
+			long archiveMemory = acquireMemory(archiveCodec.estimateMemory(archiveLevel, zstdLong));
+			try (TarballMaker tarballMaker = new TarballMaker(partialTarFile, archiveCodec, archiveLevel, zstdLong)) {
+				tarballMaker.addRecursive(containerDir, "", name);
+			} finally {
+				memoryGovernor.release(archiveMemory);
+			}
+			try (FileChannel channel = FileChannel.open(partialTarFile.toPath(), StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			Files.move(partialTarFile.toPath(), tarFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+			FileUtils.deleteDirectory(containerDir);
 		} else {
-			if (gzip) {
-				System.out.println("Creating Tarball...");
-				File tarFile = new File(containersDir, name + ".tar.gz");
-				try (TarballMaker tarballMaker = new TarballMaker(tarFile)) {
-					tarballMaker.addRecursive(containerDir, "");
-				}
+			File finalDir = new File(targetDir, name);
+			Files.move(containerDir.toPath(), finalDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
 
-				if (perHostDirectories) {
-					FileUtils.moveFileToDirectory(tarFile, new File(containersDir, currentServerEntry[2]), true);
-				}
+		return true;
+	}
 
-				containerDir.delete();
-			} else if (perHostDirectories) {
-				FileUtils.moveDirectoryToDirectory(containerDir, new File(containersDir, currentServerEntry[2]), true);
+	/**
+	 * Queues the upload of a committed container, which is recorded in the journal once all of its files are stored.
+	 * Committed containers without that record are uploaded again by the next resumed run.
+	 */
+	void uploadTile(int x, int z, String name) {
+		for (File dir : getTileOutputDirs()) {
+			File archive = archiveCodec != null ? new File(dir, name + archiveCodec.extension) : null;
+			File folder = new File(dir, name);
+			CompletableFuture<Boolean> upload;
+			if (archive != null && archive.isFile()) {
+				upload = objectStore.upload(archive, outputKey(archive));
+			} else if (folder.isDirectory()) {
+				upload = objectStore.uploadTree(folder, outputKey(folder) + "/");
+			} else {
+				continue;
 			}
+			objectStore.whenUploaded(upload, () -> {
+				journal.uploaded(x, z, name);
+				return null;
+			});
+			return;
 		}
+		Log.warn("Container {} of tile {},{} not found, it can't be uploaded", name, x, z);
+	}
+
+	List<File> getTileOutputDirs() {
+		List<File> dirs = new ArrayList<>();
+		dirs.add(containersDir);
+		if (perHostDirectories) {
+			for (String host : serverHosts) {
+				dirs.add(new File(containersDir, host));
+			}
+		}
+		return dirs;
+	}
 
-		return regionCounter;
+	/* remove finished or partial output of a tile that is not committed in the journal */
+	void deleteTileOutput(String name) throws IOException {
+		for (File dir : getTileOutputDirs()) {
+			FileUtils.deleteQuietly(new File(dir, name + PARTIAL_SUFFIX));
+			FileUtils.deleteQuietly(new File(dir, name));
+			if (archiveCodec != null) {
+				FileUtils.deleteQuietly(new File(dir, name + archiveCodec.extension + PARTIAL_SUFFIX));
+				FileUtils.deleteQuietly(new File(dir, name + archiveCodec.extension));
+			}
+		}
 	}
 
 	void updateServerProperties(File propertiesFile, int x, int z, int c, String[] currentServerEntry) throws IOException {
@@ -613,8 +1655,12 @@ public class Deployer implements Callable<Boolean> {
 			currentServerEntry[3] = properties.getProperty("server-port");
 		}
 
+		// Properties#store always starts with a comment containing the current date, which would make every deployment differ from the last
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		properties.store(content, null);
+		String text = new String(content.toByteArray(), StandardCharsets.ISO_8859_1);
 		try (FileOutputStream out = new FileOutputStream(propertiesFile)) {
-			properties.store(out, null);
+			out.write(text.substring(text.indexOf('\n') + 1).getBytes(StandardCharsets.ISO_8859_1));
 		}
 	}
 
@@ -667,11 +1713,25 @@ public class Deployer implements Callable<Boolean> {
 		generatorOptionsTag.set("structures", new CompoundTag("structures"));
 		dataTag.set("generatorOptions", generatorOptionsTag);
 
-		if (overwriteGameRules) {
+		// gather and reshard need the spawn of the whole world, not the one of the tile
+		if (shardedSource != null) {
+			shardedSource.restoreSourceSpawn(dataTag);
+		}
+		ShardedWorld.writeSourceSpawn(new File(newLevelFile.getParentFile(), ShardedWorld.SOURCE_SPAWN_NAME), dataTag);
+		if (!sourceSpawn) {
+			setTileSpawn(dataTag, x, z);
+		}
+
+		if (overwriteGameRules || spawnChunkRadius >= 0) {
 			CompoundTag gameRulesTag = dataTag.getOrCreateCompound("GameRules");
 			if (gameRulesTag == null) { gameRulesTag = new CompoundTag("GameRules"); }
 			final CompoundTag finalGameRulesTag = gameRulesTag;
-			gameRuleOverrides.forEach((k, v) -> finalGameRulesTag.set(k, new StringTag(k, v)));
+			if (overwriteGameRules) {
+				gameRuleOverrides.forEach((k, v) -> finalGameRulesTag.set(k, new StringTag(k, v)));
+			}
+			if (spawnChunkRadius >= 0) {
+				finalGameRulesTag.set("spawnChunkRadius", new StringTag("spawnChunkRadius", String.valueOf(spawnChunkRadius)));
+			}
 			dataTag.set("GameRules", finalGameRulesTag);
 		}
 
@@ -682,6 +1742,30 @@ public class Deployer implements Callable<Boolean> {
 		}
 	}
 
+	/* moves the spawn into the tile: the source spawn if the tile contains it, otherwise the spawn found in the tile's chunks */
+	void setTileSpawn(CompoundTag dataTag, int x, int z) {
+		SpawnTransformer.Spawn spawn = spawns != null ? spawns.takeTile(x, z) : null;
+		int tileBlocks = (int) Math.ceil(tileSize / 32.0D) * 64 * 16;
+		NBTTag<?> spawnX = dataTag.get("SpawnX");
+		NBTTag<?> spawnZ = dataTag.get("SpawnZ");
+		if (spawnX != null && spawnZ != null && spawnX.getValue() instanceof Number && spawnZ.getValue() instanceof Number) {
+			int sourceX = ((Number) spawnX.getValue()).intValue();
+			int sourceZ = ((Number) spawnZ.getValue()).intValue();
+			if (Math.floorDiv(sourceX + tileBlocks / 2, tileBlocks) == x && Math.floorDiv(sourceZ + tileBlocks / 2, tileBlocks) == z) {
+				dataTag.set("SpawnX", new IntTag("SpawnX", sourceX - x * tileBlocks));
+				dataTag.set("SpawnZ", new IntTag("SpawnZ", sourceZ - z * tileBlocks));
+				return;
+			}
+		}
+		if (spawn == null) {
+			Log.debug("No chunk of tile {},{} has a heightmap, keeping the source spawn", x, z);
+			return;
+		}
+		dataTag.set("SpawnX", new IntTag("SpawnX", spawn.x));
+		dataTag.set("SpawnY", new IntTag("SpawnY", spawn.y));
+		dataTag.set("SpawnZ", new IntTag("SpawnZ", spawn.z));
+	}
+
 	void writeConfigFor(File pluginConfig, int x, int z, int c, boolean bungee, String[] currentServerEntry) throws IOException {
 		Map<String, Object> config = new HashMap<String, Object>(baseConfigData);
 		if (!bungee) {
@@ -702,13 +1786,16 @@ public class Deployer implements Callable<Boolean> {
 			tileConfig.put("z", z);
 			config.put("tile", tileConfig);
 
-			UUID id = UUID.randomUUID();
+			// derived from the container, so it stays the same when the container is deployed again
+			UUID id = UUID.nameUUIDFromBytes((currentServerEntry[1] + ":" + x + "," + z).getBytes(StandardCharsets.UTF_8));
 			currentServerEntry[0] = id.toString();
 			config.put("serverId", id.toString());
 		}else{
 			Map<String, Object> defaultsMap = (Map<String, Object>) config.getOrDefault("defaults", new HashMap<>());
 			defaultsMap.put("tileSize", tileSize);
+			defaultsMap.put("haloChunks", haloChunks);// for verify
 			config.put("defaults", defaultsMap);
+			config.put("lookupTable", RouterTable.FILE_NAME);
 		}
 
 		try (FileWriter writer = new FileWriter(pluginConfig)) {
@@ -716,96 +1803,191 @@ public class Deployer implements Callable<Boolean> {
 		}
 	}
 
-	int copyMCAFile(File in, int tileX, int tileZ, File targetDir, int x, int z, int c) throws IOException {
+	/**
+	 * @param manifest lines of the container's chunk manifest, to store the chunks in the chunk store instead of writing a region file, or <code>null</code>
+	 */
+	int copyMCAFile(File in, int tileX, int tileZ, File targetDir, int sourceX, int sourceZ, int sectionX, int sectionZ, RegionFolder folder, TileArea area, CopyStats stats, List<String> manifest) throws IOException {
+		RegionKind kind = folder.getKind();
+		ChunkTransformPipeline transformPipeline = transformPipelines.get(kind);
 		int r = 0;
 
 		File out = new File(targetDir, "r." + tileX + "." + tileZ + ".mca");
 		if (out.exists()) {
 			out.delete();
 		}
-
-		//		FileUtils.copyFile(in, out);
+		ChunkStore.Region storedRegion = manifest != null ? chunks.region() : null;
 
 		try (RegionFile regionInFile = new RegionFile(in)) {
-			try (RegionFile regionOutFile = new RegionFile(out)) {
-				for (int cX = 0; cX < 32; cX++) {
-					for (int cZ = 0; cZ < 32; cZ++) {
-						//				int offset = getOffset(offsets, cX, cZ);
-						//				int sector = offset >> 8;
-						//				raf.seek(sector * SECTOR_BYTES);
-						//				int length = raf.readInt();
-
-						//				int offset = regionInFile.getOffset(cX, cZ);
-						//				regionOutFile.setOffset(cX, cZ, offset);
-
-						try (DataInputStream inStream = regionInFile.getChunkDataInputStream(cX, cZ)) {
-							if (inStream != null) {
-								try (DataOutputStream outStream = regionOutFile.getChunkDataOutputStream(cX, cZ)) {
-									if (outStream != null) {
-										try (NBTInputStream nbtIn = new NBTInputStream(inStream)) {
-											CompoundTag rootTag = (CompoundTag) nbtIn.readNBTTag();
-											if (rootTag != null) {
-												CompoundTag levelTag = rootTag.getCompound("Level");
-												try (NBTOutputStream nbtOut = new NBTOutputStream(outStream)) {
-													if (levelTag != null) {
-														levelTag.set("xPos", cX + tileX * 32);
-														levelTag.set("zPos", cZ + tileZ * 32);
-
-														//// TODO: fix entity loations
-
-														if (levelTag.has("Entities")) {
-															ListTag entitiesList = levelTag.getList("Entities");
-															entitiesList.forEach((entity) -> {
-																ListTag<DoubleTag> posList = ((CompoundTag) entity).getList("Pos", DoubleTag.class);
-																posList.set(0, new DoubleTag(posList.get(0).getValue() - x * 32 * 16));
-																posList.set(2, new DoubleTag(posList.get(2).getValue() - z * 32 * 16));
-																((CompoundTag) entity).set("Pos", posList);
-															});
-															levelTag.set("Entities", entitiesList);
-														}
-
-														if (levelTag.has("TileEntities")) {
-															ListTag tileEntitiesList = levelTag.getList("TileEntities");
-															tileEntitiesList.forEach((entity) -> {
-																((CompoundTag) entity).set("x", ((CompoundTag) entity).get("x").getAsDouble() - x * 32 * 16);
-																((CompoundTag) entity).set("z", ((CompoundTag) entity).get("z").getAsDouble() - z * 32 * 16);
-															});
-															levelTag.set("TileEntities", tileEntitiesList);
-														}
-
-														if (levelTag.has("TileTicks")) {
-															ListTag tileTicksList = levelTag.getList("TileTicks");
-															tileTicksList.forEach((tick) -> {
-																((CompoundTag) tick).set("x", ((CompoundTag) tick).get("x").getAsDouble() - x * 32 * 16);
-																((CompoundTag) tick).set("z", ((CompoundTag) tick).get("z").getAsDouble() - z * 32 * 16);
-															});
-															levelTag.set("TileTicks", tileTicksList);
-														}
-
-														rootTag.set("Level", levelTag);
-														nbtOut.writeTag(rootTag);
-
-														r++;
-													}
-												} catch (Exception e) {
-													e.printStackTrace();
-												}
-											}
-										} catch (Exception e) {
-											e.printStackTrace();
-										}
-									}
+			try (RegionWriter regionOutFile = storedRegion == null ? new RegionWriter(out) : null) {
+				ByteArrayOutputStream chunkBuffer = new ByteArrayOutputStream(64 * 1024);
+				// read chunks in the order they are stored in the file, the output slots stay the same
+				for (RegionReadPlan.Run run : new RegionReadPlan(regionInFile, slot -> area.containsSlot(tileX, tileZ, slot)).getRuns()) {
+					long runMemory = acquireMemory((long) run.getSectorCount() * 4096 * MemoryGovernor.CHUNK_MEMORY_FACTOR);
+					try {
+						byte[] sectors = regionInFile.readSectors(run.getFirstSector(), run.getSectorCount());
+						stats.bytesRead += sectors.length;
+						for (int i = 0; i < run.getSlotCount(); i++) {
+							int cX = run.getSlot(i) % 32;
+							int cZ = run.getSlot(i) / 32;
+							try (DataInputStream inStream = regionInFile.getChunkDataInputStream(cX, cZ, sectors, run.getFirstSector())) {
+								if (inStream == null) {
+									continue;
+								}
+								ChunkContext context = new ChunkContext(kind, folder.getDimension(), sectionX, sectionZ,
+										sourceX * 32 + cX, sourceZ * 32 + cZ,
+										tileX * 32 + cX, tileZ * 32 + cZ,
+										area.isHalo(tileX * 32 + cX, tileZ * 32 + cZ));
+
+								// transform into memory first, so a broken chunk doesn't leave partial data in the region
+								chunkBuffer.reset();
+								Object chunkEvent = Flight.beginChunk(kind, context.getChunkX(), context.getChunkZ());
+								Flight.TimedInputStream timedIn = chunkEvent != null ? new Flight.TimedInputStream(inStream) : null;
+								CountingInputStream countingIn = new CountingInputStream(timedIn != null ? timedIn : inStream);
+								long transformStart = chunkEvent != null ? System.nanoTime() : 0;
+								try {
+									transformPipeline.transform(context, new DataInputStream(countingIn), new DataOutputStream(chunkBuffer));
+								} catch (Exception e) {
+									Flight.endChunk(chunkEvent, countingIn.getByteCount(), 0, timedIn != null ? timedIn.nanos : 0, System.nanoTime() - transformStart, 0, "failed");
+									Log.error("Failed to transform chunk {},{} of {}", cX, cZ, in, e);
+									continue;
+								}
+
+								long deflateStart = chunkEvent != null ? System.nanoTime() : 0;
+								boolean written = storedRegion != null
+										? storedRegion.add(run.getSlot(i), chunkBuffer, regionInFile.getTimestamp(cX, cZ))
+										: regionOutFile.writeChunk(cX, cZ, chunkBuffer);
+								if (chunkEvent != null) {
+									Flight.endChunk(chunkEvent, countingIn.getByteCount(), chunkBuffer.size(), timedIn.nanos, deflateStart - transformStart, System.nanoTime() - deflateStart, written ? "relocated" : "too large");
 								}
+								if (!written) {
+									continue;
+								}
+								stats.bytesIn += countingIn.getByteCount();
+								stats.bytesOut += chunkBuffer.size();
+								r++;
 							}
 						}
+					} finally {
+						memoryGovernor.release(runMemory);
 					}
 				}
 			}
 		}
+		if (storedRegion != null) {
+			String line = storedRegion.finish(worldName + "/" + folder.getPath() + "/" + out.getName());
+			if (line != null) {
+				manifest.add(line);
+			}
+		}
 
 		return r;
 	}
 
+	long acquireMemory(long bytes) throws IOException {
+		try {
+			return memoryGovernor.acquire(bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for memory");
+		}
+	}
+
+	boolean isSlimming() {
+		return slim || slimLight || slimHeightmaps;
+	}
+
+	Map<RegionKind, ChunkTransformPipeline> createTransformPipelines() {
+		Map<String, ChunkTransformer> available = new LinkedHashMap<>();
+		for (ChunkTransformer transformer : ServiceLoader.load(ChunkTransformer.class)) {
+			available.put(transformer.getName(), transformer);
+		}
+
+		List<ChunkTransformer> transformers = new ArrayList<>();
+		ChunkTransformer relocation = available.get(RelocationTransformer.NAME);
+		transformers.add(relocation != null ? relocation : new RelocationTransformer());
+
+		List<String> names = new ArrayList<>(Arrays.asList(transformerNames));
+		if (!sourceSpawn && mode.copyWorld) {
+			// first, so the heightmaps are read before another transformer drops them
+			spawns = new SpawnTransformer();
+			available.put(SpawnTransformer.NAME, spawns);
+			names.add(0, SpawnTransformer.NAME);
+		}
+		if (stripHalo) {
+			names.add(HaloStripTransformer.NAME);
+		}
+		if (preloadChunks > 0) {
+			hotChunks = new HotChunkTransformer();
+			available.put(HotChunkTransformer.NAME, hotChunks);
+			names.add(HotChunkTransformer.NAME);
+		}
+		if (isSlimming()) {
+			// configured by the options instead of the default instance
+			available.put(SlimTransformer.NAME, new SlimTransformer(slimLight, slimHeightmaps));
+			names.add(SlimTransformer.NAME);
+		}
+		for (String name : names) {
+			ChunkTransformer transformer = available.get(name);
+			if (transformer == null) {
+				// not registered as a service, try to load it as a class name
+				try {
+					transformer = (ChunkTransformer) Class.forName(name).getDeclaredConstructor().newInstance();
+				} catch (ReflectiveOperationException | ClassCastException e) {
+					throw new IllegalArgumentException("Unknown chunk transformer '" + name + "' (available: " + available.keySet() + ")", e);
+				}
+			}
+			if (!transformers.contains(transformer)) {
+				transformers.add(transformer);
+			}
+		}
+
+		Map<RegionKind, ChunkTransformPipeline> pipelines = new EnumMap<>(RegionKind.class);
+		for (RegionKind kind : RegionKind.values()) {
+			pipelines.put(kind, new ChunkTransformPipeline(kind, transformers));
+		}
+		return pipelines;
+	}
+
+	/* uncompressed chunk data read and written for a tile */
+	static class CopyStats {
+		int  regions;// of all region folders
+		long chunks;
+		long bytesRead;// compressed, from the source region files
+		long bytesIn;
+		long bytesOut;
+	}
+
+	/* the region file for the source region xx,zz, or null if the source world doesn't have it */
+	SourceRegion findSourceRegion(RegionFolder folder, int xx, int zz, int sx, int sz) {
+		if (shardedSource != null) {
+			ShardedWorld.Region region = shardedSource.getRegion(folder, xx, zz);
+			return region != null ? new SourceRegion(folder, region.file, region.x, region.z, sx, sz) : null;
+		}
+		File sourceRegionFile = folder.getRegionFile(xx, zz);
+		if (worldIndex != null ? !worldIndex.hasRegion(folder, xx, zz) : !sourceRegionFile.exists()) {
+			return null;
+		}
+		return new SourceRegion(folder, sourceRegionFile, xx, zz, sx, sz);
+	}
+
+	static class SourceRegion {
+		final RegionFolder folder;
+		final File         file;
+		final int          sourceX;// coordinates of the region in the file's own world (differ from the world coordinates when resharding)
+		final int          sourceZ;
+		final int          sx;
+		final int          sz;
+
+		SourceRegion(RegionFolder folder, File file, int sourceX, int sourceZ, int sx, int sz) {
+			this.folder = folder;
+			this.file = file;
+			this.sourceX = sourceX;
+			this.sourceZ = sourceZ;
+			this.sx = sx;
+			this.sz = sz;
+		}
+	}
+
 	String[] loadLinesFromFile(File file) throws IOException {
 		List<String> lines = new ArrayList<>();
 		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
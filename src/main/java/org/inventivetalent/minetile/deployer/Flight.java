@@ -0,0 +1,172 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.*;
+
+/**
+ * Emits the {@link FlightEvents} when Java Flight Recorder is available and recording them.
+ * <p>
+ * The begin methods return an opaque handle, or <code>null</code> if the event isn't recorded, which the matching end method commits.
+ * Callers never touch the event classes themselves. {@link FlightEvents} is loaded by name, so nothing of <code>jdk.jfr</code> is needed to build or run the rest of the deployer,
+ * and an event that isn't enabled costs one check.
+ */
+final class Flight {
+
+	/* bundled settings: all MineTile events plus GC, CPU and file I/O at low overhead */
+	static final String SETTINGS_RESOURCE = "/jfr/minetile.jfc";
+
+	/* null if JFR is missing, or FlightEvents wasn't compiled because the JDK that built the deployer didn't have jdk.jfr */
+	static final Recorder RECORDER = loadRecorder();
+
+	private Flight() {
+	}
+
+	private static Recorder loadRecorder() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			Recorder recorder = (Recorder) Class.forName(Flight.class.getName() + "Events$JfrRecorder").getDeclaredConstructor().newInstance();
+			return recorder.isAvailable() ? recorder : null;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	static Object beginTile(int tileX, int tileZ, String container) {
+		return RECORDER != null ? RECORDER.beginTile(tileX, tileZ, container) : null;
+	}
+
+	static void endTile(Object handle, int regions, long chunks, long bytesRead, long bytesIn, long bytesOut, String outcome) {
+		if (handle == null) { return; }
+		RECORDER.endTile(handle, regions, chunks, bytesRead, bytesIn, bytesOut, outcome);
+	}
+
+	static Object beginRegionCopy(String folder, int sourceX, int sourceZ, int tileX, int tileZ) {
+		return RECORDER != null ? RECORDER.beginRegionCopy(folder, sourceX, sourceZ, tileX, tileZ) : null;
+	}
+
+	static void endRegionCopy(Object handle, int chunks, long bytesRead, String outcome) {
+		if (handle == null) { return; }
+		RECORDER.endRegionCopy(handle, chunks, bytesRead, outcome);
+	}
+
+	static Object beginChunk(RegionKind kind, int chunkX, int chunkZ) {
+		return RECORDER != null ? RECORDER.beginChunk(kind.name(), chunkX, chunkZ) : null;
+	}
+
+	/**
+	 * @param inflateNanos   time spent reading the decompressing input stream
+	 * @param transformNanos time of the whole transformation, including inflateNanos
+	 */
+	static void endChunk(Object handle, long bytesIn, long bytesOut, long inflateNanos, long transformNanos, long deflateNanos, String outcome) {
+		if (handle == null) { return; }
+		RECORDER.endChunk(handle, bytesIn, bytesOut, inflateNanos, transformNanos, deflateNanos, outcome);
+	}
+
+	static Object beginRegionWrite(String file, int chunkX, int chunkZ, long bytes) {
+		return RECORDER != null ? RECORDER.beginRegionWrite(file, chunkX, chunkZ, bytes) : null;
+	}
+
+	static void endRegionWrite(Object handle, int sectors, String allocation) {
+		if (handle == null) { return; }
+		RECORDER.endRegionWrite(handle, sectors, allocation);
+	}
+
+	static Object beginArchiveEntry(String entry) {
+		return RECORDER != null ? RECORDER.beginArchiveEntry(entry) : null;
+	}
+
+	static void endArchiveEntry(Object handle, long bytes, String outcome) {
+		if (handle == null) { return; }
+		RECORDER.endArchiveEntry(handle, bytes, outcome);
+	}
+
+	/**
+	 * Starts a recording with the bundled settings that is written to the destination when stopped (or when the JVM exits)
+	 *
+	 * @return handle for {@link #stopRecording(Object)}
+	 */
+	static Object startRecording(File destination) throws IOException {
+		if (RECORDER == null) {
+			throw new IOException("Java Flight Recorder is not available, it needs a JVM with jdk.jfr (8u262+) and a deployer built on one");
+		}
+		return RECORDER.startRecording(destination);
+	}
+
+	static void stopRecording(Object handle) {
+		if (handle == null) { return; }
+		RECORDER.stopRecording(handle);
+	}
+
+	/**
+	 * The JFR side of this class, implemented by {@link FlightEvents} which is the only class that uses <code>jdk.jfr</code>.
+	 * Begin methods return <code>null</code> if their event isn't enabled.
+	 */
+	interface Recorder {
+		boolean isAvailable();
+
+		Object beginTile(int tileX, int tileZ, String container);
+
+		void endTile(Object handle, int regions, long chunks, long bytesRead, long bytesIn, long bytesOut, String outcome);
+
+		Object beginRegionCopy(String folder, int sourceX, int sourceZ, int tileX, int tileZ);
+
+		void endRegionCopy(Object handle, int chunks, long bytesRead, String outcome);
+
+		Object beginChunk(String kind, int chunkX, int chunkZ);
+
+		void endChunk(Object handle, long bytesIn, long bytesOut, long inflateNanos, long transformNanos, long deflateNanos, String outcome);
+
+		Object beginRegionWrite(String file, int chunkX, int chunkZ, long bytes);
+
+		void endRegionWrite(Object handle, int sectors, String allocation);
+
+		Object beginArchiveEntry(String entry);
+
+		void endArchiveEntry(Object handle, long bytes, String outcome);
+
+		Object startRecording(File destination) throws IOException;
+
+		void stopRecording(Object handle);
+	}
+
+	/**
+	 * Accumulates the time spent in reads, to tell decompression apart from the NBT processing that consumes the stream
+	 */
+	static class TimedInputStream extends FilterInputStream {
+		long nanos;
+
+		TimedInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			try {
+				return super.read();
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			try {
+				return super.read(b, off, len);
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long start = System.nanoTime();
+			try {
+				return super.skip(n);
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+	}
+
+}
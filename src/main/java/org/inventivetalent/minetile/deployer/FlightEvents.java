@@ -0,0 +1,285 @@
+package org.inventivetalent.minetile.deployer;
+
+import jdk.jfr.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Java Flight Recorder events of the deployer, only used through {@link Flight} so the deployer still runs on JVMs without JFR.
+ * <p>
+ * This is the only class that uses <code>jdk.jfr</code> (8u262+), the build compiles it separately and carries on without it on older JDKs.
+ */
+final class FlightEvents {
+
+	private FlightEvents() {
+	}
+
+	static final class JfrRecorder implements Flight.Recorder {
+
+		@Override
+		public boolean isAvailable() {
+			return FlightRecorder.isAvailable();
+		}
+
+		@Override
+		public Object beginTile(int tileX, int tileZ, String container) {
+			TileEvent event = new TileEvent();
+			if (!event.isEnabled()) { return null; }
+			event.tileX = tileX;
+			event.tileZ = tileZ;
+			event.container = container;
+			event.begin();
+			return event;
+		}
+
+		@Override
+		public void endTile(Object handle, int regions, long chunks, long bytesRead, long bytesIn, long bytesOut, String outcome) {
+			TileEvent event = (TileEvent) handle;
+			event.end();
+			event.regions = regions;
+			event.chunks = chunks;
+			event.bytesRead = bytesRead;
+			event.bytesIn = bytesIn;
+			event.bytesOut = bytesOut;
+			event.outcome = outcome;
+			event.commit();
+		}
+
+		@Override
+		public Object beginRegionCopy(String folder, int sourceX, int sourceZ, int tileX, int tileZ) {
+			RegionCopyEvent event = new RegionCopyEvent();
+			if (!event.isEnabled()) { return null; }
+			event.folder = folder;
+			event.sourceX = sourceX;
+			event.sourceZ = sourceZ;
+			event.tileX = tileX;
+			event.tileZ = tileZ;
+			event.begin();
+			return event;
+		}
+
+		@Override
+		public void endRegionCopy(Object handle, int chunks, long bytesRead, String outcome) {
+			RegionCopyEvent event = (RegionCopyEvent) handle;
+			event.end();
+			event.chunks = chunks;
+			event.bytesRead = bytesRead;
+			event.outcome = outcome;
+			event.commit();
+		}
+
+		@Override
+		public Object beginChunk(String kind, int chunkX, int chunkZ) {
+			ChunkEvent event = new ChunkEvent();
+			if (!event.isEnabled()) { return null; }
+			event.kind = kind;
+			event.chunkX = chunkX;
+			event.chunkZ = chunkZ;
+			event.begin();
+			return event;
+		}
+
+		@Override
+		public void endChunk(Object handle, long bytesIn, long bytesOut, long inflateNanos, long transformNanos, long deflateNanos, String outcome) {
+			ChunkEvent event = (ChunkEvent) handle;
+			event.end();
+			event.bytesIn = bytesIn;
+			event.bytesOut = bytesOut;
+			event.inflateTime = inflateNanos;
+			event.nbtTime = Math.max(0, transformNanos - inflateNanos);
+			event.deflateTime = deflateNanos;
+			event.outcome = outcome;
+			event.commit();
+		}
+
+		@Override
+		public Object beginRegionWrite(String file, int chunkX, int chunkZ, long bytes) {
+			RegionWriteEvent event = new RegionWriteEvent();
+			if (!event.isEnabled()) { return null; }
+			event.file = file;
+			event.chunkX = chunkX;
+			event.chunkZ = chunkZ;
+			event.bytes = bytes;
+			event.begin();
+			return event;
+		}
+
+		@Override
+		public void endRegionWrite(Object handle, int sectors, String allocation) {
+			RegionWriteEvent event = (RegionWriteEvent) handle;
+			event.end();
+			event.sectors = sectors;
+			event.allocation = allocation;
+			event.commit();
+		}
+
+		@Override
+		public Object beginArchiveEntry(String entry) {
+			ArchiveEntryEvent event = new ArchiveEntryEvent();
+			if (!event.isEnabled()) { return null; }
+			event.entry = entry;
+			event.begin();
+			return event;
+		}
+
+		@Override
+		public void endArchiveEntry(Object handle, long bytes, String outcome) {
+			ArchiveEntryEvent event = (ArchiveEntryEvent) handle;
+			event.end();
+			event.bytes = bytes;
+			event.outcome = outcome;
+			event.commit();
+		}
+
+		@Override
+		public Object startRecording(File destination) throws IOException {
+			Configuration configuration;
+			try (Reader reader = new InputStreamReader(Flight.class.getResourceAsStream(Flight.SETTINGS_RESOURCE), StandardCharsets.UTF_8)) {
+				configuration = Configuration.create(reader);
+			} catch (java.text.ParseException e) {
+				throw new IOException("Invalid bundled JFR settings", e);
+			}
+			Recording recording = new Recording(configuration);
+			recording.setName("MineTile");
+			recording.setToDisk(true);
+			recording.setDumpOnExit(true);
+			recording.setDestination(destination.toPath());
+			recording.start();
+			return recording;
+		}
+
+		@Override
+		public void stopRecording(Object handle) {
+			((Recording) handle).stop();
+		}
+	}
+
+	@Name("minetile.Tile")
+	@Label("Tile")
+	@Category({ "MineTile", "Deploy" })
+	@Description("Generation of one container")
+	@StackTrace(false)
+	static class TileEvent extends Event {
+		@Label("Tile X")
+		int    tileX;
+		@Label("Tile Z")
+		int    tileZ;
+		@Label("Container")
+		String container;
+		@Label("Regions")
+		int    regions;
+		@Label("Chunks")
+		long   chunks;
+		@Label("Bytes Read")
+		@DataAmount
+		long   bytesRead;
+		@Label("Chunk Bytes In")
+		@Description("Uncompressed size of the source chunks")
+		@DataAmount
+		long   bytesIn;
+		@Label("Chunk Bytes Out")
+		@Description("Uncompressed size of the written chunks")
+		@DataAmount
+		long   bytesOut;
+		@Label("Outcome")
+		String outcome;
+	}
+
+	@Name("minetile.RegionCopy")
+	@Label("Region Copy")
+	@Category({ "MineTile", "Region" })
+	@Description("Reading one source region and writing it into a container")
+	@StackTrace(false)
+	static class RegionCopyEvent extends Event {
+		@Label("Folder")
+		String folder;
+		@Label("Source Region X")
+		int    sourceX;
+		@Label("Source Region Z")
+		int    sourceZ;
+		@Label("Tile X")
+		int    tileX;
+		@Label("Tile Z")
+		int    tileZ;
+		@Label("Chunks")
+		int    chunks;
+		@Label("Bytes Read")
+		@DataAmount
+		long   bytesRead;
+		@Label("Outcome")
+		String outcome;
+	}
+
+	@Name("minetile.ChunkRelocate")
+	@Label("Chunk Relocation")
+	@Category({ "MineTile", "Chunk" })
+	@Description("Decompressing, transforming and compressing one chunk")
+	@StackTrace(false)
+	static class ChunkEvent extends Event {
+		@Label("Kind")
+		String kind;
+		@Label("Chunk X")
+		@Description("Chunk X-coordinate in the container")
+		int    chunkX;
+		@Label("Chunk Z")
+		@Description("Chunk Z-coordinate in the container")
+		int    chunkZ;
+		@Label("Bytes In")
+		@DataAmount
+		long   bytesIn;
+		@Label("Bytes Out")
+		@DataAmount
+		long   bytesOut;
+		@Label("Inflate")
+		@Timespan(Timespan.NANOSECONDS)
+		long   inflateTime;
+		@Label("NBT")
+		@Description("Parsing, transforming and writing the NBT data")
+		@Timespan(Timespan.NANOSECONDS)
+		long   nbtTime;
+		@Label("Deflate")
+		@Timespan(Timespan.NANOSECONDS)
+		long   deflateTime;
+		@Label("Outcome")
+		String outcome;
+	}
+
+	@Name("minetile.RegionWrite")
+	@Label("Region Write")
+	@Category({ "MineTile", "Region" })
+	@Description("Allocating sectors for a chunk and writing it into a region file")
+	@StackTrace(false)
+	static class RegionWriteEvent extends Event {
+		@Label("File")
+		String file;
+		@Label("Chunk X")
+		int    chunkX;
+		@Label("Chunk Z")
+		int    chunkZ;
+		@Label("Bytes")
+		@DataAmount
+		long   bytes;
+		@Label("Sectors")
+		int    sectors;
+		@Label("Allocation")
+		@Description("rewrite: same sectors, reuse: free sectors, grow: appended to the file")
+		String allocation;
+	}
+
+	@Name("minetile.ArchiveEntry")
+	@Label("Archive Entry")
+	@Category({ "MineTile", "Archive" })
+	@Description("Adding one file to a container archive")
+	@StackTrace(false)
+	static class ArchiveEntryEvent extends Event {
+		@Label("Entry")
+		String entry;
+		@Label("Bytes")
+		@DataAmount
+		long   bytes;
+		@Label("Outcome")
+		String outcome;
+	}
+
+}
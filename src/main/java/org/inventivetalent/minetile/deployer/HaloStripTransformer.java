@@ -0,0 +1,90 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.inventivetalent.nbt.CompoundTag;
+import org.inventivetalent.nbt.ListTag;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes halo chunks in a stripped form: no entities, tile entities, scheduled ticks or light data.
+ * Players never reach the halo, it only has to look right from the tile, so the server has less to load and tick. Light is recalculated by the server.
+ */
+public class HaloStripTransformer implements ChunkTransformer {
+
+	static final String NAME = "strip-halo";
+
+	private static final Set<String> TOUCHED_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"Entities",
+			"TileEntities", "block_entities",
+			"TileTicks", "LiquidTicks", "block_ticks", "fluid_ticks",
+			"Sections", "sections",
+			"isLightOn", "LightPopulated")));
+
+	private static final Set<String> ENTITY_TOUCHED_TAGS = Collections.singleton("Entities");
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Set<String> getTouchedTags() {
+		return TOUCHED_TAGS;
+	}
+
+	@Override
+	public Set<String> getTouchedTags(RegionKind kind) {
+		return kind == RegionKind.ENTITIES ? ENTITY_TOUCHED_TAGS : TOUCHED_TAGS;
+	}
+
+	@Override
+	public boolean appliesTo(RegionKind kind) {
+		return kind == RegionKind.TERRAIN || kind == RegionKind.ENTITIES;
+	}
+
+	@Override
+	public boolean appliesTo(ChunkContext context) {
+		return context.isHalo();
+	}
+
+	@Override
+	public void transform(ChunkContext context, CompoundTag data) {
+		if (context.getKind() == RegionKind.ENTITIES) {
+			data.getValue().remove("Entities");
+			return;
+		}
+
+		data.getValue().remove("Entities");
+		data.getValue().remove("TileEntities");
+		data.getValue().remove("block_entities");
+		data.getValue().remove("TileTicks");
+		data.getValue().remove("LiquidTicks");
+		data.getValue().remove("block_ticks");
+		data.getValue().remove("fluid_ticks");
+
+		stripLight(data, "Sections");
+		stripLight(data, "sections");
+		// make the server relight the chunk
+		if (data.has("isLightOn")) {
+			data.set("isLightOn", (byte) 0);
+		}
+		if (data.has("LightPopulated")) {
+			data.set("LightPopulated", (byte) 0);
+		}
+	}
+
+	static void stripLight(CompoundTag data, String sectionsName) {
+		if (!data.has(sectionsName)) {
+			return;
+		}
+		ListTag<CompoundTag> sections = data.getList(sectionsName, CompoundTag.class);
+		for (CompoundTag section : sections) {
+			section.getValue().remove("BlockLight");
+			section.getValue().remove("SkyLight");
+		}
+	}
+
+}
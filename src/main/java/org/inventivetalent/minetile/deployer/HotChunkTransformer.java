@@ -0,0 +1,121 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.inventivetalent.nbt.CompoundTag;
+import org.inventivetalent.nbt.ListTag;
+import org.inventivetalent.nbt.NBTTag;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Doesn't change any chunk, but records how much each chunk of a tile was played in, so the hottest chunks can be preloaded when the container starts.
+ * <p>
+ * Chunks are ranked by <code>InhabitedTime</code> (the ticks players spent near the chunk), chunks with the same time by their number of entities and tile entities.
+ * Chunks without either are never listed, neither are halo chunks since players can't reach them.
+ */
+public class HotChunkTransformer implements ChunkTransformer {
+
+	static final String NAME = "hot-chunks";
+
+	private static final Set<String> TOUCHED_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"InhabitedTime",
+			"Entities",
+			"TileEntities", "block_entities")));
+
+	private static final Set<String> ENTITY_TOUCHED_TAGS = Collections.singleton("Entities");
+
+	private static final Comparator<Heat> HOTTEST_FIRST = Comparator.comparingLong((Heat heat) -> heat.inhabitedTime)
+			.thenComparingInt(heat -> heat.entities + heat.tileEntities)
+			.reversed()
+			.thenComparing(heat -> heat.dimension)
+			.thenComparingInt(heat -> heat.chunkZ)
+			.thenComparingInt(heat -> heat.chunkX);
+
+	private final Map<Long, Map<String, Heat>> tiles = new ConcurrentHashMap<>();
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Set<String> getTouchedTags() {
+		return TOUCHED_TAGS;
+	}
+
+	@Override
+	public Set<String> getTouchedTags(RegionKind kind) {
+		return kind == RegionKind.ENTITIES ? ENTITY_TOUCHED_TAGS : TOUCHED_TAGS;
+	}
+
+	@Override
+	public boolean appliesTo(RegionKind kind) {
+		// 1.17+ keeps the entities in their own region folder
+		return kind == RegionKind.TERRAIN || kind == RegionKind.ENTITIES;
+	}
+
+	@Override
+	public boolean appliesTo(ChunkContext context) {
+		return !context.isHalo();
+	}
+
+	@Override
+	public void transform(ChunkContext context, CompoundTag data) {
+		NBTTag<?> inhabited = data.get("InhabitedTime");
+		long inhabitedTime = inhabited != null && inhabited.getValue() instanceof Number ? ((Number) inhabited.getValue()).longValue() : 0;
+		int entities = count(data, "Entities");
+		int tileEntities = count(data, "TileEntities") + count(data, "block_entities");
+		if (inhabitedTime <= 0 && entities == 0 && tileEntities == 0) {
+			return;
+		}
+
+		Map<String, Heat> chunks = tiles.computeIfAbsent(ShardedWorld.key(context.getTileX(), context.getTileZ()), k -> new HashMap<>());
+		synchronized (chunks) {
+			Heat heat = chunks.computeIfAbsent(context.getDimension() + ":" + context.getChunkX() + "," + context.getChunkZ(),
+					k -> new Heat(context.getDimension(), context.getChunkX(), context.getChunkZ()));
+			heat.inhabitedTime = Math.max(heat.inhabitedTime, inhabitedTime);
+			heat.entities += entities;
+			heat.tileEntities += tileEntities;
+		}
+	}
+
+	static int count(CompoundTag data, String name) {
+		NBTTag<?> tag = data.get(name);
+		return tag instanceof ListTag ? ((ListTag<?>) tag).getValue().size() : 0;
+	}
+
+	/**
+	 * Removes the recorded chunks of a tile
+	 *
+	 * @param limit maximum number of chunks to return
+	 * @return the hottest chunks of the tile, hottest first
+	 */
+	List<Heat> takeTile(int tileX, int tileZ, int limit) {
+		Map<String, Heat> chunks = tiles.remove(ShardedWorld.key(tileX, tileZ));
+		if (chunks == null) {
+			return Collections.emptyList();
+		}
+		List<Heat> sorted;
+		synchronized (chunks) {
+			sorted = new ArrayList<>(chunks.values());
+		}
+		sorted.sort(HOTTEST_FIRST);
+		return sorted.size() > limit ? sorted.subList(0, limit) : sorted;
+	}
+
+	static class Heat {
+		final String dimension;
+		final int    chunkX;
+		final int    chunkZ;
+		long inhabitedTime;
+		int  entities;
+		int  tileEntities;
+
+		Heat(String dimension, int chunkX, int chunkZ) {
+			this.dimension = dimension;
+			this.chunkX = chunkX;
+			this.chunkZ = chunkZ;
+		}
+	}
+
+}
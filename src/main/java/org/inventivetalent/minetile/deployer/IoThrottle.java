@@ -0,0 +1,274 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket limits for the deployer's disk I/O, so a deployment can run next to live servers without starving them.
+ * <p>
+ * Read bytes, written bytes and file operations (opening a region file, copying a file, adding an archive entry) each have their own bucket.
+ * A bucket holds a tenth of a second of its rate, so bursts stay short; larger requests go into debt and the next callers wait until it is paid off, which keeps the long-term rate exact and the waiting threads in order.
+ * <p>
+ * The limits can be changed while the deployment runs by editing the control file, a properties file with <code>read</code>, <code>write</code> (bytes per second, e.g. <code>20M</code>) and <code>ops</code> (per second) where 0 means unlimited.
+ * It's checked at most once per second by whichever thread does I/O next.
+ * Without any limit or control file every call returns after one volatile read.
+ */
+final class IoThrottle {
+
+	private static final long CONTROL_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	static final Bucket READ  = new Bucket("read", 64 * 1024);
+	static final Bucket WRITE = new Bucket("write", 64 * 1024);
+	static final Bucket OPS   = new Bucket("file operations", 1);
+
+	private static volatile boolean    enabled;
+	private static volatile File       controlFile;
+	private static final    AtomicLong nextControlCheck = new AtomicLong();
+	private static          long       controlModified;
+
+	private IoThrottle() {
+	}
+
+	/**
+	 * @param readRate    read bytes per second, 0 for unlimited
+	 * @param writeRate   written bytes per second, 0 for unlimited
+	 * @param opsRate     file operations per second, 0 for unlimited
+	 * @param control     control file to adjust the rates at runtime (created with the initial rates if it doesn't exist), or <code>null</code>
+	 */
+	static void configure(long readRate, long writeRate, long opsRate, File control) throws IOException {
+		READ.setRate(readRate);
+		WRITE.setRate(writeRate);
+		OPS.setRate(opsRate);
+		if (control != null && !control.exists()) {
+			Properties properties = new Properties();
+			properties.setProperty("read", String.valueOf(readRate));
+			properties.setProperty("write", String.valueOf(writeRate));
+			properties.setProperty("ops", String.valueOf(opsRate));
+			try (OutputStream out = new FileOutputStream(control)) {
+				properties.store(out, "MineTile deployer I/O limits: bytes per second (K/M/G suffixes allowed) and file operations per second, 0 = unlimited");
+			}
+		}
+		controlFile = control;
+		if (control != null) {
+			controlModified = control.lastModified();
+		}
+		enabled = control != null || readRate > 0 || writeRate > 0 || opsRate > 0;
+	}
+
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	/* waits until the bytes may be read */
+	static void read(long bytes) {
+		if (enabled) {
+			checkControlFile();
+			READ.acquire(bytes);
+		}
+	}
+
+	/* waits until the bytes may be written */
+	static void write(long bytes) {
+		if (enabled) {
+			checkControlFile();
+			WRITE.acquire(bytes);
+		}
+	}
+
+	/* waits until a file may be opened, created or copied */
+	static void operation() {
+		if (enabled) {
+			checkControlFile();
+			OPS.acquire(1);
+		}
+	}
+
+	static InputStream input(InputStream in) {
+		if (!enabled) {
+			return in;
+		}
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				IoThrottle.read(1);
+				return super.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				if (read > 0) {
+					IoThrottle.read(read);
+				}
+				return read;
+			}
+		};
+	}
+
+	static OutputStream output(OutputStream out) {
+		if (!enabled) {
+			return out;
+		}
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				IoThrottle.write(1);
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				IoThrottle.write(len);
+				out.write(b, off, len);
+			}
+		};
+	}
+
+	static void copyFile(File source, File destination) throws IOException {
+		if (!enabled) {
+			FileUtils.copyFile(source, destination);
+			return;
+		}
+		operation();
+		try (InputStream in = input(new FileInputStream(source));
+			 OutputStream out = output(new FileOutputStream(destination))) {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		destination.setLastModified(source.lastModified());
+	}
+
+	static void copyDirectory(File source, File destination) throws IOException {
+		if (!enabled) {
+			FileUtils.copyDirectory(source, destination);
+			return;
+		}
+		File[] children = source.listFiles();
+		if (children == null) {
+			throw new IOException("Failed to list " + source);
+		}
+		Files.createDirectories(destination.toPath());
+		for (File child : children) {
+			File target = new File(destination, child.getName());
+			if (child.isDirectory()) {
+				copyDirectory(child, target);
+			} else {
+				copyFile(child, target);
+			}
+		}
+	}
+
+	/* picks up changes of the control file, by one thread at a time */
+	private static void checkControlFile() {
+		File control = controlFile;
+		if (control == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		long next = nextControlCheck.get();
+		if (now - next < 0 || !nextControlCheck.compareAndSet(next, now + CONTROL_CHECK_INTERVAL)) {
+			return;
+		}
+		long modified = control.lastModified();
+		if (modified == controlModified) {
+			return;
+		}
+		controlModified = modified;
+		if (modified == 0) {
+			Log.warn("I/O control file {} was removed, keeping the current limits", control);
+			return;
+		}
+
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(control)) {
+			properties.load(in);
+			long read = rate(properties, "read", READ.getRate());
+			long write = rate(properties, "write", WRITE.getRate());
+			long ops = rate(properties, "ops", OPS.getRate());
+			READ.setRate(read);
+			WRITE.setRate(write);
+			OPS.setRate(ops);
+			Log.info("I/O limits changed: {}", describe());
+		} catch (IOException | NumberFormatException e) {
+			Log.warn("Failed to read I/O control file {}, keeping the current limits: {}", control, e.getMessage());
+		}
+	}
+
+	private static long rate(Properties properties, String key, long fallback) {
+		String value = properties.getProperty(key);
+		return value == null || value.trim().isEmpty() ? fallback : Math.max(0, SystemResources.parseSize(value));
+	}
+
+	static String describe() {
+		return "read " + (READ.getRate() > 0 ? ArchiveBenchmark.humanBytes(READ.getRate()) + "/s" : "unlimited")
+				+ ", write " + (WRITE.getRate() > 0 ? ArchiveBenchmark.humanBytes(WRITE.getRate()) + "/s" : "unlimited")
+				+ ", " + (OPS.getRate() > 0 ? OPS.getRate() + " file operations/s" : "unlimited file operations");
+	}
+
+	static class Bucket {
+		final String name;
+		final long   minBurst;
+
+		private long   rate;// per second, 0 = unlimited
+		private double tokens;
+		private long   lastRefill = System.nanoTime();
+
+		private final AtomicLong waitedNanos = new AtomicLong();
+
+		Bucket(String name, long minBurst) {
+			this.name = name;
+			this.minBurst = minBurst;
+		}
+
+		synchronized long getRate() {
+			return rate;
+		}
+
+		synchronized void setRate(long rate) {
+			this.rate = Math.max(0, rate);
+			this.tokens = Math.min(tokens, burst());
+			this.lastRefill = System.nanoTime();
+		}
+
+		private double burst() {
+			return Math.max(minBurst, rate / 10.0D);
+		}
+
+		void acquire(long amount) {
+			long waitNanos;
+			synchronized (this) {
+				if (rate <= 0) {
+					return;
+				}
+				long now = System.nanoTime();
+				tokens = Math.min(burst(), tokens + (now - lastRefill) * rate / 1.0E9D);
+				lastRefill = now;
+				tokens -= amount;
+				waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1.0E9D / rate);
+			}
+			if (waitNanos > 0) {
+				waitedNanos.addAndGet(waitNanos);
+				long deadline = System.nanoTime() + waitNanos;
+				long remaining;
+				while ((remaining = deadline - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(remaining);
+				}
+			}
+		}
+
+		/* total time threads were held back by this bucket */
+		long getWaitedNanos() {
+			return waitedNanos.get();
+		}
+	}
+
+}
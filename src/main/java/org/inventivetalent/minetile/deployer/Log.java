@@ -0,0 +1,337 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous logger for the deployment workers.
+ * <p>
+ * Messages go into a lock-free ring buffer and are formatted and written by a single background thread, so workers never wait for the console.
+ * Arguments are substituted for <code>{}</code> placeholders on that thread as well, a last argument that is a Throwable without a placeholder is printed with its stack trace. When the buffer is full, debug messages are dropped while other levels wait for space.
+ * <p>
+ * Console output is filtered by the console level (warnings and errors go to stderr), an optional log file receives everything down to debug.
+ * A progress line supplied with {@link #progress(Supplier)} is kept at the bottom of an interactive console, or printed periodically otherwise.
+ */
+public final class Log {
+
+	public enum Level {
+		DEBUG,
+		INFO,
+		WARN,
+		ERROR
+	}
+
+	private static final int CAPACITY = 1 << 16;
+	private static final int MASK     = CAPACITY - 1;
+
+	private static final long PROGRESS_INTERVAL       = TimeUnit.MILLISECONDS.toNanos(250);
+	private static final long PLAIN_PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(10);// console is not a terminal, print a new line every now and then
+
+	private static final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(CAPACITY);
+	private static final AtomicLong                  head  = new AtomicLong();// next sequence to claim
+	private static volatile long tail;// next sequence to write, only advanced by the writer thread
+
+	private static final AtomicLong dropped = new AtomicLong();
+
+	private static volatile Level            consoleLevel = Level.INFO;
+	private static volatile Level            minLevel     = Level.INFO;
+	private static volatile Writer           fileWriter;
+	private static volatile Supplier<String> progress;
+	private static volatile boolean          running      = true;
+
+	// only used by the writer thread
+	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	private static final boolean interactive = System.console() != null;
+	private static final Thread  writerThread;
+
+	static {
+		writerThread = new Thread(Log::writeLoop, "MineTile-Log");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::shutdown, "MineTile-Log-Shutdown"));
+	}
+
+	private Log() {
+	}
+
+	/**
+	 * @param console minimum level printed to the console
+	 * @param logFile file to write all messages (including debug) to, or <code>null</code>
+	 */
+	public static void configure(Level console, File logFile) throws IOException {
+		consoleLevel = console;
+		if (logFile != null) {
+			fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8), 64 * 1024);
+			minLevel = Level.DEBUG;
+		} else {
+			minLevel = console;
+		}
+	}
+
+	public static boolean isEnabled(Level level) {
+		return level.ordinal() >= minLevel.ordinal();
+	}
+
+	public static void debug(String message, Object... args) {
+		log(Level.DEBUG, message, args, null);
+	}
+
+	public static void info(String message, Object... args) {
+		log(Level.INFO, message, args, null);
+	}
+
+	public static void warn(String message, Object... args) {
+		log(Level.WARN, message, args, null);
+	}
+
+	public static void warn(String message, Throwable thrown) {
+		log(Level.WARN, message, null, thrown);
+	}
+
+	public static void error(String message, Object... args) {
+		log(Level.ERROR, message, args, null);
+	}
+
+	public static void error(String message, Throwable thrown) {
+		log(Level.ERROR, message, null, thrown);
+	}
+
+	/**
+	 * @param supplier called on the logging thread to render the current progress line, <code>null</code> to remove it
+	 */
+	public static void progress(Supplier<String> supplier) {
+		progress = supplier;
+	}
+
+	public static long getDroppedCount() {
+		return dropped.get();
+	}
+
+	static void log(Level level, String message, Object[] args, Throwable thrown) {
+		if (!isEnabled(level)) {
+			return;
+		}
+		Entry entry = new Entry(level, System.currentTimeMillis(), Thread.currentThread().getName(), message, args, thrown);
+
+		long sequence;
+		while (true) {
+			sequence = head.get();
+			if (sequence - tail >= CAPACITY) {
+				if (level == Level.DEBUG) {
+					dropped.incrementAndGet();
+					return;
+				}
+				LockSupport.parkNanos(100_000);
+				continue;
+			}
+			if (head.compareAndSet(sequence, sequence + 1)) {
+				break;
+			}
+		}
+		slots.set((int) (sequence & MASK), entry);
+	}
+
+	/**
+	 * Blocks until everything logged so far has been written
+	 */
+	public static void flush() {
+		long target = head.get();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (tail < target && writerThread.isAlive() && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(1_000_000);
+		}
+	}
+
+	/**
+	 * Writes the remaining messages, removes the progress line and closes the log file
+	 */
+	public static synchronized void shutdown() {
+		if (!running) {
+			return;
+		}
+		progress = null;
+		flush();
+		running = false;
+		try {
+			writerThread.join(TimeUnit.SECONDS.toMillis(2));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void writeLoop() {
+		long lastProgress = 0;
+		int progressLength = 0;
+		while (true) {
+			long sequence = tail;
+			Entry entry = sequence < head.get() ? slots.get((int) (sequence & MASK)) : null;
+			if (entry != null) {
+				slots.set((int) (sequence & MASK), null);
+				tail = sequence + 1;
+				if (progressLength > 0 && entry.level.ordinal() >= consoleLevel.ordinal()) {
+					clearProgress(progressLength);
+					progressLength = 0;
+				}
+				write(entry);
+				continue;
+			}
+
+			// idle: flush and show the progress
+			System.out.flush();
+			flushFile();
+			Supplier<String> currentProgress = progress;
+			long now = System.nanoTime();
+			if (currentProgress != null && now - lastProgress >= (interactive ? PROGRESS_INTERVAL : PLAIN_PROGRESS_INTERVAL)) {
+				lastProgress = now;
+				String line = render(currentProgress);
+				if (interactive) {
+					StringBuilder builder = new StringBuilder("\r").append(line);
+					for (int i = line.length(); i < progressLength; i++) {
+						builder.append(' ');
+					}
+					System.out.print(builder);
+					System.out.flush();
+					progressLength = line.length();
+				} else {
+					System.out.println(line);
+				}
+			} else if (currentProgress == null && progressLength > 0) {
+				clearProgress(progressLength);
+				progressLength = 0;
+			}
+
+			if (!running && tail >= head.get()) {
+				break;
+			}
+			LockSupport.parkNanos(1_000_000);
+		}
+		if (dropped.get() > 0) {
+			System.err.println(dropped.get() + " debug messages were dropped because the log buffer was full");
+		}
+		flushFile();
+		Writer writer = fileWriter;
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	static String render(Supplier<String> supplier) {
+		try {
+			return supplier.get();
+		} catch (RuntimeException e) {
+			return "";
+		}
+	}
+
+	static void clearProgress(int length) {
+		StringBuilder builder = new StringBuilder("\r");
+		for (int i = 0; i < length; i++) {
+			builder.append(' ');
+		}
+		System.out.print(builder.append('\r'));
+	}
+
+	static void write(Entry entry) {
+		Object[] args = entry.args;
+		Throwable thrown = entry.thrown;
+		// a trailing exception without a placeholder of its own is printed with its stack trace
+		if (thrown == null && args != null && args.length > 0 && args[args.length - 1] instanceof Throwable && countPlaceholders(entry.message) < args.length) {
+			thrown = (Throwable) args[args.length - 1];
+			args = Arrays.copyOf(args, args.length - 1);
+		}
+		String message = format(entry.message, args);
+		String stackTrace = null;
+		if (thrown != null) {
+			StringWriter stringWriter = new StringWriter();
+			thrown.printStackTrace(new PrintWriter(stringWriter));
+			stackTrace = stringWriter.toString();
+		}
+
+		if (entry.level.ordinal() >= consoleLevel.ordinal()) {
+			PrintStream stream = entry.level.ordinal() >= Level.WARN.ordinal() ? System.err : System.out;
+			stream.println(message);
+			if (stackTrace != null) {
+				stream.print(stackTrace);
+			}
+		}
+
+		Writer writer = fileWriter;
+		if (writer != null) {
+			try {
+				writer.write(DATE_FORMAT.format(new Date(entry.time)));
+				writer.write(" " + entry.level + " [" + entry.thread + "] " + message + "\n");
+				if (stackTrace != null) {
+					writer.write(stackTrace);
+				}
+			} catch (IOException e) {
+				fileWriter = null;
+				System.err.println("Failed to write log file, disabling it: " + e);
+			}
+		}
+	}
+
+	static void flushFile() {
+		Writer writer = fileWriter;
+		if (writer != null) {
+			try {
+				writer.flush();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	static int countPlaceholders(String message) {
+		int count = 0;
+		for (int index = message.indexOf("{}"); index != -1; index = message.indexOf("{}", index + 2)) {
+			count++;
+		}
+		return count;
+	}
+
+	/* replace {} placeholders with the arguments */
+	static String format(String message, Object[] args) {
+		if (args == null || args.length == 0) {
+			return message;
+		}
+		StringBuilder builder = new StringBuilder(message.length() + args.length * 8);
+		int argument = 0;
+		int start = 0;
+		int index;
+		while (argument < args.length && (index = message.indexOf("{}", start)) != -1) {
+			builder.append(message, start, index).append(args[argument++]);
+			start = index + 2;
+		}
+		return builder.append(message, start, message.length()).toString();
+	}
+
+	static final class Entry {
+		final Level     level;
+		final long      time;
+		final String    thread;
+		final String    message;
+		final Object[]  args;
+		final Throwable thrown;
+
+		Entry(Level level, long time, String thread, String message, Object[] args, Throwable thrown) {
+			this.level = level;
+			this.time = time;
+			this.thread = thread;
+			this.message = message;
+			this.args = args;
+			this.thrown = thrown;
+		}
+	}
+
+}
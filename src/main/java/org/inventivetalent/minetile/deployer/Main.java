@@ -2,32 +2,60 @@ package org.inventivetalent.minetile.deployer;
 
 import picocli.CommandLine;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+
 public class Main {
 
 	public static void main(String[] args) {
 		Deployer deployer = new Deployer();
+		deployer.arguments = args;
 		CommandLine commandLine = new CommandLine(deployer);
 		try {
-			commandLine.parse(args);
-			if (commandLine.isUsageHelpRequested()) {
-				commandLine.usage(System.out);
-				return;
-			} else if (commandLine.isVersionHelpRequested()) {
-				commandLine.printVersionHelp(System.out);
-				return;
+			List<CommandLine> parsed = commandLine.parse(args);
+			for (CommandLine command : parsed) {
+				if (command.isUsageHelpRequested()) {
+					command.usage(System.out);
+					return;
+				} else if (command.isVersionHelpRequested()) {
+					command.printVersionHelp(System.out);
+					return;
+				}
 			}
-			Boolean result = deployer.call();
+			// Run the most specific (sub-)command
+			commandLine = parsed.get(parsed.size() - 1);
+			Boolean result = ((Callable<Boolean>) commandLine.getCommand()).call();
 			if (!result) {
+				Log.flush();// the usage goes straight to the console, after the queued messages
 				commandLine.usage(System.err);
 				System.exit(-1);
 			}
+		} catch (CommandFailedException ex) {
+			Log.error(ex.getMessage());
+			Log.flush();
+			System.exit(ex.status);
 		} catch (CommandLine.ParameterException ex) {
 			System.err.println(ex.getMessage());
 			if (!CommandLine.UnmatchedArgumentException.printSuggestions(ex, System.err)) {
 				ex.getCommandLine().usage(System.err);
 			}
 		} catch (Exception ex) {
-			throw new CommandLine.ExecutionException(commandLine, "Error while calling " + deployer, ex);
+			throw new CommandLine.ExecutionException(commandLine, "Error while calling " + commandLine.getCommand(), ex);
+		}
+	}
+
+	/**
+	 * Thrown by a command that ran, but failed in a way the usage can't help with, e.g. a deployment that doesn't pass verification
+	 */
+	static class CommandFailedException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		CommandFailedException(String message, int status) {
+			super(message);
+			this.status = status;
 		}
 	}
 
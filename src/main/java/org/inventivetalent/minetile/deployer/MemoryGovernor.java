@@ -0,0 +1,90 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the amount of chunk and archive data all workers hold in memory at the same time.
+ * <p>
+ * Workers {@link #acquire(long)} an estimate of the bytes they are about to hold and {@link #release(long)} it afterwards. Permits are counted in KB so a single int semaphore covers budgets up to 2TB.
+ */
+public class MemoryGovernor {
+
+	/* how much memory a chunk takes while being relocated, relative to its size on disk (compressed input, inflated buffer, deflated output) */
+	static final int CHUNK_MEMORY_FACTOR = 8;
+
+	/* rough per-worker memory outside of the governed chunk data (streams, buffers, NBT of touched tags) */
+	static final long WORKER_OVERHEAD = 32L * 1024 * 1024;
+
+	private final long      budget;
+	private final int       budgetPermits;
+	private final Semaphore permits;
+
+	private final AtomicLong inFlight     = new AtomicLong();
+	private final AtomicLong peakInFlight = new AtomicLong();
+
+	public MemoryGovernor(long budget) {
+		this.budget = budget;
+		this.budgetPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / 1024));
+		this.permits = new Semaphore(budgetPermits, true);
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Blocks until the given amount of bytes fits into the budget. Requests larger than the whole budget wait until they can run alone.
+	 *
+	 * @return the amount that was acquired, to be passed to {@link #release(long)}
+	 */
+	public long acquire(long bytes) throws InterruptedException {
+		permits.acquire(toPermits(bytes));
+		long current = inFlight.addAndGet(bytes);
+		peakInFlight.accumulateAndGet(current, Math::max);
+		return bytes;
+	}
+
+	public void release(long bytes) {
+		inFlight.addAndGet(-bytes);
+		permits.release(toPermits(bytes));
+	}
+
+	int toPermits(long bytes) {
+		return (int) Math.max(1, Math.min(budgetPermits, (bytes + 1023) / 1024));
+	}
+
+	public long getPeakInFlight() {
+		return peakInFlight.get();
+	}
+
+	/**
+	 * @return the sum of the peak usage of all heap memory pools since the JVM started
+	 */
+	public static long getPeakHeapUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Picks a worker count from the available CPUs and the memory each worker needs on top of the shared budget
+	 *
+	 * @param memoryLimit     memory available to the process
+	 * @param budget          memory reserved for in-flight chunk and archive data
+	 * @param perWorkerMemory memory each worker needs outside of the budget
+	 */
+	public static int chooseThreads(int cpus, long memoryLimit, long budget, long perWorkerMemory) {
+		long remaining = memoryLimit - budget;
+		int byMemory = (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining / Math.max(1, perWorkerMemory)));
+		return Math.max(1, Math.min(cpus, byMemory));
+	}
+
+}
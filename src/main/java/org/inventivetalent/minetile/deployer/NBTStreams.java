@@ -0,0 +1,172 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Helpers to walk raw NBT data without building tag objects
+ */
+final class NBTStreams {
+
+	static final int TAG_END        = 0;
+	static final int TAG_BYTE       = 1;
+	static final int TAG_SHORT      = 2;
+	static final int TAG_INT        = 3;
+	static final int TAG_LONG       = 4;
+	static final int TAG_FLOAT      = 5;
+	static final int TAG_DOUBLE     = 6;
+	static final int TAG_BYTE_ARRAY = 7;
+	static final int TAG_STRING     = 8;
+	static final int TAG_LIST       = 9;
+	static final int TAG_COMPOUND   = 10;
+	static final int TAG_INT_ARRAY  = 11;
+	static final int TAG_LONG_ARRAY = 12;
+
+	private static final int MAX_DEPTH = 512;
+
+	private NBTStreams() {
+	}
+
+	/* copy the payload of a tag of the given type from in to out, without decoding it */
+	static void copyPayload(int type, DataInput in, DataOutput out, byte[] buffer) throws IOException {
+		copyPayload(type, in, out, buffer, 0);
+	}
+
+	private static void copyPayload(int type, DataInput in, DataOutput out, byte[] buffer, int depth) throws IOException {
+		if (depth > MAX_DEPTH) {
+			throw new IOException("NBT data is nested too deeply");
+		}
+		switch (type) {
+			case TAG_BYTE:
+				out.writeByte(in.readByte());
+				break;
+			case TAG_SHORT:
+				out.writeShort(in.readShort());
+				break;
+			case TAG_INT:
+			case TAG_FLOAT:
+				out.writeInt(in.readInt());
+				break;
+			case TAG_LONG:
+			case TAG_DOUBLE:
+				out.writeLong(in.readLong());
+				break;
+			case TAG_STRING:
+				int stringLength = in.readUnsignedShort();
+				out.writeShort(stringLength);
+				copyBytes(in, out, stringLength, buffer);
+				break;
+			case TAG_BYTE_ARRAY:
+			case TAG_INT_ARRAY:
+			case TAG_LONG_ARRAY:
+				int arrayLength = in.readInt();
+				out.writeInt(arrayLength);
+				copyBytes(in, out, (long) arrayLength * elementSize(type), buffer);
+				break;
+			case TAG_LIST:
+				int elementType = in.readUnsignedByte();
+				int size = in.readInt();
+				out.writeByte(elementType);
+				out.writeInt(size);
+				for (int i = 0; i < size; i++) {
+					copyPayload(elementType, in, out, buffer, depth + 1);
+				}
+				break;
+			case TAG_COMPOUND:
+				int childType;
+				while ((childType = in.readUnsignedByte()) != TAG_END) {
+					out.writeByte(childType);
+					out.writeUTF(in.readUTF());
+					copyPayload(childType, in, out, buffer, depth + 1);
+				}
+				out.writeByte(TAG_END);
+				break;
+			default:
+				throw new IOException("Unknown NBT tag type " + type);
+		}
+	}
+
+	/* skip the payload of a tag of the given type */
+	static void skipPayload(int type, DataInput in) throws IOException {
+		skipPayload(type, in, 0);
+	}
+
+	private static void skipPayload(int type, DataInput in, int depth) throws IOException {
+		if (depth > MAX_DEPTH) {
+			throw new IOException("NBT data is nested too deeply");
+		}
+		switch (type) {
+			case TAG_BYTE:
+				skipFully(in, 1);
+				break;
+			case TAG_SHORT:
+				skipFully(in, 2);
+				break;
+			case TAG_INT:
+			case TAG_FLOAT:
+				skipFully(in, 4);
+				break;
+			case TAG_LONG:
+			case TAG_DOUBLE:
+				skipFully(in, 8);
+				break;
+			case TAG_STRING:
+				skipFully(in, in.readUnsignedShort());
+				break;
+			case TAG_BYTE_ARRAY:
+			case TAG_INT_ARRAY:
+			case TAG_LONG_ARRAY:
+				skipFully(in, (long) in.readInt() * elementSize(type));
+				break;
+			case TAG_LIST:
+				int elementType = in.readUnsignedByte();
+				int size = in.readInt();
+				for (int i = 0; i < size; i++) {
+					skipPayload(elementType, in, depth + 1);
+				}
+				break;
+			case TAG_COMPOUND:
+				int childType;
+				while ((childType = in.readUnsignedByte()) != TAG_END) {
+					skipFully(in, in.readUnsignedShort());
+					skipPayload(childType, in, depth + 1);
+				}
+				break;
+			default:
+				throw new IOException("Unknown NBT tag type " + type);
+		}
+	}
+
+	private static int elementSize(int arrayType) {
+		return arrayType == TAG_BYTE_ARRAY ? 1 : arrayType == TAG_INT_ARRAY ? 4 : 8;
+	}
+
+	private static void copyBytes(DataInput in, DataOutput out, long length, byte[] buffer) throws IOException {
+		if (length < 0) {
+			throw new IOException("Negative NBT array length");
+		}
+		while (length > 0) {
+			int n = (int) Math.min(length, buffer.length);
+			in.readFully(buffer, 0, n);
+			out.write(buffer, 0, n);
+			length -= n;
+		}
+	}
+
+	private static void skipFully(DataInput in, long length) throws IOException {
+		if (length < 0) {
+			throw new IOException("Negative NBT array length");
+		}
+		while (length > 0) {
+			int skipped = in.skipBytes((int) Math.min(length, Integer.MAX_VALUE));
+			if (skipped <= 0) {
+				// skipBytes may give up early, make sure we are not at EOF
+				in.readByte();
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+}
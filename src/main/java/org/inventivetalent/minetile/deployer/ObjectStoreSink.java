@@ -0,0 +1,312 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads finished deployment files to an S3-compatible object store while the deployment is still running.
+ * <p>
+ * Files up to the part size are sent with a single PUT, larger ones as a multipart upload whose parts are sent by several threads at once.
+ * Every part is read into memory just before it's sent, with the memory taken from the deployment's {@link MemoryGovernor}, so uploads that fall behind slow down generation instead of filling the heap.
+ * Failed requests are retried with exponential backoff, a multipart upload that fails for good is aborted so the store doesn't keep its parts.
+ * <p>
+ * There is no fake store in this repository. To try uploads without AWS, run a local S3-compatible server like MinIO and pass it as <code>--uploadEndpoint</code>, requests are path-style and can be signed for any region.
+ */
+public class ObjectStoreSink {
+
+	/* S3 limits: parts (except the last) have at least 5MB, an upload has at most 10000 parts */
+	static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+	static final int  MAX_PARTS     = 10000;
+	/* parts are read into a byte array, S3 itself would allow up to 5GB */
+	static final long MAX_PART_SIZE = 1024L * 1024 * 1024;
+
+	static final int  MAX_ATTEMPTS  = 5;
+	static final long RETRY_DELAY   = 500;// ms, doubled for every attempt
+
+	private final S3Client       client;
+	private final String         prefix;// key prefix, empty or ending with '/'
+	private final String         location;// for messages
+	private final long           partSize;
+	private final MemoryGovernor memoryGovernor;
+
+	private final ExecutorService fileExecutor;// one task per file, reads the parts
+	private final ExecutorService partExecutor;// sends the parts
+	private final List<Future<?>> uploads = new CopyOnWriteArrayList<>();
+
+	final AtomicInteger files   = new AtomicInteger();
+	final AtomicInteger failed  = new AtomicInteger();
+	final AtomicInteger retries = new AtomicInteger();
+	final AtomicLong    bytes   = new AtomicLong();
+
+	/**
+	 * @param target   <code>s3://bucket/prefix</code>
+	 * @param endpoint endpoint URL of the store, e.g. <code>https://s3.eu-central-1.amazonaws.com</code> or <code>http://localhost:9000</code>
+	 * @param threads  number of parts sent at the same time
+	 */
+	public ObjectStoreSink(String target, String endpoint, String region, String accessKey, String secretKey, String sessionToken, long partSize, int threads, MemoryGovernor memoryGovernor) throws IOException {
+		URI uri = URI.create(target);
+		if (!"s3".equals(uri.getScheme()) || uri.getHost() == null) {
+			throw new IllegalArgumentException("Upload target should look like s3://bucket/prefix, not " + target);
+		}
+		String path = uri.getPath() == null ? "" : uri.getPath();
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		this.prefix = path.isEmpty() || path.endsWith("/") ? path : path + "/";
+		this.location = "s3://" + uri.getHost() + "/" + prefix;
+		this.client = new S3Client(new java.net.URL(endpoint), region, uri.getHost(), accessKey, secretKey, sessionToken);
+		if (partSize > MAX_PART_SIZE) {
+			throw new IllegalArgumentException("Part size can be at most " + ArchiveBenchmark.humanBytes(MAX_PART_SIZE) + ", not " + ArchiveBenchmark.humanBytes(partSize));
+		}
+		this.partSize = Math.max(MIN_PART_SIZE, partSize);
+		this.memoryGovernor = memoryGovernor;
+
+		this.fileExecutor = Executors.newFixedThreadPool(Math.max(1, threads), daemon("MineTile-Upload"));
+		this.partExecutor = Executors.newFixedThreadPool(Math.max(1, threads), daemon("MineTile-UploadPart"));
+	}
+
+	static ThreadFactory daemon(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Queues the upload of a file under prefix + key
+	 *
+	 * @return completed with whether the upload succeeded, failures are already reported
+	 */
+	public CompletableFuture<Boolean> upload(File file, String key) {
+		CompletableFuture<Boolean> upload = CompletableFuture.supplyAsync(() -> {
+			try {
+				uploadFile(file, prefix + key);
+				files.incrementAndGet();
+				return true;
+			} catch (IOException e) {
+				failed.incrementAndGet();
+				Log.error("Failed to upload {} to {}{}: {}", file, location, key, e.getMessage());
+				return false;
+			}
+		}, fileExecutor);
+		uploads.add(upload);
+		return upload;
+	}
+
+	/**
+	 * Queues the uploads of all files in the directory, under prefix + keyPrefix + their relative path
+	 *
+	 * @return completed with whether all of them succeeded
+	 */
+	public CompletableFuture<Boolean> uploadTree(File directory, String keyPrefix) {
+		return uploadTree(directory, keyPrefix, null);
+	}
+
+	/**
+	 * Like {@link #uploadTree(File, String)}, but only uploads the files that aren't in the store yet, e.g. chunk store objects that are immutable once written.
+	 * If the store can't be listed, everything is uploaded.
+	 */
+	public CompletableFuture<Boolean> uploadMissing(File directory, String keyPrefix) {
+		Set<String> existing;
+		try {
+			existing = new HashSet<>(retry(prefix + keyPrefix, () -> client.listObjects(prefix + keyPrefix)));
+		} catch (IOException e) {
+			Log.warn("Failed to list {}{}, uploading all of {}: {}", location, keyPrefix, directory, e.getMessage());
+			existing = null;
+		}
+		return uploadTree(directory, keyPrefix, existing);
+	}
+
+	CompletableFuture<Boolean> uploadTree(File directory, String keyPrefix, Set<String> existing) {
+		List<CompletableFuture<Boolean>> files = new ArrayList<>();
+		queueTree(directory, keyPrefix, existing, files);
+		return CompletableFuture.allOf(files.toArray(new CompletableFuture<?>[0]))
+				.thenApply(done -> files.stream().allMatch(CompletableFuture::join));
+	}
+
+	void queueTree(File directory, String keyPrefix, Set<String> existing, List<CompletableFuture<Boolean>> files) {
+		File[] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				queueTree(child, keyPrefix + child.getName() + "/", existing, files);
+			} else if (!child.getName().endsWith(Deployer.PARTIAL_SUFFIX) && (existing == null || !existing.contains(prefix + keyPrefix + child.getName()))) {
+				files.add(upload(child, keyPrefix + child.getName()));
+			}
+		}
+	}
+
+	/* runs the action once the upload succeeded, awaitAll() waits for it as well */
+	public void whenUploaded(CompletableFuture<Boolean> upload, Request<?> action) {
+		uploads.add(upload.thenAccept(success -> {
+			if (success) {
+				try {
+					action.run();
+				} catch (IOException e) {
+					Log.warn("Failed to record a finished upload to {}", location, e);
+				}
+			}
+		}));
+	}
+
+	/* waits for all queued uploads, including the ones queued while waiting */
+	public void awaitAll() throws InterruptedException {
+		for (int i = 0; i < uploads.size(); i++) {
+			try {
+				uploads.get(i).get();
+			} catch (ExecutionException e) {
+				failed.incrementAndGet();
+				Log.error("Upload failed", e.getCause());
+			}
+		}
+	}
+
+	public void shutdown() {
+		fileExecutor.shutdownNow();
+		partExecutor.shutdownNow();
+	}
+
+	void uploadFile(File file, String key) throws IOException {
+		long length = file.length();
+		// keep below the part limit of the store for very large files
+		long size = Math.max(partSize, (length + MAX_PARTS - 1) / MAX_PARTS);
+		if (size > MAX_PART_SIZE) {
+			throw new IOException(file + " is too large to upload in " + MAX_PARTS + " parts of at most " + ArchiveBenchmark.humanBytes(MAX_PART_SIZE));
+		}
+		if (length <= size) {
+			withPart(file, 0, (int) length, data -> {
+				retry(key, () -> {
+					client.putObject(key, data, (int) length);
+					return null;
+				});
+				return null;
+			});
+			bytes.addAndGet(length);
+			return;
+		}
+
+		String uploadId = retry(key, () -> client.createMultipartUpload(key));
+		try {
+			int partCount = (int) ((length + size - 1) / size);
+			List<Future<String>> parts = new ArrayList<>(partCount);
+			for (int p = 0; p < partCount; p++) {
+				long offset = p * size;
+				int partLength = (int) Math.min(size, length - offset);
+				int partNumber = p + 1;
+				// the memory is taken here, so the reading thread stops before too many parts are waiting to be sent
+				long memory = acquireMemory(partLength);
+				byte[] data;
+				try {
+					data = read(file, offset, partLength);
+				} catch (IOException e) {
+					memoryGovernor.release(memory);
+					throw e;
+				}
+				parts.add(partExecutor.submit(() -> {
+					try {
+						String etag = retry(key, () -> client.uploadPart(key, uploadId, partNumber, data, partLength));
+						bytes.addAndGet(partLength);
+						return etag;
+					} finally {
+						memoryGovernor.release(memory);
+					}
+				}));
+			}
+			List<String> etags = new ArrayList<>(partCount);
+			for (Future<String> part : parts) {
+				etags.add(part.get());
+			}
+			retry(key, () -> {
+				client.completeMultipartUpload(key, uploadId, etags);
+				return null;
+			});
+		} catch (IOException | InterruptedException | ExecutionException | RuntimeException e) {
+			try {
+				client.abortMultipartUpload(key, uploadId);
+			} catch (IOException abortFailure) {
+				Log.warn("Failed to abort the multipart upload of {}: {}", key, abortFailure.getMessage());
+			}
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}
+	}
+
+	<T> T withPart(File file, long offset, int length, PartTask<T> task) throws IOException {
+		long memory = acquireMemory(length);
+		try {
+			return task.run(read(file, offset, length));
+		} finally {
+			memoryGovernor.release(memory);
+		}
+	}
+
+	static byte[] read(File file, long offset, int length) throws IOException {
+		byte[] data = new byte[length];
+		IoThrottle.read(length);
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			in.seek(offset);
+			in.readFully(data);
+		}
+		return data;
+	}
+
+	long acquireMemory(long bytes) throws IOException {
+		try {
+			return memoryGovernor.acquire(bytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for memory");
+		}
+	}
+
+	<T> T retry(String key, Request<T> request) throws IOException {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return request.run();
+			} catch (IOException e) {
+				boolean retryable = !(e instanceof S3Client.S3Exception) || ((S3Client.S3Exception) e).isRetryable();
+				if (!retryable || attempt >= MAX_ATTEMPTS) {
+					throw e;
+				}
+				retries.incrementAndGet();
+				long delay = RETRY_DELAY << (attempt - 1);
+				Log.debug("Upload of {} failed (attempt {}), retrying in {}ms: {}", key, attempt, delay, e.getMessage());
+				try {
+					Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting to retry " + key);
+				}
+			}
+		}
+	}
+
+	interface Request<T> {
+		T run() throws IOException;
+	}
+
+	interface PartTask<T> {
+		T run(byte[] data) throws IOException;
+	}
+
+}
@@ -0,0 +1,161 @@
+package org.inventivetalent.minetile.deployer;
+
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Applies a {@link ChunkPatch} to a container directory in place.
+ * <p>
+ * All base checksums are verified before anything is written, so a patch that doesn't match the container (wrong container, already applied, modified world) leaves it untouched.
+ */
+@CommandLine.Command(name = "apply",
+					 description = "Apply a chunk patch created with 'diff' to a container",
+					 mixinStandardHelpOptions = true,
+					 showDefaultValues = true)
+public class PatchApplier implements Callable<Boolean> {
+
+	@CommandLine.Parameters(paramLabel = "PATCH",
+							description = "Patch file to apply")
+	private File patchFile;
+
+	@CommandLine.Option(names = { "-c", "--container" },
+						paramLabel = "FILE",
+						description = "Container directory to patch")
+	private File containerDir = new File(".");
+
+	@CommandLine.Option(names = { "--force" },
+						description = "Apply the patch even if the container doesn't match the patch's base")
+	private boolean force = false;
+
+	@CommandLine.Option(names = { "-d", "--dry-run" },
+						description = "Only check whether the patch can be applied")
+	private boolean dryRun = false;
+
+	@Override
+	public Boolean call() throws Exception {
+		if (!containerDir.isDirectory()) {
+			Log.error("Container directory {} not found", containerDir);
+			return false;
+		}
+		ChunkPatch patch = ChunkPatch.read(patchFile);
+		Log.info("Patch for {}: {} operations, {}", patch.getContainer(), patch.getOperations().size(), ArchiveBenchmark.humanBytes(patch.getDataSize()));
+
+		// checked before anything is read or written, a patch file isn't necessarily trustworthy
+		for (ChunkPatch.Operation operation : patch.getOperations()) {
+			if (resolve(operation.path) == null) {
+				Log.error("Patch path {} is outside of the container, nothing was changed", operation.path);
+				return false;
+			}
+			if (operation.type == ChunkPatch.OP_PUT_CHUNK && !RegionFile.fits(operation.data.length - 1)) {
+				Log.error("Chunk {},{} of {} is too large for a region file, nothing was changed", operation.slot % 32, operation.slot / 32, operation.path);
+				return false;
+			}
+		}
+
+		List<String> mismatches = checkBase(patch);
+		if (!mismatches.isEmpty()) {
+			for (String mismatch : mismatches) {
+				Log.warn("Base mismatch: {}", mismatch);
+			}
+			if (!force) {
+				throw new Main.CommandFailedException(mismatches.size() + " operations don't match the container, nothing was changed (use --force to apply anyway)", 2);
+			}
+		}
+		if (dryRun) {
+			Log.info("Patch can be applied");
+			return true;
+		}
+
+		apply(patch);
+		Log.info("Patched {}", containerDir);
+		return true;
+	}
+
+	/**
+	 * @param path path of an operation, relative to the container
+	 * @return the file, or <code>null</code> if the path leads outside of the container (absolute, <code>..</code> or through a symlink)
+	 */
+	File resolve(String path) throws IOException {
+		if (new File(path).isAbsolute()) {
+			return null;
+		}
+		File root = containerDir.getCanonicalFile();
+		File file = new File(root, path).getCanonicalFile();
+		if (!file.toPath().startsWith(root.toPath()) || file.equals(root)) {
+			return null;
+		}
+		return file;
+	}
+
+	List<String> checkBase(ChunkPatch patch) throws IOException {
+		List<String> mismatches = new ArrayList<>();
+		Map<String, byte[][]> regions = new HashMap<>();
+		for (ChunkPatch.Operation operation : patch.getOperations()) {
+			File file = resolve(operation.path);
+			byte[] current;
+			if (operation.isChunk()) {
+				byte[][] chunks = regions.get(operation.path);
+				if (chunks == null) {
+					chunks = file.exists() ? DeployDiff.readRawChunks(file, null) : new byte[1024][];
+					regions.put(operation.path, chunks);
+				}
+				current = chunks[operation.slot];
+			} else {
+				current = file.exists() ? Files.readAllBytes(file.toPath()) : null;
+			}
+
+			String what = operation.path + (operation.isChunk() ? " chunk " + (operation.slot % 32) + "," + (operation.slot / 32) : "");
+			if (!operation.hasBase && current != null) {
+				mismatches.add(what + " already exists");
+			} else if (operation.hasBase && current == null) {
+				mismatches.add(what + " doesn't exist");
+			} else if (operation.hasBase && ChunkPatch.crc(current) != operation.baseCrc) {
+				mismatches.add(what + " has different content");
+			}
+		}
+		return mismatches;
+	}
+
+	void apply(ChunkPatch patch) throws IOException {
+		// group chunk operations per region file, so each one is opened once
+		Map<String, List<ChunkPatch.Operation>> regionOperations = new LinkedHashMap<>();
+		for (ChunkPatch.Operation operation : patch.getOperations()) {
+			if (operation.isChunk()) {
+				regionOperations.computeIfAbsent(operation.path, p -> new ArrayList<>()).add(operation);
+				continue;
+			}
+			File file = resolve(operation.path);
+			if (operation.type == ChunkPatch.OP_PUT_FILE) {
+				file.getParentFile().mkdirs();
+				File temp = new File(file.getParentFile(), file.getName() + Deployer.PARTIAL_SUFFIX);
+				Files.write(temp.toPath(), operation.data);
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} else if (operation.type == ChunkPatch.OP_DELETE_FILE) {
+				Files.deleteIfExists(file.toPath());
+			}
+		}
+
+		for (Map.Entry<String, List<ChunkPatch.Operation>> entry : regionOperations.entrySet()) {
+			File file = resolve(entry.getKey());
+			file.getParentFile().mkdirs();
+			try (RegionFile regionFile = new RegionFile(file)) {
+				for (ChunkPatch.Operation operation : entry.getValue()) {
+					int x = operation.slot % 32;
+					int z = operation.slot / 32;
+					if (operation.type == ChunkPatch.OP_PUT_CHUNK) {
+						regionFile.writeRawChunk(x, z, operation.data, operation.timestamp);
+					} else {
+						regionFile.deleteChunk(x, z);
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -90,8 +90,10 @@ public class RegionFile implements AutoCloseable {
         sizeDelta = 0;
 
         try {
+            IoThrottle.operation();
             if (path.exists()) {
                 lastModified = path.lastModified();
+                IoThrottle.read(SECTOR_BYTES * 2);
             }
 
             file = new RandomAccessFile(path, "rw");
@@ -142,7 +144,7 @@ public class RegionFile implements AutoCloseable {
                 chunkTimestamps[i] = lastModValue;
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("Failed to open region file {}", fileName, e);
         }
     }
 
@@ -212,6 +214,7 @@ public class RegionFile implements AutoCloseable {
                 return null;
             }
 
+            IoThrottle.read(length);
             byte version = file.readByte();
             if (version == VERSION_GZIP) {
                 byte[] data = new byte[length - 1];
@@ -235,6 +238,67 @@ public class RegionFile implements AutoCloseable {
         }
     }
 
+    /*
+     * gets an (uncompressed) stream for a chunk from sectors that were already
+     * read with readSectors; returns null if the chunk is not (completely)
+     * contained in the buffer or can't be decoded
+     */
+    public DataInputStream getChunkDataInputStream(int x, int z, byte[] sectors, int firstSector) {
+        if (outOfBounds(x, z)) {
+            return null;
+        }
+        int offset = getOffset(x, z);
+        if (offset == 0) {
+            return null;
+        }
+        int sectorNumber = offset >> 8;
+        int numSectors = offset & 0xFF;
+        int start = (sectorNumber - firstSector) * SECTOR_BYTES;
+        if (sectorNumber < firstSector || start + CHUNK_HEADER_SIZE > sectors.length) {
+            debugln("READ", x, z, "not in buffer");
+            return null;
+        }
+
+        int length = ((sectors[start] & 0xFF) << 24) | ((sectors[start + 1] & 0xFF) << 16) | ((sectors[start + 2] & 0xFF) << 8) | (sectors[start + 3] & 0xFF);
+        if (length <= 1 || length > SECTOR_BYTES * numSectors || start + 4 + length > sectors.length) {
+            debugln("READ", x, z, "invalid length: " + length + " > 4096 * " + numSectors);
+            return null;
+        }
+
+        byte version = sectors[start + 4];
+        try {
+            if (version == VERSION_GZIP) {
+                return new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(sectors, start + CHUNK_HEADER_SIZE, length - 1)));
+            } else if (version == VERSION_DEFLATE) {
+                return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(sectors, start + CHUNK_HEADER_SIZE, length - 1)));
+            }
+        } catch (IOException e) {
+            debugln("READ", x, z, "exception");
+            return null;
+        }
+        debugln("READ", x, z, "unknown version " + version);
+        return null;
+    }
+
+    /*
+     * reads count sectors starting at sectorNumber with a single read, the
+     * result is cut short at the end of the file
+     */
+    public synchronized byte[] readSectors(int sectorNumber, int count) throws IOException {
+        long start = (long) sectorNumber * SECTOR_BYTES;
+        int length = (int) Math.max(0, Math.min((long) count * SECTOR_BYTES, file.length() - start));
+        byte[] data = new byte[length];
+        IoThrottle.read(length);
+        file.seek(start);
+        file.readFully(data);
+        return data;
+    }
+
+    /* number of sectors in the file */
+    public synchronized int getSectorCount() {
+        return sectorFree.size();
+    }
+
     public DataOutputStream getChunkDataOutputStream(int x, int z) {
         if (outOfBounds(x, z)) return null;
 
@@ -259,23 +323,101 @@ public class RegionFile implements AutoCloseable {
         }
     }
 
+    /*
+     * gets the stored (still compressed) record of a chunk: the version byte
+     * followed by the compressed data; returns null if the chunk is not found
+     * or invalid
+     */
+    public synchronized byte[] readRawChunk(int x, int z) throws IOException {
+        if (outOfBounds(x, z)) return null;
+        int offset = getOffset(x, z);
+        if (offset == 0) return null;
+
+        int sectorNumber = offset >> 8;
+        int numSectors = offset & 0xFF;
+        if (sectorNumber + numSectors > sectorFree.size()) {
+            debugln("READ", x, z, "invalid sector");
+            return null;
+        }
+        file.seek((long) sectorNumber * SECTOR_BYTES);
+        int length = file.readInt();
+        if (length <= 1 || length > SECTOR_BYTES * numSectors) {
+            debugln("READ", x, z, "invalid length: " + length + " > 4096 * " + numSectors);
+            return null;
+        }
+        byte[] raw = new byte[length];
+        IoThrottle.read(length);
+        file.readFully(raw);
+        return raw;
+    }
+
+    /*
+     * writes a record as returned by readRawChunk (version byte followed by
+     * the compressed data) without re-compressing it
+     */
+    public synchronized void writeRawChunk(int x, int z, byte[] raw, int timestamp) throws IOException {
+        if (outOfBounds(x, z) || raw.length < 2) {
+            throw new IOException("Invalid raw chunk " + x + "," + z);
+        }
+        if (!write(x, z, raw[0], raw, 1, raw.length - 1)) {
+            throw new IOException("Failed to write chunk " + x + "," + z + " to " + fileName.getName() + (fits(raw.length - 1) ? "" : ", it is too large (" + (raw.length - 1) + " bytes)"));
+        }
+        setTimestamp(x, z, timestamp);
+    }
+
+    /* removes a chunk, its sectors become free */
+    public synchronized void deleteChunk(int x, int z) throws IOException {
+        if (outOfBounds(x, z)) return;
+        int offset = getOffset(x, z);
+        if (offset == 0) return;
+        int sectorNumber = offset >> 8;
+        int numSectors = offset & 0xFF;
+        for (int i = 0; i < numSectors && sectorNumber + i < sectorFree.size(); ++i) {
+            sectorFree.set(sectorNumber + i, true);
+        }
+        setOffset(x, z, 0);
+        setTimestamp(x, z, 0);
+    }
+
+    public int getTimestamp(int x, int z) {
+        return chunkTimestamps[x + z * 32];
+    }
+
     /* write a chunk at (x,z) with length bytes of data to disk */
     protected synchronized void write(int x, int z, byte[] data, int length) {
+        write(x, z, VERSION_DEFLATE, data, 0, length);
+    }
+
+    /* whether a chunk with length bytes of compressed data fits into a region file */
+    static boolean fits(int length) {
+        // maximum chunk size is 1MB
+        return (length + CHUNK_HEADER_SIZE) / SECTOR_BYTES + 1 < 256;
+    }
+
+    /*
+     * write a chunk at (x,z) with length bytes of data (compressed as version)
+     * to disk, returns false if the chunk is too large or couldn't be written
+     */
+    protected synchronized boolean write(int x, int z, int version, byte[] data, int dataOffset, int length) {
+        Object event = Flight.beginRegionWrite(fileName.getName(), x, z, length + CHUNK_HEADER_SIZE);
+        int sectorsNeeded = (length + CHUNK_HEADER_SIZE) / SECTOR_BYTES + 1;
+        String allocation = "failed";
         try {
             int offset = getOffset(x, z);
             int sectorNumber = offset >> 8;
             int sectorsAllocated = offset & 0xFF;
-            int sectorsNeeded = (length + CHUNK_HEADER_SIZE) / SECTOR_BYTES + 1;
 
-            // maximum chunk size is 1MB
-            if (sectorsNeeded >= 256) {
-                return;
+            if (!fits(length)) {
+                Log.warn("Chunk {},{} in {} is too large ({} bytes), it will be missing from the region", x, z, fileName.getName(), length);
+                allocation = "too large";
+                return false;
             }
 
             if (sectorNumber != 0 && sectorsAllocated == sectorsNeeded) {
                 /* we can simply overwrite the old sectors */
                 debug("SAVE", x, z, length, "rewrite");
-                write(sectorNumber, data, length);
+                allocation = "rewrite";
+                write(sectorNumber, version, data, dataOffset, length);
             } else {
                 /* we need to allocate new sectors */
 
@@ -304,18 +446,20 @@ public class RegionFile implements AutoCloseable {
                 if (runLength >= sectorsNeeded) {
                     /* we found a free space large enough */
                     debug("SAVE", x, z, length, "reuse");
+                    allocation = "reuse";
                     sectorNumber = runStart;
                     setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
                     for (int i = 0; i < sectorsNeeded; ++i) {
                         sectorFree.set(sectorNumber + i, false);
                     }
-                    write(sectorNumber, data, length);
+                    write(sectorNumber, version, data, dataOffset, length);
                 } else {
                     /*
                      * no free space large enough found -- we need to grow the
                      * file
                      */
                     debug("SAVE", x, z, length, "grow");
+                    allocation = "grow";
                     file.seek(file.length());
                     sectorNumber = sectorFree.size();
                     for (int i = 0; i < sectorsNeeded; ++i) {
@@ -324,23 +468,29 @@ public class RegionFile implements AutoCloseable {
                     }
                     sizeDelta += SECTOR_BYTES * sectorsNeeded;
 
-                    write(sectorNumber, data, length);
+                    write(sectorNumber, version, data, dataOffset, length);
                     setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
                 }
             }
             setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
+            return true;
         } catch (IOException e) {
-            e.printStackTrace();
+            allocation = "failed";
+            Log.error("Failed to write chunk {},{} to {}", x, z, fileName, e);
+            return false;
+        } finally {
+            Flight.endRegionWrite(event, sectorsNeeded, allocation);
         }
     }
 
     /* write a chunk data to the region file at specified sector number */
-    private void write(int sectorNumber, byte[] data, int length) throws IOException {
+    private void write(int sectorNumber, int version, byte[] data, int dataOffset, int length) throws IOException {
         debugln(" " + sectorNumber);
+        IoThrottle.write(length + CHUNK_HEADER_SIZE);
         file.seek(sectorNumber * SECTOR_BYTES);
         file.writeInt(length + 1); // chunk length
-        file.writeByte(VERSION_DEFLATE); // chunk version number
-        file.write(data, 0, length); // chunk data
+        file.writeByte(version); // chunk version number
+        file.write(data, dataOffset, length); // chunk data
     }
 
     /* is this an invalid chunk coordinate? */
@@ -0,0 +1,98 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A folder of region files inside a world, e.g. <code>region</code>, <code>DIM-1/region</code> or <code>entities</code>
+ */
+public class RegionFolder {
+
+	/* how deep to look for region folders (dimensions/<namespace>/<name>/region is the deepest vanilla layout) */
+	private static final int MAX_DEPTH = 4;
+
+	/* main terrain folder (<code>region</code>) first, the others by path */
+	static final Comparator<RegionFolder> ORDER = (a, b) -> {
+		if (a.path.equals(RegionKind.TERRAIN.folderName)) { return a.path.equals(b.path) ? 0 : -1; }
+		if (b.path.equals(RegionKind.TERRAIN.folderName)) { return 1; }
+		return a.path.compareTo(b.path);
+	};
+
+	private final String     path;
+	private final RegionKind kind;
+	private final File       directory;
+
+	final AtomicLong regionCount = new AtomicLong();
+	final AtomicLong chunkCount  = new AtomicLong();
+	final AtomicLong nanos       = new AtomicLong();
+
+	public RegionFolder(String path, RegionKind kind, File directory) {
+		this.path = path;
+		this.kind = kind;
+		this.directory = directory;
+	}
+
+	/* path relative to the world directory, using '/' as separator */
+	public String getPath() {
+		return path;
+	}
+
+	/* the dimension directory the folder belongs to, e.g. <code>DIM-1</code>, empty for the overworld */
+	public String getDimension() {
+		int slash = path.lastIndexOf('/');
+		return slash == -1 ? "" : path.substring(0, slash);
+	}
+
+	public RegionKind getKind() {
+		return kind;
+	}
+
+	/* null for the folders of a ShardedWorld */
+	public File getDirectory() {
+		return directory;
+	}
+
+	public File getRegionFile(int x, int z) {
+		return new File(directory, "r." + x + "." + z + ".mca");
+	}
+
+	/**
+	 * Finds all folders in the world that contain region files, the main terrain folder (<code>region</code>) comes first
+	 */
+	public static List<RegionFolder> discover(File worldDirectory) {
+		List<RegionFolder> folders = new ArrayList<>();
+		discover(worldDirectory, "", folders, 0);
+		folders.sort(ORDER);
+		return folders;
+	}
+
+	private static void discover(File directory, String path, List<RegionFolder> folders, int depth) {
+		File[] children = directory.listFiles(File::isDirectory);
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			String childPath = path.isEmpty() ? child.getName() : path + "/" + child.getName();
+			RegionKind kind = RegionKind.byFolderName(child.getName());
+			if (kind != null && containsRegionFiles(child)) {
+				folders.add(new RegionFolder(childPath, kind, child));
+			} else if (depth < MAX_DEPTH) {
+				discover(child, childPath, folders, depth + 1);
+			}
+		}
+	}
+
+	static boolean containsRegionFiles(File directory) {
+		String[] names = directory.list((dir, name) -> name.endsWith(".mca"));
+		return names != null && names.length > 0;
+	}
+
+	@Override
+	public String toString() {
+		return path + " (" + kind + ")";
+	}
+
+}
@@ -0,0 +1,38 @@
+package org.inventivetalent.minetile.deployer;
+
+/**
+ * The different kinds of data stored in the region file format
+ */
+public enum RegionKind {
+
+	/**
+	 * Block data, tile entities and (before 1.17) entities - <code>region</code> folders
+	 */
+	TERRAIN("region"),
+
+	/**
+	 * Points of interest (beds, workstations, portals, ...) since 1.14 - <code>poi</code> folders
+	 */
+	POI("poi"),
+
+	/**
+	 * Entities since 1.17 - <code>entities</code> folders
+	 */
+	ENTITIES("entities");
+
+	public final String folderName;
+
+	RegionKind(String folderName) {
+		this.folderName = folderName;
+	}
+
+	public static RegionKind byFolderName(String name) {
+		for (RegionKind kind : values()) {
+			if (kind.folderName.equals(name)) {
+				return kind;
+			}
+		}
+		return null;
+	}
+
+}
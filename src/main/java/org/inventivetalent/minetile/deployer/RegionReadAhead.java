@@ -0,0 +1,37 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a region file sequentially and throws the data away, so the OS (or the network file system client) has it cached by the time it is copied
+ */
+public class RegionReadAhead implements Runnable {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final File file;
+
+	public RegionReadAhead(File file) {
+		this.file = file;
+	}
+
+	@Override
+	public void run() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long position = 0;
+			int n;
+			while (!Thread.currentThread().isInterrupted() && (n = channel.read(buffer, position)) > 0) {
+				position += n;
+				buffer.clear();
+			}
+		} catch (IOException ignored) {
+			// only a hint, the actual read will report problems
+		}
+	}
+
+}
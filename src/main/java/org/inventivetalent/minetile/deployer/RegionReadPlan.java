@@ -0,0 +1,118 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Orders the chunk reads of a region file by their position in the file and groups neighbouring chunks into large sequential reads.
+ * <p>
+ * Chunks are stored in the order they were (re-)written by the game, so reading them in x/z order jumps back and forth through the file.
+ */
+public class RegionReadPlan {
+
+	/* maximum size of a single coalesced read */
+	static final int MAX_RUN_SECTORS = 256;// 1MB
+
+	/* unused sectors between two chunks that are read over instead of starting a new read */
+	static final int MAX_GAP_SECTORS = 4;
+
+	private final List<Run> runs = new ArrayList<>();
+
+	public RegionReadPlan(RegionFile regionFile) {
+		this(regionFile, slot -> true);
+	}
+
+	/**
+	 * @param slotFilter chunk slots (x + z * 32) to read, others are left out of the plan
+	 */
+	public RegionReadPlan(RegionFile regionFile, IntPredicate slotFilter) {
+		this(regionFile, slotFilter, MAX_RUN_SECTORS, MAX_GAP_SECTORS);
+	}
+
+	public RegionReadPlan(RegionFile regionFile, IntPredicate slotFilter, int maxRunSectors, int maxGapSectors) {
+		int sectorCount = regionFile.getSectorCount();
+
+		// offset (sector << 8 | count) in the upper bits, slot in the lower 10 bits, so sorting orders by sector
+		long[] entries = new long[1024];
+		int n = 0;
+		for (int slot = 0; slot < 1024; slot++) {
+			if (!slotFilter.test(slot)) {
+				continue;
+			}
+			int offset = regionFile.getOffset(slot % 32, slot / 32);
+			int sectorNumber = offset >>> 8;
+			int numSectors = offset & 0xFF;
+			if (offset == 0 || numSectors == 0 || sectorNumber < 2 || sectorNumber + numSectors > sectorCount) {
+				continue;// empty or invalid, RegionFile reports those
+			}
+			entries[n++] = ((offset & 0xFFFFFFFFL) << 10) | slot;
+		}
+		Arrays.sort(entries, 0, n);
+
+		Run current = null;
+		for (int i = 0; i < n; i++) {
+			int offset = (int) (entries[i] >>> 10);
+			int slot = (int) (entries[i] & 0x3FF);
+			int sectorNumber = offset >>> 8;
+			int numSectors = offset & 0xFF;
+
+			if (current != null) {
+				int end = current.firstSector + current.sectorCount;
+				int newEnd = Math.max(end, sectorNumber + numSectors);
+				if (sectorNumber - end <= maxGapSectors && newEnd - current.firstSector <= maxRunSectors) {
+					current.sectorCount = newEnd - current.firstSector;
+					current.addSlot(slot);
+					continue;
+				}
+			}
+			current = new Run(sectorNumber, numSectors);
+			current.addSlot(slot);
+			runs.add(current);
+		}
+	}
+
+	public List<Run> getRuns() {
+		return runs;
+	}
+
+	/**
+	 * A range of sectors read at once and the chunk slots (x + z * 32) stored in it
+	 */
+	public static class Run {
+		final int firstSector;
+		int sectorCount;
+		int[] slots = new int[4];
+		int   slotCount;
+
+		Run(int firstSector, int sectorCount) {
+			this.firstSector = firstSector;
+			this.sectorCount = sectorCount;
+		}
+
+		void addSlot(int slot) {
+			if (slotCount == slots.length) {
+				slots = Arrays.copyOf(slots, slots.length * 2);
+			}
+			slots[slotCount++] = slot;
+		}
+
+		public int getFirstSector() {
+			return firstSector;
+		}
+
+		public int getSectorCount() {
+			return sectorCount;
+		}
+
+		public int getSlotCount() {
+			return slotCount;
+		}
+
+		public int getSlot(int i) {
+			return slots[i];
+		}
+	}
+
+}
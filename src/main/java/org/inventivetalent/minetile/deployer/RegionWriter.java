@@ -0,0 +1,137 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a new region file from any number of threads at once.
+ * <p>
+ * Sectors are handed out by an atomic append pointer, so every chunk gets its own range without a lock, and is written there with a single positional write.
+ * The offset and timestamp tables are only kept in memory and written in one step when the file is closed, readers shouldn't open the file before that.
+ * Since nothing is ever freed, a chunk that is written twice leaves its old sectors unused.
+ * <p>
+ * Unlike {@link RegionFile}, the file is always created from scratch and can't be read.
+ */
+public class RegionWriter implements AutoCloseable {
+
+	private static final int SECTOR_BYTES    = 4096;
+	private static final int VERSION_DEFLATE = 2;
+	private static final int MAX_SECTORS     = 255;// one byte in the offset table
+
+	private final File        file;
+	private final FileChannel channel;
+
+	private final AtomicInteger      nextSector = new AtomicInteger(2);// after the two header sectors
+	private final AtomicIntegerArray offsets    = new AtomicIntegerArray(1024);
+	private final AtomicIntegerArray timestamps = new AtomicIntegerArray(1024);
+
+	public RegionWriter(File file) throws IOException {
+		this.file = file;
+		IoThrottle.operation();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Compresses uncompressed chunk data and writes it, the same way as RegionFile#getChunkDataOutputStream
+	 *
+	 * @return whether the chunk was written, <code>false</code> if it's larger than a region file allows
+	 */
+	public boolean writeChunk(int x, int z, ByteArrayOutputStream data) throws IOException {
+		if (x < 0 || x >= 32 || z < 0 || z >= 32) {
+			throw new IllegalArgumentException("Chunk " + x + "," + z + " is outside of the region");
+		}
+		CompressedChunk compressed = new CompressedChunk();
+		try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+			data.writeTo(out);
+		}
+		return write(x, z, VERSION_DEFLATE, compressed.buffer(), 0, compressed.size());
+	}
+
+	/**
+	 * Writes a chunk with the current time as its timestamp
+	 *
+	 * @param version compression type of the data
+	 * @return whether the chunk was written, <code>false</code> if it's larger than a region file allows
+	 */
+	public boolean write(int x, int z, int version, byte[] data, int dataOffset, int length) throws IOException {
+		int slot = x + z * 32;
+		int sectorsNeeded = (length + RegionFile.CHUNK_HEADER_SIZE + SECTOR_BYTES - 1) / SECTOR_BYTES;
+		Object event = Flight.beginRegionWrite(file.getName(), x, z, length + RegionFile.CHUNK_HEADER_SIZE);
+		String allocation = "failed";
+		try {
+			if (sectorsNeeded > MAX_SECTORS) {
+				Log.warn("Chunk {},{} in {} is too large ({} bytes), it will be missing from the region", x, z, file.getName(), length);
+				allocation = "too large";
+				return false;
+			}
+			int sectorNumber = nextSector.getAndAdd(sectorsNeeded);
+
+			ByteBuffer buffer = ByteBuffer.allocate(RegionFile.CHUNK_HEADER_SIZE + length);
+			buffer.putInt(length + 1);
+			buffer.put((byte) version);
+			buffer.put(data, dataOffset, length);
+			buffer.flip();
+			IoThrottle.write(buffer.remaining());
+			long position = (long) sectorNumber * SECTOR_BYTES;
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+
+			offsets.set(slot, sectorNumber << 8 | sectorsNeeded);
+			timestamps.set(slot, (int) (System.currentTimeMillis() / 1000L));
+			allocation = "append";
+			return true;
+		} finally {
+			Flight.endRegionWrite(event, sectorsNeeded, allocation);
+		}
+	}
+
+	/* number of sectors reserved so far, including the header */
+	public int getSectorCount() {
+		return nextSector.get();
+	}
+
+	/* writes the header tables and pads the file to whole sectors, all writes have to be finished */
+	@Override
+	public void close() throws IOException {
+		try {
+			ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES * 2);
+			for (int slot = 0; slot < 1024; slot++) {
+				header.putInt(slot * 4, offsets.get(slot));
+				header.putInt(SECTOR_BYTES + slot * 4, timestamps.get(slot));
+			}
+			IoThrottle.write(header.capacity());
+			long position = 0;
+			while (header.hasRemaining()) {
+				position += channel.write(header, position);
+			}
+
+			// the last chunk usually doesn't fill its last sector
+			long length = (long) nextSector.get() * SECTOR_BYTES;
+			if (channel.size() < length) {
+				channel.write(ByteBuffer.allocate(1), length - 1);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* gives access to its buffer, so the compressed data doesn't have to be copied once more */
+	private static class CompressedChunk extends ByteArrayOutputStream {
+		CompressedChunk() {
+			super(8192);
+		}
+
+		byte[] buffer() {
+			return buf;
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.inventivetalent.nbt.CompoundTag;
+import org.inventivetalent.nbt.DoubleTag;
+import org.inventivetalent.nbt.IntArrayTag;
+import org.inventivetalent.nbt.ListTag;
+import org.inventivetalent.nbt.NBTTag;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Moves a chunk from its source world position to its position in the container (chunk coordinates, entities, tile entities and scheduled ticks).
+ * Always runs first, on terrain, entity and POI chunks.
+ */
+public class RelocationTransformer implements ChunkTransformer {
+
+	static final String NAME = "relocate";
+
+	private static final Set<String> TOUCHED_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"xPos", "zPos",
+			"Entities",
+			"TileEntities", "block_entities",
+			"TileTicks", "LiquidTicks", "block_ticks", "fluid_ticks")));
+
+	// 1.17+ entities/r.x.z.mca
+	private static final Set<String> ENTITY_TOUCHED_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"Position",
+			"Entities")));
+
+	// poi/r.x.z.mca, points of interest per chunk section
+	private static final Set<String> POI_TOUCHED_TAGS = Collections.singleton("Sections");
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Set<String> getTouchedTags() {
+		return TOUCHED_TAGS;
+	}
+
+	@Override
+	public Set<String> getTouchedTags(RegionKind kind) {
+		switch (kind) {
+			case ENTITIES:
+				return ENTITY_TOUCHED_TAGS;
+			case POI:
+				return POI_TOUCHED_TAGS;
+			default:
+				return TOUCHED_TAGS;
+		}
+	}
+
+	@Override
+	public boolean appliesTo(RegionKind kind) {
+		return true;
+	}
+
+	@Override
+	public void transform(ChunkContext context, CompoundTag data) {
+		int shiftX = context.getBlockShiftX();
+		int shiftZ = context.getBlockShiftZ();
+
+		if (context.getKind() == RegionKind.POI) {
+			shiftPointsOfInterest(data, shiftX, shiftZ);
+			return;
+		}
+
+		// entity chunks store their position as [x, z]
+		NBTTag<?> position = data.get("Position");
+		if (position instanceof IntArrayTag && ((IntArrayTag) position).getValue().length == 2) {
+			int[] chunkPos = ((IntArrayTag) position).getValue();
+			chunkPos[0] = context.getChunkX();
+			chunkPos[1] = context.getChunkZ();
+		}
+
+		if (data.has("xPos")) {
+			data.set("xPos", context.getChunkX());
+		}
+		if (data.has("zPos")) {
+			data.set("zPos", context.getChunkZ());
+		}
+
+		if (data.has("Entities")) {
+			ListTag<CompoundTag> entitiesList = data.getList("Entities", CompoundTag.class);
+			for (CompoundTag entity : entitiesList) {
+				shiftEntity(entity, shiftX, shiftZ);
+			}
+		}
+
+		shiftBlockPositions(data, "TileEntities", shiftX, shiftZ);
+		shiftBlockPositions(data, "block_entities", shiftX, shiftZ);
+		shiftBlockPositions(data, "TileTicks", shiftX, shiftZ);
+		shiftBlockPositions(data, "LiquidTicks", shiftX, shiftZ);
+		shiftBlockPositions(data, "block_ticks", shiftX, shiftZ);
+		shiftBlockPositions(data, "fluid_ticks", shiftX, shiftZ);
+	}
+
+	static void shiftEntity(CompoundTag entity, int shiftX, int shiftZ) {
+		if (entity.has("Pos")) {
+			ListTag<DoubleTag> posList = entity.getList("Pos", DoubleTag.class);
+			posList.set(0, new DoubleTag(posList.get(0).getValue() + shiftX));
+			posList.set(2, new DoubleTag(posList.get(2).getValue() + shiftZ));
+			entity.set("Pos", posList);
+		}
+		// Entities riding this one are stored nested and have their own position
+		if (entity.has("Passengers")) {
+			ListTag<CompoundTag> passengers = entity.getList("Passengers", CompoundTag.class);
+			for (CompoundTag passenger : passengers) {
+				shiftEntity(passenger, shiftX, shiftZ);
+			}
+		}
+	}
+
+	static void shiftBlockPositions(CompoundTag data, String listName, int shiftX, int shiftZ) {
+		if (!data.has(listName)) {
+			return;
+		}
+		ListTag<CompoundTag> list = data.getList(listName, CompoundTag.class);
+		for (CompoundTag entry : list) {
+			shiftInt(entry, "x", shiftX);
+			shiftInt(entry, "z", shiftZ);
+		}
+	}
+
+	static void shiftPointsOfInterest(CompoundTag data, int shiftX, int shiftZ) {
+		if (!data.has("Sections")) {
+			return;
+		}
+		// Sections is keyed by the section's Y-coordinate
+		for (NBTTag<?> sectionTag : data.getCompound("Sections").getValue().values()) {
+			if (!(sectionTag instanceof CompoundTag) || !((CompoundTag) sectionTag).has("Records")) {
+				continue;
+			}
+			ListTag<CompoundTag> records = ((CompoundTag) sectionTag).getList("Records", CompoundTag.class);
+			for (CompoundTag record : records) {
+				NBTTag<?> pos = record.get("pos");
+				if (pos instanceof IntArrayTag && ((IntArrayTag) pos).getValue().length == 3) {
+					int[] blockPos = ((IntArrayTag) pos).getValue();
+					blockPos[0] += shiftX;
+					blockPos[2] += shiftZ;
+				}
+			}
+		}
+	}
+
+	static void shiftInt(CompoundTag compound, String key, int shift) {
+		NBTTag<?> tag = compound.get(key);
+		if (tag != null) {
+			compound.set(key, tag.getAsInt() + shift);
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Tile lookup table for the router: a dense grid over the deployed tiles holding the index of the server for every tile, and the servers with their neighbours.
+ * <p>
+ * Finding the server for a position is <code>grid[(tileZ - minZ) * columns + (tileX - minX)]</code> with <code>tile = floorDiv(block + tileBlocks / 2, tileBlocks)</code> on both axes,
+ * neighbours are indices into the server list as well, so the router never has to search.
+ * <p>
+ * Layout (big-endian): <code>MTRT</code>, version, tileSize, tileBlocks, minX, minZ, columns, rows, server count,
+ * servers (id as two longs, name, host, port, tile x, tile z, {@link #NEIGHBOURS} neighbour indices), grid of columns * rows indices, CRC32 of everything before.
+ * Names and hosts are modified UTF-8 as written by {@link DataOutputStream#writeUTF(String)}, missing servers and neighbours are -1.
+ */
+public class RouterTable {
+
+	static final String FILE_NAME = "tiles.bin";
+
+	private static final byte[] MAGIC   = { 'M', 'T', 'R', 'T' };
+	private static final int    VERSION = 1;
+
+	/* neighbour directions in the order they are stored: N, NE, E, SE, S, SW, W, NW (north is -z) */
+	static final int   NEIGHBOURS = 8;
+	static final int[] NEIGHBOUR_X = { 0, 1, 1, 1, 0, -1, -1, -1 };
+	static final int[] NEIGHBOUR_Z = { -1, -1, 0, 1, 1, 1, 0, -1 };
+
+	final int          tileSize;
+	final int          tileBlocks;// width of a tile in blocks
+	final int          minX;
+	final int          minZ;
+	final int          columns;
+	final int          rows;
+	final List<Server> servers;
+	final int[]        grid;
+
+	RouterTable(int tileSize, int tileBlocks, int minX, int minZ, int columns, int rows, List<Server> servers, int[] grid) {
+		this.tileSize = tileSize;
+		this.tileBlocks = tileBlocks;
+		this.minX = minX;
+		this.minZ = minZ;
+		this.columns = columns;
+		this.rows = rows;
+		this.servers = servers;
+		this.grid = grid;
+	}
+
+	/**
+	 * Builds the table from server list entries (as in servers.csv: ID, Name, Host, Port, X, Z, ...)
+	 *
+	 * @param tileSize tile size of the deployment
+	 */
+	static RouterTable build(int tileSize, List<String[]> entries) {
+		int tileSizeMca = (int) Math.ceil(tileSize / 32.0D);
+		List<Server> servers = new ArrayList<>();
+		int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+		for (String[] entry : entries) {
+			// server.properties without a server-port leaves the port "null", the server uses the default then
+			int port = entry[3].matches("\\d+") ? Integer.parseInt(entry[3]) : 25565;
+			Server server = new Server(UUID.fromString(entry[0]), entry[1], entry[2], port, Integer.parseInt(entry[4]), Integer.parseInt(entry[5]));
+			servers.add(server);
+			minX = Math.min(minX, server.x);
+			minZ = Math.min(minZ, server.z);
+			maxX = Math.max(maxX, server.x);
+			maxZ = Math.max(maxZ, server.z);
+		}
+		if (servers.isEmpty()) {
+			minX = minZ = 0;
+			maxX = maxZ = -1;
+		}
+		int columns = maxX - minX + 1;
+		int rows = maxZ - minZ + 1;
+		int[] grid = new int[columns * rows];
+		Arrays.fill(grid, -1);
+		RouterTable table = new RouterTable(tileSize, tileSizeMca * 64 * 16, minX, minZ, columns, rows, servers, grid);
+		for (int i = 0; i < servers.size(); i++) {
+			Server server = servers.get(i);
+			int cell = table.cell(server.x, server.z);
+			if (grid[cell] != -1) {
+				throw new IllegalArgumentException(servers.get(grid[cell]).name + " and " + server.name + " are both tile " + server.x + "," + server.z);
+			}
+			grid[cell] = i;
+		}
+		for (Server server : servers) {
+			for (int d = 0; d < NEIGHBOURS; d++) {
+				server.neighbours[d] = table.getServerIndex(server.x + NEIGHBOUR_X[d], server.z + NEIGHBOUR_Z[d]);
+			}
+		}
+		return table;
+	}
+
+	int cell(int tileX, int tileZ) {
+		return (tileZ - minZ) * columns + (tileX - minX);
+	}
+
+	/* index of the server of a tile, -1 if it isn't deployed */
+	public int getServerIndex(int tileX, int tileZ) {
+		if (tileX < minX || tileZ < minZ || tileX >= minX + columns || tileZ >= minZ + rows) {
+			return -1;
+		}
+		return grid[cell(tileX, tileZ)];
+	}
+
+	/* server whose tile contains the block position, or null */
+	public Server getServerAt(int blockX, int blockZ) {
+		int index = getServerIndex(Math.floorDiv(blockX + tileBlocks / 2, tileBlocks), Math.floorDiv(blockZ + tileBlocks / 2, tileBlocks));
+		return index == -1 ? null : servers.get(index);
+	}
+
+	public List<Server> getServers() {
+		return servers;
+	}
+
+	void write(File file) throws IOException {
+		File partial = new File(file.getParentFile(), file.getName() + Deployer.PARTIAL_SUFFIX);
+		CRC32 crc = new CRC32();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(partial), crc)))) {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(tileSize);
+			out.writeInt(tileBlocks);
+			out.writeInt(minX);
+			out.writeInt(minZ);
+			out.writeInt(columns);
+			out.writeInt(rows);
+			out.writeInt(servers.size());
+			for (Server server : servers) {
+				out.writeLong(server.id.getMostSignificantBits());
+				out.writeLong(server.id.getLeastSignificantBits());
+				out.writeUTF(server.name);
+				out.writeUTF(server.host);
+				out.writeInt(server.port);
+				out.writeInt(server.x);
+				out.writeInt(server.z);
+				for (int neighbour : server.neighbours) {
+					out.writeInt(neighbour);
+				}
+			}
+			for (int index : grid) {
+				out.writeInt(index);
+			}
+			out.flush();
+			out.writeInt((int) crc.getValue());
+		}
+		Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static RouterTable read(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), crc))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException(file + " is not a router table");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported router table version " + version);
+			}
+			int tileSize = in.readInt();
+			int tileBlocks = in.readInt();
+			int minX = in.readInt();
+			int minZ = in.readInt();
+			int columns = in.readInt();
+			int rows = in.readInt();
+			int serverCount = in.readInt();
+			if (columns < 0 || rows < 0 || serverCount < 0 || (long) columns * rows > Integer.MAX_VALUE) {
+				throw new IOException("Invalid router table dimensions");
+			}
+			List<Server> servers = new ArrayList<>(serverCount);
+			for (int i = 0; i < serverCount; i++) {
+				Server server = new Server(new UUID(in.readLong(), in.readLong()), in.readUTF(), in.readUTF(), in.readInt(), in.readInt(), in.readInt());
+				for (int d = 0; d < NEIGHBOURS; d++) {
+					server.neighbours[d] = in.readInt();
+				}
+				servers.add(server);
+			}
+			int[] grid = new int[columns * rows];
+			for (int i = 0; i < grid.length; i++) {
+				grid[i] = in.readInt();
+			}
+			int expected = (int) crc.getValue();
+			if (in.readInt() != expected) {
+				throw new IOException("Router table " + file + " is corrupt (checksum mismatch)");
+			}
+			return new RouterTable(tileSize, tileBlocks, minX, minZ, columns, rows, servers, grid);
+		}
+	}
+
+	public static class Server {
+		final UUID   id;
+		final String name;
+		final String host;
+		final int    port;
+		final int    x;
+		final int    z;
+		final int[]  neighbours = new int[NEIGHBOURS];
+
+		Server(UUID id, String name, String host, int port, int x, int z) {
+			this.id = id;
+			this.name = name;
+			this.host = host;
+			this.port = port;
+			this.x = x;
+			this.z = z;
+		}
+	}
+
+}
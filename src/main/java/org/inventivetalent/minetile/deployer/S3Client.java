@@ -0,0 +1,293 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.apache.commons.io.IOUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal client for the S3 object API (single and multipart uploads, listing) with AWS Signature Version 4, for AWS and S3-compatible stores like MinIO or Ceph.
+ * <p>
+ * Buckets are addressed path-style (<code>endpoint/bucket/key</code>), which every S3-compatible store supports. Each call is a single request, retrying is up to the caller.
+ */
+public class S3Client {
+
+	static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+	private static final Pattern UPLOAD_ID          = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+	private static final Pattern KEY                = Pattern.compile("<Key>([^<]+)</Key>");
+	private static final Pattern CONTINUATION_TOKEN = Pattern.compile("<NextContinuationToken>([^<]+)</NextContinuationToken>");
+
+	private final URL    endpoint;
+	private final String region;
+	private final String bucket;
+	private final String accessKey;
+	private final String secretKey;
+	private final String sessionToken;// temporary credentials, or null
+
+	public S3Client(URL endpoint, String region, String bucket, String accessKey, String secretKey, String sessionToken) {
+		this.endpoint = endpoint;
+		this.region = region;
+		this.bucket = bucket;
+		this.accessKey = accessKey;
+		this.secretKey = secretKey;
+		this.sessionToken = sessionToken;
+	}
+
+	public void putObject(String key, byte[] data, int length) throws IOException {
+		request("PUT", key, Collections.emptyMap(), data, length);
+	}
+
+	/* @return the upload id */
+	public String createMultipartUpload(String key) throws IOException {
+		String response = request("POST", key, Collections.singletonMap("uploads", ""), null, 0).body;
+		Matcher matcher = UPLOAD_ID.matcher(response);
+		if (!matcher.find()) {
+			throw new IOException("No UploadId in the response to creating a multipart upload of " + key);
+		}
+		return unescapeXml(matcher.group(1));
+	}
+
+	/* @return the ETag of the part */
+	public String uploadPart(String key, String uploadId, int partNumber, byte[] data, int length) throws IOException {
+		Map<String, String> query = new TreeMap<>();
+		query.put("partNumber", String.valueOf(partNumber));
+		query.put("uploadId", uploadId);
+		String etag = request("PUT", key, query, data, length).etag;
+		if (etag == null) {
+			throw new IOException("No ETag in the response to part " + partNumber + " of " + key);
+		}
+		return etag;
+	}
+
+	/* @param etags ETags of the parts, in part number order starting at 1 */
+	public void completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+		StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+		for (int i = 0; i < etags.size(); i++) {
+			body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>").append(escapeXml(etags.get(i))).append("</ETag></Part>");
+		}
+		body.append("</CompleteMultipartUpload>");
+		byte[] data = body.toString().getBytes(StandardCharsets.UTF_8);
+		String response = request("POST", key, Collections.singletonMap("uploadId", uploadId), data, data.length).body;
+		// the status is sent before the parts are combined, failures show up in the body
+		if (response.contains("<Error>")) {
+			throw new S3Exception(500, "Completing the multipart upload of " + key + " failed: " + response);
+		}
+	}
+
+	public void abortMultipartUpload(String key, String uploadId) throws IOException {
+		request("DELETE", key, Collections.singletonMap("uploadId", uploadId), null, 0);
+	}
+
+	/* @return the keys of all objects starting with the prefix, fetched 1000 at a time (ListObjectsV2) */
+	public List<String> listObjects(String prefix) throws IOException {
+		List<String> keys = new ArrayList<>();
+		String continuationToken = null;
+		do {
+			Map<String, String> query = new TreeMap<>();
+			query.put("list-type", "2");
+			query.put("prefix", prefix);
+			if (continuationToken != null) {
+				query.put("continuation-token", continuationToken);
+			}
+			String response = request("GET", "", query, null, 0).body;
+			Matcher key = KEY.matcher(response);
+			while (key.find()) {
+				keys.add(unescapeXml(key.group(1)));
+			}
+			Matcher token = CONTINUATION_TOKEN.matcher(response);
+			continuationToken = response.contains("<IsTruncated>true</IsTruncated>") && token.find() ? unescapeXml(token.group(1)) : null;
+		} while (continuationToken != null);
+		return keys;
+	}
+
+	Response request(String method, String key, Map<String, String> query, byte[] data, int length) throws IOException {
+		// an empty key addresses the bucket itself
+		String path = "/" + uriEncode(bucket, false) + (key.isEmpty() ? "" : "/" + uriEncode(key, false));
+		String basePath = endpoint.getPath().endsWith("/") ? endpoint.getPath().substring(0, endpoint.getPath().length() - 1) : endpoint.getPath();
+		String canonicalQuery = canonicalQuery(query);
+		URL url = new URL(endpoint.getProtocol(), endpoint.getHost(), endpoint.getPort(), basePath + path + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+		String payloadHash = data != null ? hex(sha256(data, length)) : EMPTY_SHA256;
+		String amzDate = amzDate(new Date());
+		Map<String, String> headers = new TreeMap<>();
+		headers.put("host", endpoint.getPort() != -1 && endpoint.getPort() != endpoint.getDefaultPort() ? endpoint.getHost() + ":" + endpoint.getPort() : endpoint.getHost());
+		headers.put("x-amz-content-sha256", payloadHash);
+		headers.put("x-amz-date", amzDate);
+		if (sessionToken != null) {
+			headers.put("x-amz-security-token", sessionToken);
+		}
+		String authorization = authorization(method, basePath + path, canonicalQuery, headers, payloadHash, amzDate);
+
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(30000);
+		connection.setReadTimeout(120000);
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			if (!header.getKey().equals("host")) {
+				connection.setRequestProperty(header.getKey(), header.getValue());
+			}
+		}
+		connection.setRequestProperty("Authorization", authorization);
+		if (data != null) {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(length);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(data, 0, length);
+			}
+		} else if (method.equals("PUT") || method.equals("POST")) {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(0);
+			connection.getOutputStream().close();
+		}
+
+		int status = connection.getResponseCode();
+		InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		String body = "";
+		if (in != null) {
+			try {
+				body = IOUtils.toString(in, StandardCharsets.UTF_8);
+			} finally {
+				in.close();
+			}
+		}
+		if (status >= 300) {
+			throw new S3Exception(status, method + " " + key + " failed with HTTP " + status + (body.isEmpty() ? "" : ": " + body));
+		}
+		return new Response(body, connection.getHeaderField("ETag"));
+	}
+
+	String authorization(String method, String canonicalUri, String canonicalQuery, Map<String, String> headers, String payloadHash, String amzDate) throws IOException {
+		StringBuilder canonicalHeaders = new StringBuilder();
+		StringBuilder signedHeaders = new StringBuilder();
+		for (Map.Entry<String, String> header : new TreeMap<>(headers).entrySet()) {
+			canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+			if (signedHeaders.length() > 0) {
+				signedHeaders.append(';');
+			}
+			signedHeaders.append(header.getKey());
+		}
+		String canonicalRequest = method + "\n" + canonicalUri + "\n" + canonicalQuery + "\n" + canonicalHeaders + "\n" + signedHeaders + "\n" + payloadHash;
+
+		String date = amzDate.substring(0, 8);
+		String scope = date + "/" + region + "/s3/aws4_request";
+		String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n" + hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8), -1));
+
+		byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+		signingKey = hmac(signingKey, region);
+		signingKey = hmac(signingKey, "s3");
+		signingKey = hmac(signingKey, "aws4_request");
+		String signature = hex(hmac(signingKey, stringToSign));
+
+		return "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature;
+	}
+
+	static String canonicalQuery(Map<String, String> query) {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, String> parameter : new TreeMap<>(query).entrySet()) {
+			if (builder.length() > 0) {
+				builder.append('&');
+			}
+			builder.append(uriEncode(parameter.getKey(), true)).append('=').append(uriEncode(parameter.getValue(), true));
+		}
+		return builder.toString();
+	}
+
+	/* percent-encodes everything but the unreserved characters (and '/' in paths) */
+	static String uriEncode(String value, boolean encodeSlash) {
+		StringBuilder builder = new StringBuilder();
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			char c = (char) (b & 0xFF);
+			if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+				builder.append(c);
+			} else {
+				builder.append('%').append(String.format("%02X", b & 0xFF));
+			}
+		}
+		return builder.toString();
+	}
+
+	static String amzDate(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'", Locale.ROOT);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(date);
+	}
+
+	static byte[] sha256(byte[] data, int length) throws IOException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(data, 0, length < 0 ? data.length : length);
+			return digest.digest();
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+	}
+
+	static byte[] hmac(byte[] key, String data) throws IOException {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw new IOException(e);
+		}
+	}
+
+	static String hex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+
+	static String escapeXml(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	static String unescapeXml(String value) {
+		return value.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+	}
+
+	static class Response {
+		final String body;
+		final String etag;
+
+		Response(String body, String etag) {
+			this.body = body;
+			this.etag = etag;
+		}
+	}
+
+	/**
+	 * Error response of the store, with its HTTP status
+	 */
+	static class S3Exception extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		S3Exception(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+
+		/* throttling and server errors are worth another attempt, other client errors are not */
+		boolean isRetryable() {
+			return status >= 500 || status == 429 || status == 408;
+		}
+	}
+
+}
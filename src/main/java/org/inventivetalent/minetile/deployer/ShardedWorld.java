@@ -0,0 +1,226 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.inventivetalent.nbt.CompoundTag;
+import org.inventivetalent.nbt.IntTag;
+import org.inventivetalent.nbt.NBTTag;
+import org.inventivetalent.nbt.stream.NBTInputStream;
+import org.inventivetalent.nbt.stream.NBTOutputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Matcher;
+
+/**
+ * The container worlds of an existing deployment, seen as one source world.
+ * <p>
+ * Tiles are aligned to regions, so every region of the world lies in the core of exactly one tile and is read from that tile's container as a whole.
+ * Regions outside of every deployed tile are taken from the closest container that has them in its halo.
+ */
+public class ShardedWorld {
+
+	/* next to level.dat in every container, since the level.dat spawn is moved into the tile */
+	static final String SOURCE_SPAWN_NAME = "minetile_spawn.dat";
+
+	private static final String[] SPAWN_TAGS = { "SpawnX", "SpawnY", "SpawnZ" };
+
+	private final int                  tileSizeMca;
+	private final Map<Long, Container> containers = new HashMap<>();
+	private final List<Container>      sorted     = new ArrayList<>();// by name
+	private final List<RegionFolder>   folders    = new ArrayList<>();
+
+	ShardedWorld(int tileSizeMca) {
+		this.tileSizeMca = tileSizeMca;
+	}
+
+	/**
+	 * @param output    output directory of the existing deployment
+	 * @param worldName name of the world directory in its containers
+	 * @param tileSize  tile size the deployment was created with
+	 */
+	public static ShardedWorld load(File output, String worldName, int tileSize) throws IOException {
+		File containersDir = new File(output, "containers");
+		if (!containersDir.isDirectory()) {
+			throw new IOException("Containers directory " + containersDir + " not found (archived containers have to be unpacked first)");
+		}
+		ShardedWorld world = new ShardedWorld((int) Math.ceil(tileSize / 32.0D));
+
+		Map<String, File> containerDirs = new TreeMap<>();
+		DeployDiff.findContainers(containersDir, "", containerDirs, 0);
+		Map<String, RegionKind> folderKinds = new TreeMap<>();
+		for (Map.Entry<String, File> entry : containerDirs.entrySet()) {
+			int[] tile;
+			try {
+				tile = DeployVerifier.readTileConfig(new File(entry.getValue(), "plugins/MineTileContainer/config.yml"));
+			} catch (IOException e) {
+				throw new IOException("Failed to read the config of " + entry.getKey() + ": " + e.getMessage(), e);
+			}
+			Container container = new Container(entry.getKey(), new File(entry.getValue(), worldName), tile[0], tile[1]);
+			Container previous = world.containers.put(key(container.x, container.z), container);
+			if (previous != null) {
+				throw new IOException(previous.name + " and " + container.name + " are both tile " + container.x + "," + container.z);
+			}
+			world.sorted.add(container);
+			for (RegionFolder folder : RegionFolder.discover(container.worldDir)) {
+				folderKinds.put(folder.getPath(), folder.getKind());
+			}
+		}
+		if (world.sorted.isEmpty()) {
+			throw new IOException("No container directories found in " + containersDir);
+		}
+
+		// the folders only exist inside the containers, look up their region files with getRegion
+		folderKinds.forEach((path, kind) -> world.folders.add(new RegionFolder(path, kind, null)));
+		world.folders.sort(RegionFolder.ORDER);
+		return world;
+	}
+
+	public List<RegionFolder> getFolders() {
+		return folders;
+	}
+
+	List<Container> getContainers() {
+		return sorted;
+	}
+
+	Container getContainer(int x, int z) {
+		return containers.get(key(x, z));
+	}
+
+	/* tile 0,0 isn't shifted, so its level.dat is valid for the whole world */
+	public File getLevelFile() {
+		Container origin = containers.get(key(0, 0));
+		return new File((origin != null ? origin : sorted.get(0)).worldDir, "level.dat");
+	}
+
+	/**
+	 * Puts the spawn of the original source world back into level.dat data read from {@link #getLevelFile()}
+	 *
+	 * @return whether the deployment recorded the source spawn, deployments from before it did keep the spawn of the level.dat's tile
+	 */
+	public boolean restoreSourceSpawn(CompoundTag dataTag) throws IOException {
+		File file = new File(getLevelFile().getParentFile(), SOURCE_SPAWN_NAME);
+		if (!file.exists()) {
+			return false;
+		}
+		try (NBTInputStream nbtIn = new NBTInputStream(new FileInputStream(file), true)) {
+			CompoundTag spawn = (CompoundTag) nbtIn.readNBTTag();
+			for (String name : SPAWN_TAGS) {
+				NBTTag<?> tag = spawn.get(name);
+				if (tag != null && tag.getValue() instanceof Number) {
+					dataTag.set(name, new IntTag(name, ((Number) tag.getValue()).intValue()));
+				}
+			}
+		}
+		return true;
+	}
+
+	/* records the spawn of level.dat data before it's moved into a tile, does nothing if it has none */
+	static void writeSourceSpawn(File file, CompoundTag dataTag) throws IOException {
+		CompoundTag spawn = new CompoundTag();
+		for (String name : SPAWN_TAGS) {
+			NBTTag<?> tag = dataTag.get(name);
+			if (tag != null && tag.getValue() instanceof Number) {
+				spawn.set(name, new IntTag(name, ((Number) tag.getValue()).intValue()));
+			}
+		}
+		if (spawn.get("SpawnX") == null || spawn.get("SpawnZ") == null) {
+			return;
+		}
+		try (NBTOutputStream nbtOut = new NBTOutputStream(new FileOutputStream(file), true)) {
+			nbtOut.writeTag(spawn);
+		}
+	}
+
+	/**
+	 * @return the container region file holding the world region rx,rz, or <code>null</code> if no container has it
+	 */
+	public Region getRegion(RegionFolder folder, int rx, int rz) {
+		int ownerX = Math.floorDiv(rx + tileSizeMca, tileSizeMca * 2);
+		int ownerZ = Math.floorDiv(rz + tileSizeMca, tileSizeMca * 2);
+		Container owner = containers.get(key(ownerX, ownerZ));
+		if (owner != null) {
+			return owner.getRegion(folder, rx, rz, tileSizeMca);
+		}
+
+		// outside of the deployed tiles, only halos can have it
+		Region closest = null;
+		int closestDistance = Integer.MAX_VALUE;
+		for (Container container : sorted) {
+			int distance = Math.max(Math.abs(container.x - ownerX), Math.abs(container.z - ownerZ));
+			if (distance < closestDistance) {
+				Region region = container.getRegion(folder, rx, rz, tileSizeMca);
+				if (region != null) {
+					closest = region;
+					closestDistance = distance;
+				}
+			}
+		}
+		return closest;
+	}
+
+	/**
+	 * @return the region files the containers own in a folder (halo regions are left out), by world region key
+	 */
+	public Map<Long, Region> getRegions(RegionFolder folder) {
+		Map<Long, Region> regions = new HashMap<>();
+		for (Container container : sorted) {
+			File[] files = new File(container.worldDir, folder.getPath()).listFiles((dir, name) -> DeployVerifier.REGION_NAME.matcher(name).matches());
+			if (files == null) { continue; }
+			for (File file : files) {
+				Matcher matcher = DeployVerifier.REGION_NAME.matcher(file.getName());
+				matcher.matches();
+				int cx = Integer.parseInt(matcher.group(1));
+				int cz = Integer.parseInt(matcher.group(2));
+				if (cx < -tileSizeMca || cx >= tileSizeMca || cz < -tileSizeMca || cz >= tileSizeMca) {
+					continue;
+				}
+				regions.put(key(cx + tileSizeMca * 2 * container.x, cz + tileSizeMca * 2 * container.z), new Region(file, cx, cz));
+			}
+		}
+		return regions;
+	}
+
+	static long key(int x, int z) {
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * A region file in a container and its coordinates there
+	 */
+	public static class Region {
+		final File file;
+		final int  x;
+		final int  z;
+
+		Region(File file, int x, int z) {
+			this.file = file;
+			this.x = x;
+			this.z = z;
+		}
+	}
+
+	static class Container {
+		final String name;
+		final File   worldDir;
+		final int    x;
+		final int    z;
+
+		Container(String name, File worldDir, int x, int z) {
+			this.name = name;
+			this.worldDir = worldDir;
+			this.x = x;
+			this.z = z;
+		}
+
+		Region getRegion(RegionFolder folder, int rx, int rz, int tileSizeMca) {
+			int cx = rx - tileSizeMca * 2 * x;
+			int cz = rz - tileSizeMca * 2 * z;
+			File file = new File(new File(worldDir, folder.getPath()), "r." + cx + "." + cz + ".mca");
+			return file.exists() ? new Region(file, cx, cz) : null;
+		}
+	}
+
+}
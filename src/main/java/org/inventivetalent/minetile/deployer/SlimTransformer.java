@@ -0,0 +1,133 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.inventivetalent.nbt.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Removes data the server doesn't need from the file: sections without any blocks (unless they carry non-trivial light) and, optionally, light and heightmaps which are recalculated when the chunk is loaded.
+ * <p>
+ * 1.18+ chunks (lower case <code>sections</code>) keep all their sections since those also store the biomes, only light is dropped there.
+ */
+public class SlimTransformer implements ChunkTransformer {
+
+	static final String NAME = "slim";
+
+	private static final Set<String> TOUCHED_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"Sections", "sections",
+			"isLightOn", "LightPopulated",
+			"Heightmaps")));
+
+	private static final Set<String> AIR_BLOCKS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"minecraft:air", "minecraft:cave_air", "minecraft:void_air")));
+
+	private final boolean dropLight;
+	private final boolean dropHeightmaps;
+
+	public SlimTransformer() {
+		this(false, false);
+	}
+
+	public SlimTransformer(boolean dropLight, boolean dropHeightmaps) {
+		this.dropLight = dropLight;
+		this.dropHeightmaps = dropHeightmaps;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Set<String> getTouchedTags() {
+		return TOUCHED_TAGS;
+	}
+
+	@Override
+	public void transform(ChunkContext context, CompoundTag data) {
+		if (data.has("Sections")) {
+			ListTag<CompoundTag> sections = data.getList("Sections", CompoundTag.class);
+			for (Iterator<CompoundTag> iterator = sections.getValue().iterator(); iterator.hasNext(); ) {
+				CompoundTag section = iterator.next();
+				if (dropLight) {
+					section.getValue().remove("BlockLight");
+					section.getValue().remove("SkyLight");
+				}
+				// empty sections can still carry light the server would have to recalculate, only drop them if it is trivial (dark, full sky light)
+				if (isEmpty(section) && isFilled(section.get("BlockLight"), (byte) 0) && isFilled(section.get("SkyLight"), (byte) 0xFF)) {
+					iterator.remove();
+				}
+			}
+		}
+		if (dropLight && data.has("sections")) {
+			for (CompoundTag section : data.getList("sections", CompoundTag.class)) {
+				section.getValue().remove("BlockLight");
+				section.getValue().remove("SkyLight");
+			}
+		}
+
+		if (dropLight) {
+			// make the server relight the chunk
+			if (data.has("isLightOn")) {
+				data.set("isLightOn", (byte) 0);
+			}
+			if (data.has("LightPopulated")) {
+				data.set("LightPopulated", (byte) 0);
+			}
+		}
+		if (dropHeightmaps) {
+			// 1.13+ only, missing heightmaps are primed on load. The pre-1.13 HeightMap array is required
+			data.getValue().remove("Heightmaps");
+		}
+	}
+
+	/* whether a light array is missing or every nibble has the same value */
+	static boolean isFilled(NBTTag<?> light, byte value) {
+		if (light == null) {
+			return true;
+		}
+		if (!(light instanceof ByteArrayTag)) {
+			return false;
+		}
+		for (byte b : ((ByteArrayTag) light).getValue()) {
+			if (b != value) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* whether a section (pre-1.18) contains nothing but air */
+	static boolean isEmpty(CompoundTag section) {
+		if (section.has("Palette")) {
+			// 1.13+: the palette lists every block state used in the section
+			ListTag<CompoundTag> palette = section.getList("Palette", CompoundTag.class);
+			for (CompoundTag state : palette) {
+				NBTTag<?> name = state.get("Name");
+				if (name == null || !AIR_BLOCKS.contains(String.valueOf(name.getValue()))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (section.has("Blocks")) {
+			// pre-1.13: one block id per position, 0 is air
+			NBTTag<?> blocks = section.get("Blocks");
+			if (!(blocks instanceof ByteArrayTag)) {
+				return false;
+			}
+			for (byte block : ((ByteArrayTag) blocks).getValue()) {
+				if (block != 0) {
+					return false;
+				}
+			}
+			return !section.has("Add");
+		}
+		return !section.has("BlockStates");
+	}
+
+}
@@ -0,0 +1,145 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.inventivetalent.nbt.CompoundTag;
+import org.inventivetalent.nbt.IntArrayTag;
+import org.inventivetalent.nbt.LongArrayTag;
+import org.inventivetalent.nbt.NBTTag;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Doesn't change any chunk, but finds a spawn point for every tile: the middle of the copied chunk closest to the tile's center, on top of the highest block there according to the chunk's heightmap.
+ * <p>
+ * Otherwise every container keeps the spawn of the source world, which for most tiles lies far outside of their chunks, so the server generates void spawn chunks on every start and keeps them loaded.
+ * Only chunks in the core of the tile and in the overworld are considered, chunks without a heightmap or with an empty middle column are skipped.
+ */
+public class SpawnTransformer implements ChunkTransformer {
+
+	static final String NAME = "spawn";
+
+	private static final Set<String> TOUCHED_TAGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"Heightmaps",// 1.13+
+			"HeightMap",// before 1.13
+			"yPos",// 1.18+, lowest section of the chunk
+			"Status")));
+
+	/* heightmaps that stand for the highest block a player can stand on, in order of preference */
+	private static final String[] HEIGHTMAPS = { "MOTION_BLOCKING", "WORLD_SURFACE" };
+
+	private static final int HEIGHTMAP_BITS = 9;
+	private static final int MIDDLE_COLUMN  = 8 * 16 + 8;// x + z * 16
+
+	private final Map<Long, Spawn> tiles = new ConcurrentHashMap<>();
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Set<String> getTouchedTags() {
+		return TOUCHED_TAGS;
+	}
+
+	@Override
+	public boolean appliesTo(ChunkContext context) {
+		if (context.isHalo() || !context.getDimension().isEmpty()) {
+			return false;
+		}
+		// chunks further away than the best one so far don't have to be decoded
+		Spawn best = tiles.get(ShardedWorld.key(context.getTileX(), context.getTileZ()));
+		return best == null || distance(context.getChunkX(), context.getChunkZ()) < best.distance;
+	}
+
+	@Override
+	public void transform(ChunkContext context, CompoundTag data) {
+		NBTTag<?> status = data.get("Status");
+		if (status != null && !isFinished(String.valueOf(status.getValue()))) {
+			return;
+		}
+		int height = readHeight(data);
+		if (height <= 0) {
+			return;
+		}
+		NBTTag<?> yPos = data.get("yPos");
+		int minY = yPos != null && yPos.getValue() instanceof Number ? ((Number) yPos.getValue()).intValue() * 16 : 0;
+
+		Spawn spawn = new Spawn(context.getChunkX() * 16 + 8, minY + height, context.getChunkZ() * 16 + 8, distance(context.getChunkX(), context.getChunkZ()));
+		tiles.merge(ShardedWorld.key(context.getTileX(), context.getTileZ()), spawn, (a, b) -> b.distance < a.distance ? b : a);
+	}
+
+	/* generation is done for a chunk, so its heightmap is complete */
+	static boolean isFinished(String status) {
+		return status.endsWith("full") || status.equals("postprocessed") || status.equals("fullchunk");
+	}
+
+	/**
+	 * @return the heightmap value (number of blocks above the bottom of the world) of the chunk's middle column, 0 if there is no heightmap
+	 */
+	static int readHeight(CompoundTag data) {
+		NBTTag<?> heightmaps = data.get("Heightmaps");
+		if (heightmaps instanceof CompoundTag) {
+			for (String name : HEIGHTMAPS) {
+				NBTTag<?> heightmap = ((CompoundTag) heightmaps).get(name);
+				if (heightmap instanceof LongArrayTag) {
+					return unpack(((LongArrayTag) heightmap).getValue(), MIDDLE_COLUMN);
+				}
+			}
+		}
+		NBTTag<?> legacy = data.get("HeightMap");
+		if (legacy instanceof IntArrayTag && ((IntArrayTag) legacy).getValue().length == 256) {
+			return ((IntArrayTag) legacy).getValue()[MIDDLE_COLUMN];
+		}
+		return 0;
+	}
+
+	/* 9 bit entries, spanning across longs before 1.16 (36 longs) and padded to 7 entries per long since (37 longs) */
+	static int unpack(long[] values, int index) {
+		int mask = (1 << HEIGHTMAP_BITS) - 1;
+		if (values.length == 37) {
+			return (int) (values[index / 7] >>> (index % 7 * HEIGHTMAP_BITS)) & mask;
+		}
+		if (values.length != 36) {
+			return 0;
+		}
+		int bit = index * HEIGHTMAP_BITS;
+		int offset = bit & 63;
+		long value = values[bit >> 6] >>> offset;
+		if (offset + HEIGHTMAP_BITS > 64) {
+			value |= values[(bit >> 6) + 1] << (64 - offset);
+		}
+		return (int) value & mask;
+	}
+
+	/* squared distance of the chunk's middle to the center of the container world, in half chunks */
+	static long distance(int chunkX, int chunkZ) {
+		long x = chunkX * 2L + 1;
+		long z = chunkZ * 2L + 1;
+		return x * x + z * z;
+	}
+
+	/**
+	 * Removes the spawn found for a tile
+	 *
+	 * @return the spawn, or <code>null</code> if none of the tile's chunks had a usable heightmap
+	 */
+	Spawn takeTile(int tileX, int tileZ) {
+		return tiles.remove(ShardedWorld.key(tileX, tileZ));
+	}
+
+	static class Spawn {
+		final int  x;
+		final int  y;
+		final int  z;
+		final long distance;
+
+		Spawn(int x, int y, int z, long distance) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.distance = distance;
+		}
+	}
+
+}
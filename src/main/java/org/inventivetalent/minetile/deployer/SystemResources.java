@@ -0,0 +1,103 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * CPU and memory limits of the machine or container (cgroup v1 and v2) the deployer is running in
+ */
+final class SystemResources {
+
+	private SystemResources() {
+	}
+
+	/**
+	 * @return the number of CPUs available to this process, taking a cgroup CPU quota into account
+	 */
+	static int availableCpus() {
+		int cpus = Runtime.getRuntime().availableProcessors();
+
+		// cgroup v2: "<quota> <period>" or "max <period>"
+		String[] cpuMax = readFirstLine(new File("/sys/fs/cgroup/cpu.max"), "").trim().split(" ");
+		if (cpuMax.length == 2 && !"max".equals(cpuMax[0])) {
+			cpus = Math.min(cpus, quotaToCpus(parseLong(cpuMax[0], -1), parseLong(cpuMax[1], -1)));
+		} else {
+			// cgroup v1
+			long quota = parseLong(readFirstLine(new File("/sys/fs/cgroup/cpu/cpu.cfs_quota_us"), "-1"), -1);
+			long period = parseLong(readFirstLine(new File("/sys/fs/cgroup/cpu/cpu.cfs_period_us"), "-1"), -1);
+			cpus = Math.min(cpus, quotaToCpus(quota, period));
+		}
+		return Math.max(1, cpus);
+	}
+
+	/**
+	 * @return the amount of memory this process can use: the smaller one of the max heap size and a cgroup memory limit
+	 */
+	static long memoryLimit() {
+		long limit = Runtime.getRuntime().maxMemory();
+
+		long cgroupLimit = parseLong(readFirstLine(new File("/sys/fs/cgroup/memory.max"), "max"), -1);
+		if (cgroupLimit <= 0) {
+			cgroupLimit = parseLong(readFirstLine(new File("/sys/fs/cgroup/memory/memory.limit_in_bytes"), "-1"), -1);
+		}
+		if (cgroupLimit > 0 && cgroupLimit < limit) {
+			limit = cgroupLimit;
+		}
+		return limit;
+	}
+
+	static int quotaToCpus(long quota, long period) {
+		if (quota <= 0 || period <= 0) {
+			return Integer.MAX_VALUE;
+		}
+		return (int) Math.max(1, (quota + period - 1) / period);
+	}
+
+	static String readFirstLine(File file, String fallback) {
+		if (!file.exists()) {
+			return fallback;
+		}
+		try {
+			String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			int newLine = content.indexOf('\n');
+			return (newLine == -1 ? content : content.substring(0, newLine)).trim();
+		} catch (IOException e) {
+			return fallback;
+		}
+	}
+
+	static long parseLong(String value, long fallback) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return fallback;
+		}
+	}
+
+	/**
+	 * Parses sizes like <code>512M</code>, <code>2G</code> or plain byte counts
+	 */
+	static long parseSize(String value) {
+		String trimmed = value.trim().toUpperCase();
+		if (trimmed.endsWith("B")) {
+			trimmed = trimmed.substring(0, trimmed.length() - 1);
+		}
+		long multiplier = 1;
+		if (trimmed.endsWith("K")) {
+			multiplier = 1024L;
+		} else if (trimmed.endsWith("M")) {
+			multiplier = 1024L * 1024L;
+		} else if (trimmed.endsWith("G")) {
+			multiplier = 1024L * 1024L * 1024L;
+		} else if (trimmed.endsWith("T")) {
+			multiplier = 1024L * 1024L * 1024L * 1024L;
+		}
+		if (multiplier != 1) {
+			trimmed = trimmed.substring(0, trimmed.length() - 1);
+		}
+		return (long) (Double.parseDouble(trimmed) * multiplier);
+	}
+
+}
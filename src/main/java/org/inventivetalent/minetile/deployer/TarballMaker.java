@@ -2,7 +2,6 @@ package org.inventivetalent.minetile.deployer;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
@@ -10,26 +9,47 @@ import java.io.*;
 // based on https://stackoverflow.com/questions/13461393/compress-directory-to-tar-gz-with-commons-compress
 public class TarballMaker implements Closeable, AutoCloseable {
 
-	private FileOutputStream           fileOutputStream;
-	private BufferedOutputStream       bufferedOutputStream;
-	private GzipCompressorOutputStream gzipCompressorOutputStream;
-	private TarArchiveOutputStream     tarArchiveOutputStream;
+	private FileOutputStream       fileOutputStream;
+	private BufferedOutputStream   bufferedOutputStream;
+	private OutputStream           compressorOutputStream;
+	private TarArchiveOutputStream tarArchiveOutputStream;
 
 	public TarballMaker(File output) throws IOException {
+		this(output, ArchiveCodec.GZIP, -1, false);
+	}
+
+	public TarballMaker(File output, ArchiveCodec codec, int level, boolean longWindow) throws IOException {
+		IoThrottle.operation();
 		fileOutputStream = new FileOutputStream(output);
-		bufferedOutputStream = new BufferedOutputStream(fileOutputStream);
-		gzipCompressorOutputStream = new GzipCompressorOutputStream(bufferedOutputStream);
-		tarArchiveOutputStream = new TarArchiveOutputStream(gzipCompressorOutputStream);
+		bufferedOutputStream = new BufferedOutputStream(IoThrottle.output(fileOutputStream), 64 * 1024);
+		compressorOutputStream = codec.compress(bufferedOutputStream, level, longWindow);
+		tarArchiveOutputStream = new TarArchiveOutputStream(compressorOutputStream);
+		tarArchiveOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+		tarArchiveOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
 	}
 
 	public void addRecursive(File file, String base) throws IOException {
-		String entryName = base + file.getName();
+		addRecursive(file, base, file.getName());
+	}
+
+	/* add the file or directory under a different name than it has on disk */
+	public void addRecursive(File file, String base, String name) throws IOException {
+		String entryName = base + name;
 		TarArchiveEntry entry = new TarArchiveEntry(file, entryName);
 		this.tarArchiveOutputStream.putArchiveEntry(entry);
 
 		if (file.isFile()) {
-			IOUtils.copy(new FileInputStream(file), this.tarArchiveOutputStream);
-			this.tarArchiveOutputStream.closeArchiveEntry();
+			Object event = Flight.beginArchiveEntry(entryName);
+			long bytes = 0;
+			IoThrottle.operation();
+			try (InputStream in = IoThrottle.input(new FileInputStream(file))) {
+				bytes = IOUtils.copyLarge(in, this.tarArchiveOutputStream);
+				this.tarArchiveOutputStream.closeArchiveEntry();
+			} catch (IOException e) {
+				Flight.endArchiveEntry(event, bytes, "failed");
+				throw e;
+			}
+			Flight.endArchiveEntry(event, bytes, "added");
 		} else {
 			this.tarArchiveOutputStream.closeArchiveEntry();
 			File[] children = file.listFiles();
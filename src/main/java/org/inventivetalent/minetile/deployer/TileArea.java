@@ -0,0 +1,64 @@
+package org.inventivetalent.minetile.deployer;
+
+/**
+ * The chunks of a container world, in container chunk coordinates: the tile itself plus a halo of border chunks around it that is only loaded for view distance
+ */
+public class TileArea {
+
+	/* default halo width, one whole region around the tile */
+	static final int DEFAULT_HALO_CHUNKS = 32;
+
+	private final int coreMin;
+	private final int coreMax;
+	private final int haloChunks;
+
+	/**
+	 * @param tileSizeMca half the tile width in regions
+	 * @param haloChunks  width of the halo ring in chunks
+	 */
+	public TileArea(int tileSizeMca, int haloChunks) {
+		this.coreMin = -tileSizeMca * 32;
+		this.coreMax = tileSizeMca * 32 - 1;
+		this.haloChunks = Math.max(0, haloChunks);
+	}
+
+	public int getHaloChunks() {
+		return haloChunks;
+	}
+
+	/* smallest region coordinate (on both axes) containing chunks of this area */
+	public int getMinRegion() {
+		return Math.floorDiv(coreMin - haloChunks, 32);
+	}
+
+	/* largest region coordinate (on both axes) containing chunks of this area */
+	public int getMaxRegion() {
+		return Math.floorDiv(coreMax + haloChunks, 32);
+	}
+
+	public boolean contains(int chunkX, int chunkZ) {
+		return chunkX >= coreMin - haloChunks && chunkX <= coreMax + haloChunks
+				&& chunkZ >= coreMin - haloChunks && chunkZ <= coreMax + haloChunks;
+	}
+
+	public boolean isHalo(int chunkX, int chunkZ) {
+		return contains(chunkX, chunkZ) && (chunkX < coreMin || chunkX > coreMax || chunkZ < coreMin || chunkZ > coreMax);
+	}
+
+	/* number of chunks of the container region regionX,regionZ that are part of this area */
+	public int countChunks(int regionX, int regionZ) {
+		return overlap(regionX) * overlap(regionZ);
+	}
+
+	private int overlap(int region) {
+		int min = Math.max(region * 32, coreMin - haloChunks);
+		int max = Math.min(region * 32 + 31, coreMax + haloChunks);
+		return Math.max(0, max - min + 1);
+	}
+
+	/* whether the chunk slot (x + z * 32) of the container region regionX,regionZ is part of this area */
+	public boolean containsSlot(int regionX, int regionZ, int slot) {
+		return contains(regionX * 32 + slot % 32, regionZ * 32 + slot / 32);
+	}
+
+}
@@ -0,0 +1,140 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Order in which tiles are handed to the worker pool
+ */
+public enum TileSchedule {
+
+	/**
+	 * Row by row, in the order the containers are numbered
+	 */
+	ORDER,
+
+	/**
+	 * Largest estimated tile first (longest processing time), so the big tiles don't start last and leave a tail with idle workers
+	 */
+	LPT,
+
+	/**
+	 * Along a Z-order curve, so tiles sharing halo regions are copied close together while the source regions are still cached
+	 */
+	ZORDER,
+
+	/**
+	 * Along a Hilbert curve, like {@link #ZORDER} but without the long jumps between quadrants
+	 */
+	HILBERT;
+
+	/**
+	 * Sorts the tiles into this schedule's order. Tiles of different worlds stay grouped by world for the curves, {@link #LPT} mixes them.
+	 */
+	void order(List<Tile> tiles) {
+		switch (this) {
+			case ORDER:
+				break;
+			case LPT:
+				tiles.sort(Comparator.comparingLong((Tile tile) -> tile.cost).reversed());
+				break;
+			case ZORDER:
+			case HILBERT:
+				int minX = Integer.MAX_VALUE;
+				int minZ = Integer.MAX_VALUE;
+				int extent = 1;
+				for (Tile tile : tiles) {
+					minX = Math.min(minX, tile.x);
+					minZ = Math.min(minZ, tile.z);
+				}
+				for (Tile tile : tiles) {
+					extent = Math.max(extent, Math.max(tile.x - minX, tile.z - minZ) + 1);
+				}
+				int n = Integer.highestOneBit(extent) < extent ? Integer.highestOneBit(extent) << 1 : extent;
+				for (Tile tile : tiles) {
+					int x = tile.x - minX;
+					int z = tile.z - minZ;
+					tile.curve = this == ZORDER ? mortonIndex(x, z) : hilbertIndex(n, x, z);
+				}
+				// List.sort is stable, so the worlds (added one after the other) stay in order
+				tiles.sort(Comparator.comparingInt((Tile tile) -> tile.group).thenComparingLong(tile -> tile.curve));
+				break;
+		}
+	}
+
+	/* interleaves the bits of x and z */
+	static long mortonIndex(int x, int z) {
+		long index = 0;
+		for (int bit = 0; bit < 31; bit++) {
+			index |= ((long) (x >> bit & 1) << (2 * bit)) | ((long) (z >> bit & 1) << (2 * bit + 1));
+		}
+		return index;
+	}
+
+	/* distance of x,z along the Hilbert curve filling an n*n square (n a power of two) */
+	static long hilbertIndex(int n, int x, int z) {
+		long index = 0;
+		for (int s = n / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int rz = (z & s) > 0 ? 1 : 0;
+			index += (long) s * s * ((3 * rx) ^ rz);
+			// rotate the quadrant
+			if (rz == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					z = n - 1 - z;
+				}
+				int t = x;
+				x = z;
+				z = t;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Simulates handing the tiles in their current order to the next free of the given number of workers
+	 *
+	 * @return estimated makespan in cost units
+	 */
+	static long estimateMakespan(List<Tile> tiles, int workers) {
+		long[] load = new long[Math.max(1, workers)];
+		for (Tile tile : tiles) {
+			int next = 0;
+			for (int i = 1; i < load.length; i++) {
+				if (load[i] < load[next]) {
+					next = i;
+				}
+			}
+			load[next] += tile.cost;
+		}
+		long makespan = 0;
+		for (long l : load) {
+			makespan = Math.max(makespan, l);
+		}
+		return makespan;
+	}
+
+	/**
+	 * A tile to deploy and the estimated cost of copying it
+	 */
+	static class Tile {
+		final Deployer world;
+		final int      group;// index of the world
+		final int      x;
+		final int      z;
+		final int      c;// container number, independent of the schedule
+		final long     cost;// compressed bytes of source region data covered by the tile
+		long curve;
+
+		Tile(Deployer world, int group, int x, int z, int c, long cost) {
+			this.world = world;
+			this.group = group;
+			this.x = x;
+			this.z = z;
+			this.c = c;
+			this.cost = cost;
+		}
+	}
+
+}
@@ -0,0 +1,292 @@
+package org.inventivetalent.minetile.deployer;
+
+import org.inventivetalent.nbt.CompoundTag;
+import org.inventivetalent.nbt.stream.NBTInputStream;
+import org.inventivetalent.nbt.stream.NBTOutputStream;
+import picocli.CommandLine;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+
+/**
+ * Reverse of a deployment: merges the container worlds back into a single world, e.g. to back up a world after an event or to edit it again.
+ * <p>
+ * Every chunk of the merged world is owned by the tile whose core contains it, the copies other containers keep in their halo are ignored.
+ * Chunks that only exist in a halo (outside of every deployed tile) are taken from the closest tile, unless <code>--coreOnly</code> is set.
+ * Chunk coordinates, entities, tile entities, ticks and points of interest are moved back with the same {@link RelocationTransformer} that moved them into the containers.
+ */
+@CommandLine.Command(name = "gather",
+					 description = "Merge the container worlds of a deployment back into a single world",
+					 mixinStandardHelpOptions = true,
+					 showDefaultValues = true)
+public class WorldGatherer implements Callable<Boolean> {
+
+	@CommandLine.Option(names = { "-o", "--output" },
+						paramLabel = "FILE",
+						description = "Output Directory of the deployment to gather")
+	private File output = new File("./deploy");
+
+	@CommandLine.Option(names = { "-t", "--target" },
+						paramLabel = "FILE",
+						description = "World directory to write the merged world to")
+	private File target = new File("./gathered");
+
+	@CommandLine.Option(names = { "--worldName" },
+						paramLabel = "NAME",
+						description = "Name of the world directory in the containers")
+	private String worldName = "world";
+
+	@CommandLine.Option(names = { "--tileSize" },
+						description = "Tile size the deployment was created with (default: read from the router config)")
+	private int tileSize = 0;
+
+	@CommandLine.Option(names = { "--coreOnly" },
+						description = "Only gather chunks from the tile that owns them, drop chunks that only exist in a halo")
+	private boolean coreOnly = false;
+
+	@CommandLine.Option(names = { "--threads" },
+						description = "Number of region files to merge at the same time")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private int tileSizeMca;
+
+	private final Map<RegionKind, ChunkTransformPipeline> pipelines = new EnumMap<>(RegionKind.class);
+
+	private final AtomicLong regionCount   = new AtomicLong();
+	private final AtomicLong chunkCount    = new AtomicLong();
+	private final AtomicLong haloOnlyCount = new AtomicLong();// chunks taken from a halo because no container owns them
+	private final AtomicLong droppedCount  = new AtomicLong();// halo copies ignored in favour of the owner (or dropped with --coreOnly)
+	private final AtomicLong failedCount   = new AtomicLong();
+
+	@Override
+	public Boolean call() throws Exception {
+		if (tileSize <= 0) {
+			tileSize = DeployVerifier.readRouterTileSize(new File(output, "bungee/plugins/MineTileRouter/config.yml"));
+		}
+		tileSizeMca = (int) Math.ceil(tileSize / 32.0D);
+
+		ShardedWorld world;
+		try {
+			world = ShardedWorld.load(output, worldName, tileSize);
+		} catch (IOException e) {
+			Log.error(e.getMessage());
+			return false;
+		}
+		List<ShardedWorld.Container> containers = world.getContainers();
+
+		// all container regions that end up in the same merged region, per region folder
+		Map<String, RegionKind> folderKinds = new TreeMap<>();
+		Map<String, Map<Long, List<Piece>>> merges = new TreeMap<>();
+		for (ShardedWorld.Container container : containers) {
+			for (RegionFolder folder : RegionFolder.discover(container.worldDir)) {
+				File[] regionFiles = folder.getDirectory().listFiles((d, n) -> DeployVerifier.REGION_NAME.matcher(n).matches());
+				if (regionFiles == null) { continue; }
+				folderKinds.put(folder.getPath(), folder.getKind());
+				Map<Long, List<Piece>> regions = merges.computeIfAbsent(folder.getPath(), p -> new HashMap<>());
+				for (File regionFile : regionFiles) {
+					Matcher matcher = DeployVerifier.REGION_NAME.matcher(regionFile.getName());
+					matcher.matches();
+					int sx = Integer.parseInt(matcher.group(1));
+					int sz = Integer.parseInt(matcher.group(2));
+					int rx = tileSizeMca * 2 * container.x + sx;
+					int rz = tileSizeMca * 2 * container.z + sz;
+					regions.computeIfAbsent(ShardedWorld.key(rx, rz), k -> new ArrayList<>()).add(new Piece(container, regionFile, sx, sz));
+				}
+			}
+		}
+		for (RegionKind kind : RegionKind.values()) {
+			pipelines.put(kind, new ChunkTransformPipeline(kind, Collections.singletonList(new RelocationTransformer())));
+		}
+
+		int total = 0;
+		for (Map<Long, List<Piece>> regions : merges.values()) {
+			total += regions.size();
+		}
+		Log.info("Gathering {} containers (tileSize {}) into {} regions in {} with {} threads...", containers.size(), tileSize, total, target, threads);
+
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (Map.Entry<String, Map<Long, List<Piece>>> folder : merges.entrySet()) {
+				RegionKind kind = folderKinds.get(folder.getKey());
+				File regionDir = new File(target, folder.getKey());
+				regionDir.mkdirs();
+				for (Map.Entry<Long, List<Piece>> region : folder.getValue().entrySet()) {
+					int rx = (int) (region.getKey() >> 32);
+					int rz = (int) (long) region.getKey();
+					futures.add(executor.submit(() -> {
+						try {
+							mergeRegion(kind, new File(regionDir, "r." + rx + "." + rz + ".mca"), rx, rz, region.getValue());
+						} catch (IOException e) {
+							failedCount.incrementAndGet();
+							Log.error("Failed to merge {}/r.{}.{}.mca: {}", folder.getKey(), rx, rz, e);
+						}
+					}));
+				}
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		target.mkdirs();
+		copyLevelData(world);
+
+		Log.info("");
+		Log.info("{} regions with {} chunks gathered in {}ms", regionCount.get(), chunkCount.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		Log.info("{} halo copies ignored, {} chunks only existed in a halo{}", droppedCount.get(), haloOnlyCount.get(), coreOnly ? "" : " and were taken from the closest tile");
+		if (failedCount.get() > 0) {
+			Log.error("{} chunks or regions failed to merge", failedCount.get());
+			return false;
+		}
+		return true;
+	}
+
+	void mergeRegion(RegionKind kind, File file, int rx, int rz, List<Piece> pieces) throws IOException {
+		pieces.sort(Comparator.comparing(p -> p.container.name));
+		RegionFile[] inputs = new RegionFile[pieces.size()];
+		File partial = new File(file.getParentFile(), file.getName() + Deployer.PARTIAL_SUFFIX);
+		Files.deleteIfExists(partial.toPath());
+		try {
+			for (int i = 0; i < inputs.length; i++) {
+				inputs[i] = new RegionFile(pieces.get(i).file);
+			}
+
+			// pick one container per chunk: the owner, or the closest tile that has the chunk in its halo
+			int[] winner = new int[1024];
+			for (int slot = 0; slot < 1024; slot++) {
+				int chunkX = rx * 32 + slot % 32;
+				int chunkZ = rz * 32 + slot / 32;
+				int ownerX = ownerTile(chunkX);
+				int ownerZ = ownerTile(chunkZ);
+				winner[slot] = -1;
+				int bestDistance = Integer.MAX_VALUE;
+				int copies = 0;
+				for (int i = 0; i < inputs.length; i++) {
+					if (!inputs[i].hasChunk(slot % 32, slot / 32)) {
+						continue;
+					}
+					copies++;
+					ShardedWorld.Container container = pieces.get(i).container;
+					int distance = Math.max(Math.abs(container.x - ownerX), Math.abs(container.z - ownerZ));
+					if (distance < bestDistance && (distance == 0 || !coreOnly)) {
+						bestDistance = distance;
+						winner[slot] = i;
+					}
+				}
+				if (winner[slot] != -1) {
+					droppedCount.addAndGet(copies - 1);
+					if (bestDistance > 0) {
+						haloOnlyCount.incrementAndGet();
+					}
+				} else {
+					droppedCount.addAndGet(copies);
+				}
+			}
+
+			int chunks = 0;
+			try (RegionWriter out = new RegionWriter(partial)) {
+				ByteArrayOutputStream chunkBuffer = new ByteArrayOutputStream(64 * 1024);
+				for (int i = 0; i < inputs.length; i++) {
+					final int index = i;
+					Piece piece = pieces.get(i);
+					for (RegionReadPlan.Run run : new RegionReadPlan(inputs[i], slot -> winner[slot] == index).getRuns()) {
+						byte[] sectors = inputs[i].readSectors(run.getFirstSector(), run.getSectorCount());
+						for (int s = 0; s < run.getSlotCount(); s++) {
+							int cX = run.getSlot(s) % 32;
+							int cZ = run.getSlot(s) / 32;
+							try (DataInputStream inStream = inputs[i].getChunkDataInputStream(cX, cZ, sectors, run.getFirstSector())) {
+								if (inStream == null) {
+									failedCount.incrementAndGet();
+									Log.error("Failed to read chunk {},{} of {}", cX, cZ, piece.file);
+									continue;
+								}
+								// moving back: the container position is the "source", the world position the destination
+								ChunkContext context = new ChunkContext(kind, piece.container.x, piece.container.z,
+										piece.sx * 32 + cX, piece.sz * 32 + cZ,
+										rx * 32 + cX, rz * 32 + cZ,
+										ownerTile(rx * 32 + cX) != piece.container.x || ownerTile(rz * 32 + cZ) != piece.container.z);
+								chunkBuffer.reset();
+								try {
+									pipelines.get(kind).transform(context, inStream, new DataOutputStream(chunkBuffer));
+								} catch (Exception e) {
+									failedCount.incrementAndGet();
+									Log.error("Failed to transform chunk {},{} of {}: {}", cX, cZ, piece.file, e);
+									continue;
+								}
+								if (!out.writeChunk(cX, cZ, chunkBuffer)) {
+									failedCount.incrementAndGet();// RegionWriter logged it
+									continue;
+								}
+								chunks++;
+							}
+						}
+					}
+				}
+			}
+
+			if (chunks == 0) {
+				Files.deleteIfExists(partial.toPath());
+				return;
+			}
+			Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			regionCount.incrementAndGet();
+			chunkCount.addAndGet(chunks);
+		} finally {
+			for (RegionFile input : inputs) {
+				if (input != null) {
+					input.close();
+				}
+			}
+		}
+	}
+
+	/* tile whose core contains the chunk coordinate (same on both axes), see TileArea */
+	int ownerTile(int chunk) {
+		return Math.floorDiv(chunk + tileSizeMca * 32, tileSizeMca * 64);
+	}
+
+	void copyLevelData(ShardedWorld world) throws IOException {
+		File levelFile = world.getLevelFile();
+		if (!levelFile.exists()) {
+			Log.warn("No level.dat found in the containers, the merged world has none");
+			return;
+		}
+		CompoundTag rootTag;
+		try (NBTInputStream nbtIn = new NBTInputStream(new FileInputStream(levelFile), true)) {
+			rootTag = (CompoundTag) nbtIn.readNBTTag();
+		}
+		if (rootTag == null || !world.restoreSourceSpawn(rootTag.getCompound("Data"))) {
+			// deployed before the source spawn was recorded, the spawn is the one of the level.dat's tile
+			Files.copy(levelFile.toPath(), new File(target, "level.dat").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Log.warn("The containers don't record the spawn of the source world, copied level.dat from {} with the spawn of that tile", levelFile.getParentFile().getParent());
+			return;
+		}
+		try (NBTOutputStream nbtOut = new NBTOutputStream(new FileOutputStream(new File(target, "level.dat")), true)) {
+			nbtOut.writeTag(rootTag);
+		}
+	}
+
+	static class Piece {
+		final ShardedWorld.Container container;
+		final File      file;
+		final int       sx;
+		final int       sz;
+
+		Piece(ShardedWorld.Container container, File file, int sx, int sz) {
+			this.container = container;
+			this.file = file;
+			this.sx = sx;
+			this.sz = sz;
+		}
+	}
+
+}
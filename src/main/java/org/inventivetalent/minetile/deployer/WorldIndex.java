@@ -0,0 +1,378 @@
+package org.inventivetalent.minetile.deployer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.regex.Matcher;
+
+/**
+ * Persistent index of all region files of a world: per chunk the offset, size, compression type, timestamp and whether the entry is valid.
+ * <p>
+ * The index file is memory-mapped and consists of fixed-size records sorted by folder and region coordinates, so lookups are a binary search without touching the world itself.
+ * When loading, every region file's modification time and size are compared with the index and only changed, new or removed regions are re-read.
+ * <p>
+ * Layout: <code>MTWIDX</code>, version, folder paths, record count, records of {@link #RECORD_SIZE} bytes.
+ */
+public class WorldIndex {
+
+	static final String FILE_NAME = "world.index";
+
+	private static final byte[] MAGIC   = { 'M', 'T', 'W', 'I', 'D', 'X' };
+	private static final int    VERSION = 1;
+
+	private static final int SECTOR_BYTES = 4096;
+
+	/* per chunk info byte: compression type in the lower bits, this flag if the header entry is invalid */
+	static final int INVALID = 0x80;
+
+	// record layout
+	private static final int FOLDER      = 0;
+	private static final int X           = 4;
+	private static final int Z           = 8;
+	private static final int CHUNK_COUNT = 12;
+	private static final int MTIME       = 16;
+	private static final int SIZE        = 24;
+	private static final int OFFSETS     = 32;
+	private static final int TIMESTAMPS  = OFFSETS + 1024 * 4;
+	private static final int INFO        = TIMESTAMPS + 1024 * 4;
+	static final         int RECORD_SIZE = INFO + 1024;
+
+	private final List<String>     folders;
+	private final MappedByteBuffer buffer;
+	private final int              recordsStart;
+	private final int              recordCount;
+
+	private int rebuiltRegions;
+
+	WorldIndex(List<String> folders, MappedByteBuffer buffer, int recordsStart, int recordCount) {
+		this.folders = folders;
+		this.buffer = buffer;
+		this.recordsStart = recordsStart;
+		this.recordCount = recordCount;
+	}
+
+	/**
+	 * Loads the index file, brings it up to date with the world and maps it
+	 *
+	 * @param indexFile     index file, created if it doesn't exist
+	 * @param regionFolders region folders of the world to index
+	 */
+	public static WorldIndex load(File indexFile, List<RegionFolder> regionFolders) throws IOException {
+		List<String> folders = new ArrayList<>();
+		for (RegionFolder folder : regionFolders) {
+			folders.add(folder.getPath());
+		}
+
+		// existing records by folder path + file name
+		Map<String, ByteBuffer> existing = new HashMap<>();
+		boolean modified = true;
+		if (indexFile.exists()) {
+			try {
+				WorldIndex old = map(indexFile);
+				for (int i = 0; i < old.recordCount; i++) {
+					ByteBuffer record = old.record(i);
+					String folder = old.folders.get(record.getInt(FOLDER));
+					existing.put(folder + "/r." + record.getInt(X) + "." + record.getInt(Z) + ".mca", record);
+				}
+				modified = !old.folders.equals(folders);
+			} catch (IOException e) {
+				Log.warn("World index {} is invalid, rebuilding it: {}", indexFile, e.getMessage());
+			}
+		}
+
+		// compare with the files on disk, keep unchanged records and re-read the others
+		List<IndexEntry> entries = Collections.synchronizedList(new ArrayList<>());
+		List<IndexEntry> changed = new ArrayList<>();
+		for (int f = 0; f < regionFolders.size(); f++) {
+			RegionFolder folder = regionFolders.get(f);
+			File[] files = folder.getDirectory().listFiles((dir, name) -> DeployVerifier.REGION_NAME.matcher(name).matches());
+			if (files == null) { continue; }
+			for (File file : files) {
+				ByteBuffer record = existing.remove(folder.getPath() + "/" + file.getName());
+				if (record != null && record.getLong(MTIME) == file.lastModified() && record.getLong(SIZE) == file.length()) {
+					entries.add(new IndexEntry(f, record));
+				} else {
+					changed.add(new IndexEntry(f, file));
+					modified = true;
+				}
+			}
+		}
+		modified |= !existing.isEmpty();// removed regions
+
+		if (!modified) {
+			return map(indexFile);
+		}
+
+		changed.parallelStream().forEach(entry -> {
+			try {
+				entries.add(new IndexEntry(entry.folder, readRecord(entry.file)));
+			} catch (IOException e) {
+				Log.warn("Failed to index {}: {}", entry.file, e.getMessage());
+			}
+		});
+		entries.sort(Comparator.<IndexEntry> comparingInt(e -> e.folder).thenComparingInt(e -> e.record.getInt(X)).thenComparingInt(e -> e.record.getInt(Z)));
+		write(indexFile, folders, entries);
+
+		WorldIndex index = map(indexFile);
+		index.rebuiltRegions = changed.size();
+		return index;
+	}
+
+	/* a record to write, either kept from the old index or newly read from the file */
+	static class IndexEntry {
+		final int        folder;
+		final File       file;
+		final ByteBuffer record;
+
+		IndexEntry(int folder, File file) {
+			this.folder = folder;
+			this.file = file;
+			this.record = null;
+		}
+
+		IndexEntry(int folder, ByteBuffer record) {
+			this.folder = folder;
+			this.file = null;
+			this.record = record;
+		}
+	}
+
+	static ByteBuffer readRecord(File file) throws IOException {
+		Matcher matcher = DeployVerifier.REGION_NAME.matcher(file.getName());
+		matcher.matches();
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+		record.putInt(X, Integer.parseInt(matcher.group(1)));
+		record.putInt(Z, Integer.parseInt(matcher.group(2)));
+		record.putLong(MTIME, file.lastModified());
+
+		IoThrottle.operation();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			record.putLong(SIZE, length);
+			if (length < SECTOR_BYTES * 2) {
+				return record;
+			}
+			IoThrottle.read(SECTOR_BYTES * 2);
+			ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES * 2);
+			while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+				// read both header sectors
+			}
+
+			int chunkCount = 0;
+			ByteBuffer chunkHeader = ByteBuffer.allocate(RegionFile.CHUNK_HEADER_SIZE);
+			for (int slot = 0; slot < 1024; slot++) {
+				int offset = header.getInt(slot * 4);
+				record.putInt(TIMESTAMPS + slot * 4, header.getInt(SECTOR_BYTES + slot * 4));
+				if (offset == 0) { continue; }
+				record.putInt(OFFSETS + slot * 4, offset);
+
+				int sectorNumber = offset >>> 8;
+				int numSectors = offset & 0xFF;
+				int info = INVALID;
+				if (sectorNumber >= 2 && numSectors > 0 && (long) (sectorNumber + numSectors) * SECTOR_BYTES <= length) {
+					chunkHeader.clear();
+					channel.read(chunkHeader, (long) sectorNumber * SECTOR_BYTES);
+					int chunkLength = chunkHeader.getInt(0);
+					if (chunkLength > 1 && chunkLength <= numSectors * SECTOR_BYTES) {
+						info = chunkHeader.get(4) & 0x7F;
+						chunkCount++;
+					}
+				}
+				record.put(INFO + slot, (byte) info);
+			}
+			record.putInt(CHUNK_COUNT, chunkCount);
+		}
+		return record;
+	}
+
+	static void write(File indexFile, List<String> folders, List<IndexEntry> entries) throws IOException {
+		File partial = new File(indexFile.getAbsoluteFile().getParentFile(), indexFile.getName() + Deployer.PARTIAL_SUFFIX);
+		try (FileOutputStream fileOut = new FileOutputStream(partial);
+			 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1024 * 1024))) {
+			ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+			DataOutputStream header = new DataOutputStream(headerBytes);
+			header.write(MAGIC);
+			header.writeInt(VERSION);
+			header.writeInt(folders.size());
+			for (String folder : folders) {
+				header.writeUTF(folder);
+			}
+			header.writeInt(entries.size());
+
+			out.writeInt(headerBytes.size() + 4);// records start
+			headerBytes.writeTo(out);
+			byte[] recordBytes = new byte[RECORD_SIZE];
+			for (IndexEntry entry : entries) {
+				// the folder index is rewritten since the folder order may have changed
+				entry.record.duplicate().get(recordBytes);
+				out.writeInt(entry.folder);
+				out.write(recordBytes, 4, RECORD_SIZE - 4);
+			}
+			out.flush();
+			fileOut.getChannel().force(false);
+		}
+		Files.move(partial.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static WorldIndex map(File indexFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(readHeader(buffer)));
+			int recordsStart = in.readInt();
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("not a world index");
+			}
+			if (in.readInt() != VERSION) {
+				throw new IOException("unsupported index version");
+			}
+			int folderCount = in.readInt();
+			List<String> folders = new ArrayList<>();
+			for (int i = 0; i < folderCount; i++) {
+				folders.add(in.readUTF());
+			}
+			int recordCount = in.readInt();
+			if (recordsStart + (long) recordCount * RECORD_SIZE != channel.size()) {
+				throw new IOException("index file is truncated");
+			}
+			return new WorldIndex(folders, buffer, recordsStart, recordCount);
+		}
+	}
+
+	static byte[] readHeader(MappedByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < 4) {
+			throw new IOException("index file is empty");
+		}
+		int length = buffer.getInt(0);
+		if (length < 4 || length > buffer.capacity()) {
+			throw new IOException("invalid index header");
+		}
+		byte[] header = new byte[length];
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.get(header);
+		return header;
+	}
+
+	ByteBuffer record(int i) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(recordsStart + i * RECORD_SIZE);
+		duplicate.limit(recordsStart + (i + 1) * RECORD_SIZE);
+		return duplicate.slice();
+	}
+
+	/* record index of a region, or -1 */
+	int find(RegionFolder folder, int x, int z) {
+		int f = folders.indexOf(folder.getPath());
+		if (f == -1) {
+			return -1;
+		}
+		int low = 0;
+		int high = recordCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int position = recordsStart + mid * RECORD_SIZE;
+			int compare = Integer.compare(buffer.getInt(position + FOLDER), f);
+			if (compare == 0) { compare = Integer.compare(buffer.getInt(position + X), x); }
+			if (compare == 0) { compare = Integer.compare(buffer.getInt(position + Z), z); }
+			if (compare < 0) {
+				low = mid + 1;
+			} else if (compare > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	public boolean hasRegion(RegionFolder folder, int x, int z) {
+		return find(folder, x, z) != -1;
+	}
+
+	/* number of valid chunks in a region, 0 if it doesn't exist */
+	public int getChunkCount(RegionFolder folder, int x, int z) {
+		int i = find(folder, x, z);
+		return i == -1 ? 0 : buffer.getInt(recordsStart + i * RECORD_SIZE + CHUNK_COUNT);
+	}
+
+	/* size of the region file in bytes, 0 if it doesn't exist */
+	public long getRegionSize(RegionFolder folder, int x, int z) {
+		int i = find(folder, x, z);
+		return i == -1 ? 0 : buffer.getLong(recordsStart + i * RECORD_SIZE + SIZE);
+	}
+
+	/* header offset (sector << 8 | sector count) of a chunk slot (x + z * 32), 0 if it doesn't exist */
+	public int getOffset(RegionFolder folder, int x, int z, int slot) {
+		int i = find(folder, x, z);
+		return i == -1 ? 0 : buffer.getInt(recordsStart + i * RECORD_SIZE + OFFSETS + slot * 4);
+	}
+
+	public int getTimestamp(RegionFolder folder, int x, int z, int slot) {
+		int i = find(folder, x, z);
+		return i == -1 ? 0 : buffer.getInt(recordsStart + i * RECORD_SIZE + TIMESTAMPS + slot * 4);
+	}
+
+	/* compression type of a chunk slot, 0 if it doesn't exist or is invalid */
+	public int getCompression(RegionFolder folder, int x, int z, int slot) {
+		int info = getInfo(folder, x, z, slot);
+		return (info & INVALID) != 0 ? 0 : info;
+	}
+
+	public boolean isValid(RegionFolder folder, int x, int z, int slot) {
+		return (getInfo(folder, x, z, slot) & INVALID) == 0 && getOffset(folder, x, z, slot) != 0;
+	}
+
+	int getInfo(RegionFolder folder, int x, int z, int slot) {
+		int i = find(folder, x, z);
+		return i == -1 ? 0 : buffer.get(recordsStart + i * RECORD_SIZE + INFO + slot) & 0xFF;
+	}
+
+	public int getRegionCount() {
+		return recordCount;
+	}
+
+	/* number of regions re-read from the world when loading */
+	public int getRebuiltRegions() {
+		return rebuiltRegions;
+	}
+
+	/* x, z and number of valid chunks of every region of a folder */
+	public List<int[]> getRegions(RegionFolder folder) {
+		int f = folders.indexOf(folder.getPath());
+		List<int[]> regions = new ArrayList<>();
+		for (int i = 0; i < recordCount; i++) {
+			int position = recordsStart + i * RECORD_SIZE;
+			if (buffer.getInt(position + FOLDER) == f) {
+				regions.add(new int[] { buffer.getInt(position + X), buffer.getInt(position + Z), buffer.getInt(position + CHUNK_COUNT) });
+			}
+		}
+		return regions;
+	}
+
+	/* reads the header of a region file that isn't indexed, returns the number of valid chunks */
+	static int countChunks(File file) throws IOException {
+		return readRecord(file).getInt(CHUNK_COUNT);
+	}
+
+	/* regions and valid chunks of a folder */
+	public long[] getTotals(RegionFolder folder) {
+		int f = folders.indexOf(folder.getPath());
+		long[] totals = new long[2];
+		for (int i = 0; i < recordCount; i++) {
+			int position = recordsStart + i * RECORD_SIZE;
+			if (buffer.getInt(position + FOLDER) == f) {
+				totals[0]++;
+				totals[1] += buffer.getInt(position + CHUNK_COUNT);
+			}
+		}
+		return totals;
+	}
+
+}
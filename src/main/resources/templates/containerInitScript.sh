@@ -5,6 +5,7 @@ CONTAINER_VERSION="--CONTAINER_VERSION--"
 SERVER_DOWNLOAD="--SERVER_DOWNLOAD--"
 
 SERVER_BASE="--SERVER_BASE--"
+CHUNK_STORE="--CHUNK_STORE--"
 
 echo "Init Script for $CONTAINER_NAME"
 
@@ -18,6 +19,17 @@ if [[ ! -z $SERVER_BASE ]]; then
     cp -a -n $SERVER_BASE .
 fi
 
+if [[ -f chunks.manifest ]]; then
+    echo "Assembling region files from $CHUNK_STORE..."
+    while read -r REGION OBJECTS; do
+        mkdir -p "$(dirname "$REGION")"
+        (cd "$CHUNK_STORE" && cat $OBJECTS) > "$REGION.partial" && mv "$REGION.partial" "$REGION"
+        if [[ ! $? -eq 0 ]]; then
+            echo "Failed to assemble $REGION"
+        fi
+    done < chunks.manifest
+fi
+
 if [[ ! -z $SERVER_DOWNLOAD ]]; then
     echo "Downloading server jar..."
     wget $SERVER_DOWNLOAD